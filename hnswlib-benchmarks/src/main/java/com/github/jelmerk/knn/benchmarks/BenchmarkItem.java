@@ -0,0 +1,38 @@
+package com.github.jelmerk.knn.benchmarks;
+
+import com.github.jelmerk.knn.Item;
+
+/**
+ * Item used by the benchmarks.
+ *
+ * @param <TVector> Type of the vector to perform distance calculation on
+ */
+public class BenchmarkItem<TVector> implements Item<Integer, TVector> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int id;
+    private final TVector vector;
+    private final int dimensions;
+
+    public BenchmarkItem(int id, TVector vector, int dimensions) {
+        this.id = id;
+        this.vector = vector;
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public Integer id() {
+        return id;
+    }
+
+    @Override
+    public TVector vector() {
+        return vector;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+}
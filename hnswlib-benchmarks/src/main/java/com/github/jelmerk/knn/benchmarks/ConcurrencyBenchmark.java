@@ -0,0 +1,288 @@
+package com.github.jelmerk.knn.benchmarks;
+
+import com.github.jelmerk.knn.DistanceFunctions;
+import com.github.jelmerk.knn.hnsw.HnswIndex;
+import com.github.jelmerk.knn.hnsw.SizeLimitExceededException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stress tests a {@link HnswIndex} with threads that concurrently add, remove, search and get items. Sweeps a range
+ * of thread counts and write ratios and reports, per operation, the throughput and the p50, p99 and p999 latencies.
+ * Lock contention is reported as the number of times and the total time the worker threads were blocked on a monitor,
+ * such as the node locks, and waited on a lock or condition, such as the global lock, as collected by
+ * {@link ThreadMXBean}.
+ * <p>
+ * Every run starts from a copy of the same index. Writes are split evenly between adds and removes of random ids out
+ * of a pool twice the size of the initial index, so about half the writes change the index. Options, all of them
+ * optional :
+ * <pre>
+ * --size          number of items in the initial index, default 20000
+ * --dimensions    dimensionality of the vectors, default 128
+ * --m             M of the index, default 16
+ * --ef            ef of the index, default 50
+ * --k             number of nearest neighbors to search for, default 10
+ * --threads       comma separated thread counts, default 1,2,4,8,16,32,64
+ * --write-ratios  comma separated fractions of operations that are writes, default 0,0.01,0.1,0.5
+ * --get-ratio     fraction of the reads that are gets instead of searches, default 0.1
+ * --warmup        seconds to run before measuring, default 2
+ * --duration      seconds to measure, default 10
+ * --output        file to write the csv to, default concurrency.csv
+ * </pre>
+ */
+public final class ConcurrencyBenchmark {
+
+    private static final String CSV_HEADER = "threads,writeRatio,operation,count,opsPerSecond,p50Micros,p99Micros,"
+            + "p999Micros,maxMicros,blockedCount,blockedMillis,waitedCount,waitedMillis";
+
+    private enum Operation {
+        ADD, REMOVE, FIND_NEAREST, GET
+    }
+
+    private ConcurrencyBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+
+        int size = options.getInt("size", 20000);
+        int dimensions = options.getInt("dimensions", 128);
+        int m = options.getInt("m", 16);
+        int ef = options.getInt("ef", 50);
+        int k = options.getInt("k", 10);
+        double getRatio = options.getDouble("get-ratio", 0.1);
+        long warmupNanos = TimeUnit.SECONDS.toNanos(options.getInt("warmup", 2));
+        long durationNanos = TimeUnit.SECONDS.toNanos(options.getInt("duration", 10));
+
+        List<BenchmarkItem<float[]>> items = Datasets.items(
+                Datasets.clusteredFloatVectors(size * 2, dimensions, 100, Datasets.SEED));
+
+        System.out.printf("Building index with %d items.%n", size);
+
+        HnswIndex<Integer, float[], BenchmarkItem<float[]>, Float> initial = HnswIndex
+                .newBuilder(dimensions, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE, size * 4)
+                .withM(m)
+                .withEf(ef)
+                .withRemoveEnabled()
+                .build();
+
+        initial.addAll(items.subList(0, size));
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        initial.save(serialized);
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean.isThreadContentionMonitoringSupported()) {
+            threadMXBean.setThreadContentionMonitoringEnabled(true);
+        }
+
+        Path output = Paths.get(options.getString("output", "concurrency.csv"));
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8))) {
+            writer.println(CSV_HEADER);
+
+            for (double writeRatio : options.getDoubles("write-ratios", "0,0.01,0.1,0.5")) {
+                for (int threads : options.getInts("threads", "1,2,4,8,16,32,64")) {
+                    HnswIndex<Integer, float[], BenchmarkItem<float[]>, Float> index =
+                            HnswIndex.load(new ByteArrayInputStream(serialized.toByteArray()));
+
+                    Run run = new Run(index, items, threads, writeRatio, getRatio, k);
+                    run.execute(threadMXBean, warmupNanos, durationNanos);
+
+                    System.out.printf("%d threads, write ratio %.2f%n", threads, writeRatio);
+                    run.report(writer, durationNanos);
+                    writer.flush();
+                }
+            }
+        }
+
+        System.out.printf("%nWrote results to %s.%n", output);
+    }
+
+    private static final class Run {
+
+        private final HnswIndex<Integer, float[], BenchmarkItem<float[]>, Float> index;
+        private final List<BenchmarkItem<float[]>> items;
+        private final int numThreads;
+        private final double writeRatio;
+        private final double getRatio;
+        private final int k;
+
+        private final LatencyHistogram[][] histograms;
+
+        private volatile boolean measuring;
+        private volatile boolean stopped;
+
+        private long blockedCount;
+        private long blockedMillis;
+        private long waitedCount;
+        private long waitedMillis;
+        private long rejected;
+
+        Run(HnswIndex<Integer, float[], BenchmarkItem<float[]>, Float> index,
+            List<BenchmarkItem<float[]>> items,
+            int numThreads,
+            double writeRatio,
+            double getRatio,
+            int k) {
+
+            this.index = index;
+            this.items = items;
+            this.numThreads = numThreads;
+            this.writeRatio = writeRatio;
+            this.getRatio = getRatio;
+            this.k = k;
+            this.histograms = new LatencyHistogram[numThreads][Operation.values().length];
+        }
+
+        void execute(ThreadMXBean threadMXBean, long warmupNanos, long durationNanos) throws InterruptedException {
+            CountDownLatch done = new CountDownLatch(numThreads);
+            long[] rejectedPerThread = new long[numThreads];
+
+            Thread[] threads = new Thread[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                int threadIndex = i;
+                for (int j = 0; j < histograms[i].length; j++) {
+                    histograms[i][j] = new LatencyHistogram();
+                }
+                threads[i] = new Thread(() -> {
+                    try {
+                        rejectedPerThread[threadIndex] = work(histograms[threadIndex]);
+                    } finally {
+                        done.countDown();
+                    }
+                }, "stress-" + i);
+                threads[i].start();
+            }
+
+            long[] threadIds = Arrays.stream(threads).mapToLong(Thread::getId).toArray();
+
+            TimeUnit.NANOSECONDS.sleep(warmupNanos);
+            ThreadInfo[] before = threadMXBean.getThreadInfo(threadIds);
+            measuring = true;
+
+            TimeUnit.NANOSECONDS.sleep(durationNanos);
+            measuring = false;
+            ThreadInfo[] after = threadMXBean.getThreadInfo(threadIds);
+            stopped = true;
+
+            done.await();
+
+            for (int i = 0; i < numThreads; i++) {
+                if (before[i] != null && after[i] != null) {
+                    blockedCount += after[i].getBlockedCount() - before[i].getBlockedCount();
+                    blockedMillis += after[i].getBlockedTime() - before[i].getBlockedTime();
+                    waitedCount += after[i].getWaitedCount() - before[i].getWaitedCount();
+                    waitedMillis += after[i].getWaitedTime() - before[i].getWaitedTime();
+                }
+                rejected += rejectedPerThread[i];
+            }
+        }
+
+        private long work(LatencyHistogram[] threadHistograms) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long rejectedAdds = 0;
+
+            while (!stopped) {
+                Operation operation;
+                if (random.nextDouble() < writeRatio) {
+                    operation = random.nextBoolean() ? Operation.ADD : Operation.REMOVE;
+                } else {
+                    operation = random.nextDouble() < getRatio ? Operation.GET : Operation.FIND_NEAREST;
+                }
+
+                BenchmarkItem<float[]> item = items.get(random.nextInt(items.size()));
+
+                long start = System.nanoTime();
+                switch (operation) {
+                    case ADD:
+                        try {
+                            index.add(item);
+                        } catch (SizeLimitExceededException e) {
+                            rejectedAdds++;
+                        }
+                        break;
+                    case REMOVE:
+                        index.remove(item.id(), item.version());
+                        break;
+                    case GET:
+                        index.get(item.id());
+                        break;
+                    default:
+                        index.findNearest(item.vector(), k);
+                        break;
+                }
+                long latency = System.nanoTime() - start;
+
+                if (measuring) {
+                    threadHistograms[operation.ordinal()].record(latency);
+                }
+            }
+            return rejectedAdds;
+        }
+
+        void report(PrintWriter writer, long durationNanos) {
+            if (rejected > 0) {
+                System.out.printf("  %d adds were rejected because the index was full%n", rejected);
+            }
+
+            double seconds = durationNanos / 1e9;
+
+            LatencyHistogram all = new LatencyHistogram();
+            for (Operation operation : Operation.values()) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                for (LatencyHistogram[] threadHistograms : histograms) {
+                    histogram.merge(threadHistograms[operation.ordinal()]);
+                }
+                all.merge(histogram);
+
+                if (histogram.getCount() > 0) {
+                    writer.println(row(operation.name(), histogram, seconds));
+                }
+            }
+
+            writer.println(row("ALL", all, seconds));
+
+            System.out.printf("  %.0f ops/s, p50 %.1f us, p99 %.1f us, p999 %.1f us, blocked %d ms, waited %d ms%n",
+                    all.getCount() / seconds,
+                    micros(all.getValueAtQuantile(0.5)),
+                    micros(all.getValueAtQuantile(0.99)),
+                    micros(all.getValueAtQuantile(0.999)),
+                    blockedMillis,
+                    waitedMillis);
+        }
+
+        private String row(String operation, LatencyHistogram histogram, double seconds) {
+            return String.format(Locale.ROOT, "%d,%s,%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%d,%d,%d,%d",
+                    numThreads,
+                    writeRatio,
+                    operation,
+                    histogram.getCount(),
+                    histogram.getCount() / seconds,
+                    micros(histogram.getValueAtQuantile(0.5)),
+                    micros(histogram.getValueAtQuantile(0.99)),
+                    micros(histogram.getValueAtQuantile(0.999)),
+                    micros(histogram.getMax()),
+                    blockedCount,
+                    blockedMillis,
+                    waitedCount,
+                    waitedMillis);
+        }
+
+        private static double micros(long nanos) {
+            return nanos / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.jelmerk.knn.benchmarks;
+
+import com.github.jelmerk.knn.SparseVector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded synthetic datasets, so benchmark runs are repeatable and need no downloads.
+ */
+public final class Datasets {
+
+    /**
+     * Seed used by all benchmarks unless stated otherwise.
+     */
+    public static final long SEED = 42L;
+
+    /**
+     * Fraction of the dimensions of a sparse vector that hold a value.
+     */
+    private static final double SPARSE_DENSITY = 0.1;
+
+    /**
+     * Standard deviation of the gaussians clustered vectors are drawn from.
+     */
+    private static final double CLUSTER_STANDARD_DEVIATION = 0.1;
+
+    private Datasets() {
+    }
+
+    /**
+     * Creates vectors whose values are drawn uniformly from [0, 1).
+     *
+     * @param count number of vectors to create
+     * @param dimensions dimensionality of the vectors
+     * @param seed the random seed
+     * @return the vectors
+     */
+    public static float[][] floatVectors(int count, int dimensions, long seed) {
+        Random random = new Random(seed);
+
+        float[][] vectors = new float[count][dimensions];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = random.nextFloat();
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * Creates vectors whose values are drawn uniformly from [0, 1).
+     *
+     * @param count number of vectors to create
+     * @param dimensions dimensionality of the vectors
+     * @param seed the random seed
+     * @return the vectors
+     */
+    public static double[][] doubleVectors(int count, int dimensions, long seed) {
+        Random random = new Random(seed);
+
+        double[][] vectors = new double[count][dimensions];
+        for (double[] vector : vectors) {
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = random.nextDouble();
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * Creates vectors drawn from gaussians with a standard deviation of 0.1 around cluster centers that are drawn
+     * uniformly from [0, 1). Real embeddings tend to be clustered, which makes these a better stand in for them than
+     * uniform vectors when measuring recall.
+     *
+     * @param count number of vectors to create
+     * @param dimensions dimensionality of the vectors
+     * @param clusters number of clusters
+     * @param seed the random seed
+     * @return the vectors
+     */
+    public static float[][] clusteredFloatVectors(int count, int dimensions, int clusters, long seed) {
+        float[][] centers = floatVectors(clusters, dimensions, seed);
+
+        Random random = new Random(seed + 1);
+
+        float[][] vectors = new float[count][dimensions];
+        for (float[] vector : vectors) {
+            float[] center = centers[random.nextInt(clusters)];
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = center[i] + (float) (random.nextGaussian() * CLUSTER_STANDARD_DEVIATION);
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * Creates sparse vectors with a value in about a tenth of their dimensions.
+     *
+     * @param count number of vectors to create
+     * @param dimensions dimensionality of the vectors
+     * @param seed the random seed
+     * @return the vectors
+     */
+    @SuppressWarnings("unchecked")
+    public static SparseVector<float[]>[] sparseFloatVectors(int count, int dimensions, long seed) {
+        Random random = new Random(seed);
+
+        SparseVector<float[]>[] vectors = new SparseVector[count];
+        for (int n = 0; n < count; n++) {
+            int[] indices = sparseIndices(dimensions, random);
+            float[] values = new float[indices.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextFloat();
+            }
+            vectors[n] = new SparseVector<>(indices, values);
+        }
+        return vectors;
+    }
+
+    /**
+     * Creates sparse vectors with a value in about a tenth of their dimensions.
+     *
+     * @param count number of vectors to create
+     * @param dimensions dimensionality of the vectors
+     * @param seed the random seed
+     * @return the vectors
+     */
+    @SuppressWarnings("unchecked")
+    public static SparseVector<double[]>[] sparseDoubleVectors(int count, int dimensions, long seed) {
+        Random random = new Random(seed);
+
+        SparseVector<double[]>[] vectors = new SparseVector[count];
+        for (int n = 0; n < count; n++) {
+            int[] indices = sparseIndices(dimensions, random);
+            double[] values = new double[indices.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextDouble();
+            }
+            vectors[n] = new SparseVector<>(indices, values);
+        }
+        return vectors;
+    }
+
+    /**
+     * Wraps vectors in items with consecutive ids.
+     *
+     * @param vectors the vectors to wrap
+     * @return the items
+     */
+    public static List<BenchmarkItem<float[]>> items(float[][] vectors) {
+        List<BenchmarkItem<float[]>> items = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            items.add(new BenchmarkItem<>(i, vectors[i], vectors[i].length));
+        }
+        return items;
+    }
+
+    private static int[] sparseIndices(int dimensions, Random random) {
+        int[] indices = new int[dimensions];
+        int size = 0;
+        for (int i = 0; i < dimensions; i++) {
+            if (random.nextDouble() < SPARSE_DENSITY) {
+                indices[size++] = i;
+            }
+        }
+        if (size == 0) {
+            indices[size++] = random.nextInt(dimensions);
+        }
+        int[] result = new int[size];
+        System.arraycopy(indices, 0, result, 0, size);
+        return result;
+    }
+}
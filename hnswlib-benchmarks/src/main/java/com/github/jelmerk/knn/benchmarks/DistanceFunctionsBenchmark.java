@@ -0,0 +1,77 @@
+package com.github.jelmerk.knn.benchmarks;
+
+import com.github.jelmerk.knn.DistanceFunction;
+import com.github.jelmerk.knn.DistanceFunctions;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to compute a single distance with each of the {@link DistanceFunctions}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DistanceFunctionsBenchmark {
+
+    /**
+     * Number of vector pairs cycled through so the benchmark is not answered from a single cache line.
+     */
+    private static final int NUM_VECTORS = 1024;
+
+    @Param({
+            "FLOAT_COSINE_DISTANCE",
+            "FLOAT_INNER_PRODUCT",
+            "FLOAT_EUCLIDEAN_DISTANCE",
+            "FLOAT_CANBERRA_DISTANCE",
+            "FLOAT_BRAY_CURTIS_DISTANCE",
+            "FLOAT_CORRELATION_DISTANCE",
+            "FLOAT_MANHATTAN_DISTANCE",
+            "DOUBLE_COSINE_DISTANCE",
+            "DOUBLE_INNER_PRODUCT",
+            "DOUBLE_EUCLIDEAN_DISTANCE",
+            "DOUBLE_CANBERRA_DISTANCE",
+            "DOUBLE_BRAY_CURTIS_DISTANCE",
+            "DOUBLE_CORRELATION_DISTANCE",
+            "DOUBLE_MANHATTAN_DISTANCE",
+            "FLOAT_SPARSE_VECTOR_INNER_PRODUCT",
+            "DOUBLE_SPARSE_VECTOR_INNER_PRODUCT"
+    })
+    private String distanceFunctionName;
+
+    @Param({"32", "128", "384", "768", "1536"})
+    private int dimensions;
+
+    private DistanceFunction<Object, Object> distanceFunction;
+
+    private Object[] vectors;
+
+    private int position;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws ReflectiveOperationException {
+        distanceFunction = (DistanceFunction<Object, Object>) DistanceFunctions.class
+                .getField(distanceFunctionName).get(null);
+
+        if (distanceFunctionName.contains("SPARSE")) {
+            vectors = distanceFunctionName.startsWith("FLOAT")
+                    ? Datasets.sparseFloatVectors(NUM_VECTORS, dimensions, Datasets.SEED)
+                    : Datasets.sparseDoubleVectors(NUM_VECTORS, dimensions, Datasets.SEED);
+        } else {
+            vectors = distanceFunctionName.startsWith("FLOAT")
+                    ? Datasets.floatVectors(NUM_VECTORS, dimensions, Datasets.SEED)
+                    : Datasets.doubleVectors(NUM_VECTORS, dimensions, Datasets.SEED);
+        }
+    }
+
+    @Benchmark
+    public Object distance() {
+        int current = position;
+        position = (current + 1) & (NUM_VECTORS - 1);
+        return distanceFunction.distance(vectors[current], vectors[position]);
+    }
+}
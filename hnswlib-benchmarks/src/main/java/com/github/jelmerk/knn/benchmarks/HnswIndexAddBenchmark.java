@@ -0,0 +1,54 @@
+package com.github.jelmerk.knn.benchmarks;
+
+import com.github.jelmerk.knn.DistanceFunctions;
+import com.github.jelmerk.knn.hnsw.HnswIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to add a single item to a {@link HnswIndex}. Every invocation builds a fresh index
+ * from a fixed set of items so the cost of an add is averaged over an index that grows from empty to full.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HnswIndexAddBenchmark {
+
+    private static final int NUM_ITEMS = 5000;
+
+    @Param({"128"})
+    private int dimensions;
+
+    @Param({"16"})
+    private int m;
+
+    @Param({"100", "200"})
+    private int efConstruction;
+
+    private List<BenchmarkItem<float[]>> items;
+
+    @Setup
+    public void setUp() {
+        items = Datasets.items(Datasets.floatVectors(NUM_ITEMS, dimensions, Datasets.SEED));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_ITEMS)
+    public HnswIndex<Integer, float[], BenchmarkItem<float[]>, Float> add() {
+        HnswIndex<Integer, float[], BenchmarkItem<float[]>, Float> index = HnswIndex
+                .newBuilder(dimensions, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE, NUM_ITEMS)
+                .withM(m)
+                .withEfConstruction(efConstruction)
+                .build();
+
+        for (BenchmarkItem<float[]> item : items) {
+            index.add(item);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.jelmerk.knn.benchmarks;
+
+import com.github.jelmerk.knn.DistanceFunctions;
+import com.github.jelmerk.knn.SearchResult;
+import com.github.jelmerk.knn.hnsw.HnswIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of {@link HnswIndex#findNearest(Object, int)} for a range of M and ef settings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HnswIndexSearchBenchmark {
+
+    private static final int NUM_QUERIES = 1024;
+
+    @Param({"10000"})
+    private int numItems;
+
+    @Param({"128"})
+    private int dimensions;
+
+    @Param({"8", "16", "32"})
+    private int m;
+
+    @Param({"10", "50", "200"})
+    private int ef;
+
+    @Param({"10"})
+    private int k;
+
+    private HnswIndex<Integer, float[], BenchmarkItem<float[]>, Float> index;
+
+    private float[][] queries;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        index = HnswIndex.newBuilder(dimensions, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE, numItems)
+                .withM(m)
+                .withEf(ef)
+                .build();
+
+        index.addAll(Datasets.items(Datasets.floatVectors(numItems, dimensions, Datasets.SEED)));
+
+        queries = Datasets.floatVectors(NUM_QUERIES, dimensions, Datasets.SEED + 1);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int position;
+
+        int next() {
+            int current = position;
+            position = (current + 1) & (NUM_QUERIES - 1);
+            return current;
+        }
+    }
+
+    @Benchmark
+    public List<SearchResult<BenchmarkItem<float[]>, Float>> findNearest(Cursor cursor) {
+        return index.findNearest(queries[cursor.next()], k);
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.jelmerk.knn.benchmarks;
+
+import com.github.jelmerk.knn.DistanceFunctions;
+import com.github.jelmerk.knn.hnsw.HnswIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to save and load a {@link HnswIndex}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HnswIndexSerializationBenchmark {
+
+    @Param({"10000"})
+    private int numItems;
+
+    @Param({"128"})
+    private int dimensions;
+
+    @Param({"16"})
+    private int m;
+
+    private HnswIndex<Integer, float[], BenchmarkItem<float[]>, Float> index;
+
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        index = HnswIndex.newBuilder(dimensions, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE, numItems)
+                .withM(m)
+                .build();
+
+        index.addAll(Datasets.items(Datasets.floatVectors(numItems, dimensions, Datasets.SEED)));
+
+        serialized = save();
+    }
+
+    @Benchmark
+    public byte[] save() throws IOException {
+        ByteArrayOutputStream out = serialized == null
+                ? new ByteArrayOutputStream()
+                : new ByteArrayOutputStream(serialized.length);
+        index.save(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public HnswIndex<Integer, float[], BenchmarkItem<float[]>, Float> load() throws IOException {
+        return HnswIndex.load(new ByteArrayInputStream(serialized));
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.jelmerk.knn.benchmarks;
+
+/**
+ * Histogram of latencies in nanoseconds with log linear buckets, every bucket is at most 1/64th of its lower bound
+ * wide so percentiles are accurate to within about 1.5%. Not thread safe, give every thread its own histogram and
+ * {@link #merge(LatencyHistogram) merge} them when done.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[SUB_BUCKETS * (64 - SUB_BUCKET_BITS)];
+
+    private long count;
+    private long max;
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[index(value)]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the latencies recorded by another histogram to this histogram.
+     *
+     * @param other the histogram to merge
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the highest recorded latency.
+     *
+     * @return the highest recorded latency in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the latency below which the given fraction of the recorded latencies fall.
+     *
+     * @param quantile the fraction, between 0 and 1
+     * @return the latency in nanoseconds, 0 when nothing was recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(max, value(i));
+            }
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        int exponent = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (int) (SUB_BUCKETS * exponent + (value >>> exponent));
+    }
+
+    private static long value(int index) {
+        int exponent = Math.max(0, index / SUB_BUCKETS - 1);
+        long mantissa = index - (long) SUB_BUCKETS * exponent;
+        return (mantissa << exponent) + ((1L << exponent) >>> 1);
+    }
+}
@@ -0,0 +1,295 @@
+package com.github.jelmerk.knn.benchmarks;
+
+import com.github.jelmerk.knn.DistanceFunction;
+import com.github.jelmerk.knn.DistanceFunctions;
+import com.github.jelmerk.knn.SearchResult;
+import com.github.jelmerk.knn.bruteforce.BruteForceIndex;
+import com.github.jelmerk.knn.hnsw.HnswIndex;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Measures recall against queries per second for a grid of M, efConstruction and ef settings, in the style of
+ * <a href="https://github.com/erikbern/ann-benchmarks">ann-benchmarks</a>. Every combination of M and efConstruction
+ * is built once and then searched with every value of ef. The results are written as csv, and the settings on the
+ * pareto frontier, those for which no other setting has both a higher recall and a higher throughput, are printed
+ * when done.
+ * <p>
+ * Reads its dataset from fvecs and ivecs files when {@code --base} is passed and generates clustered gaussians
+ * otherwise. Options, all of them optional :
+ * <pre>
+ * --base              fvecs file with the vectors to index
+ * --queries           fvecs file with the query vectors, required when --base is passed
+ * --groundtruth       ivecs file with the ids of the true nearest neighbors of the queries, computed with a brute
+ *                     force index when omitted
+ * --size              number of vectors to generate or the maximum number to read, default 100000, or all of them
+ *                     when --groundtruth is passed. The ground truth must not refer to vectors past this size
+ * --dimensions        dimensionality of the generated vectors, default 128
+ * --clusters          number of clusters of the generated vectors, default 100
+ * --num-queries       number of queries to generate or the maximum number to read, default 1000
+ * --distance          name of the float DistanceFunctions constant to use, default FLOAT_EUCLIDEAN_DISTANCE
+ * --k                 number of nearest neighbors to search for, default 10
+ * --m                 comma separated values of M, default 8,16,32
+ * --ef-construction   comma separated values of efConstruction, default 100,200
+ * --ef                comma separated values of ef, default 10,20,40,80,160,320
+ * --output            file to write the csv to, default recall.csv
+ * </pre>
+ */
+public final class RecallBenchmark {
+
+    private static final String CSV_HEADER =
+            "m,efConstruction,ef,k,recall,qps,buildTimeMillis,memoryBytes,pareto";
+
+    private RecallBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+
+        // ground truth files are computed against the full base file, so read all of it unless told otherwise
+        boolean readsGroundTruth = options.contains("base") && options.contains("groundtruth");
+        int size = options.getInt("size", readsGroundTruth ? Integer.MAX_VALUE : 100000);
+        int numQueries = options.getInt("num-queries", 1000);
+        int k = options.getInt("k", 10);
+
+        DistanceFunction<float[], Float> distanceFunction =
+                distanceFunction(options.getString("distance", "FLOAT_EUCLIDEAN_DISTANCE"));
+
+        float[][] base;
+        float[][] queries;
+        int[][] groundTruth = null;
+
+        if (options.contains("base")) {
+            if (!options.contains("queries")) {
+                throw new IllegalArgumentException("--queries is required when --base is passed.");
+            }
+            base = VectorFiles.readFvecs(Paths.get(options.getString("base", null)), size);
+            queries = VectorFiles.readFvecs(Paths.get(options.getString("queries", null)), numQueries);
+            if (options.contains("groundtruth")) {
+                groundTruth = VectorFiles.readIvecs(Paths.get(options.getString("groundtruth", null)), numQueries);
+            }
+        } else {
+            int dimensions = options.getInt("dimensions", 128);
+            int clusters = options.getInt("clusters", 100);
+
+            float[][] vectors = Datasets.clusteredFloatVectors(size + numQueries, dimensions, clusters, Datasets.SEED);
+            base = Arrays.copyOfRange(vectors, 0, size);
+            queries = Arrays.copyOfRange(vectors, size, vectors.length);
+        }
+
+        if (base.length == 0 || queries.length == 0) {
+            throw new IllegalArgumentException("Dataset contains no vectors or no queries.");
+        }
+
+        List<BenchmarkItem<float[]>> items = Datasets.items(base);
+        int dimensions = base[0].length;
+
+        System.out.printf("Dataset contains %d vectors with %d dimensions and %d queries.%n",
+                base.length, dimensions, queries.length);
+
+        if (groundTruth == null) {
+            System.out.println("Computing ground truth.");
+            groundTruth = computeGroundTruth(items, queries, dimensions, distanceFunction, k);
+        } else if (groundTruth.length < queries.length || groundTruth[0].length < k) {
+            throw new IllegalArgumentException("Ground truth does not cover " + queries.length
+                    + " queries with " + k + " neighbors each.");
+        } else {
+            checkGroundTruthIds(groundTruth, queries.length, k, base.length);
+        }
+
+        List<Result> results = new ArrayList<>();
+
+        for (int m : options.getInts("m", "8,16,32")) {
+            for (int efConstruction : options.getInts("ef-construction", "100,200")) {
+                long memoryBefore = usedMemory();
+                long start = System.nanoTime();
+
+                HnswIndex<Integer, float[], BenchmarkItem<float[]>, Float> index = HnswIndex
+                        .newBuilder(dimensions, distanceFunction, items.size())
+                        .withM(m)
+                        .withEfConstruction(efConstruction)
+                        .build();
+
+                index.addAll(items);
+
+                long buildTimeMillis = (System.nanoTime() - start) / 1_000_000;
+                long memoryBytes = usedMemory() - memoryBefore;
+
+                System.out.printf("Built index with M %d and efConstruction %d in %d ms.%n",
+                        m, efConstruction, buildTimeMillis);
+
+                for (int ef : options.getInts("ef", "10,20,40,80,160,320")) {
+                    index.setEf(Math.max(ef, k));
+
+                    search(index, queries, k); // warm up
+
+                    long searchStart = System.nanoTime();
+                    List<List<SearchResult<BenchmarkItem<float[]>, Float>>> found = search(index, queries, k);
+                    double qps = queries.length / ((System.nanoTime() - searchStart) / 1e9);
+
+                    Result result = new Result(m, efConstruction, ef, k, recall(found, groundTruth, k), qps,
+                            buildTimeMillis, memoryBytes);
+                    results.add(result);
+
+                    System.out.printf("  ef %d recall %.4f qps %.0f%n", ef, result.recall, result.qps);
+                }
+            }
+        }
+
+        Set<Result> frontier = paretoFrontier(results);
+
+        Path output = Paths.get(options.getString("output", "recall.csv"));
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8))) {
+            writer.println(CSV_HEADER);
+            for (Result result : results) {
+                writer.println(result.toCsv(frontier.contains(result)));
+            }
+        }
+
+        System.out.printf("%nWrote %d results to %s.%n%n", results.size(), output);
+        printFrontier(frontier, System.out);
+    }
+
+    private static List<List<SearchResult<BenchmarkItem<float[]>, Float>>> search(
+            HnswIndex<Integer, float[], BenchmarkItem<float[]>, Float> index, float[][] queries, int k) {
+
+        List<List<SearchResult<BenchmarkItem<float[]>, Float>>> results = new ArrayList<>(queries.length);
+        for (float[] query : queries) {
+            results.add(index.findNearest(query, k));
+        }
+        return results;
+    }
+
+    private static int[][] computeGroundTruth(List<BenchmarkItem<float[]>> items,
+                                              float[][] queries,
+                                              int dimensions,
+                                              DistanceFunction<float[], Float> distanceFunction,
+                                              int k) throws InterruptedException {
+
+        BruteForceIndex<Integer, float[], BenchmarkItem<float[]>, Float> index = BruteForceIndex
+                .newBuilder(dimensions, distanceFunction)
+                .build();
+
+        index.addAll(items);
+
+        List<List<SearchResult<BenchmarkItem<float[]>, Float>>> nearest =
+                index.findNearestBatch(Arrays.asList(queries), k);
+
+        int[][] groundTruth = new int[queries.length][];
+        for (int i = 0; i < queries.length; i++) {
+            groundTruth[i] = nearest.get(i).stream()
+                    .mapToInt(result -> result.item().id())
+                    .toArray();
+        }
+        return groundTruth;
+    }
+
+    private static void checkGroundTruthIds(int[][] groundTruth, int numQueries, int k, int numVectors) {
+        for (int i = 0; i < numQueries; i++) {
+            for (int j = 0; j < k; j++) {
+                if (groundTruth[i][j] < 0 || groundTruth[i][j] >= numVectors) {
+                    throw new IllegalArgumentException("Ground truth refers to vector " + groundTruth[i][j]
+                            + " but only " + numVectors + " vectors were read, increase or omit --size.");
+                }
+            }
+        }
+    }
+
+    private static double recall(List<List<SearchResult<BenchmarkItem<float[]>, Float>>> found,
+                                 int[][] groundTruth,
+                                 int k) {
+        long hits = 0;
+        for (int i = 0; i < found.size(); i++) {
+            Set<Integer> expected = new HashSet<>();
+            for (int j = 0; j < k; j++) {
+                expected.add(groundTruth[i][j]);
+            }
+            for (SearchResult<BenchmarkItem<float[]>, Float> result : found.get(i)) {
+                if (expected.contains(result.item().id())) {
+                    hits++;
+                }
+            }
+        }
+        return hits / (double) (found.size() * k);
+    }
+
+    /**
+     * Returns the results that are not dominated by another result, where one result dominates another when its
+     * recall and throughput are both at least as high and at least one of them is higher.
+     */
+    static Set<Result> paretoFrontier(List<Result> results) {
+        List<Result> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble((Result r) -> r.recall).reversed()
+                .thenComparing(Comparator.comparingDouble((Result r) -> r.qps).reversed()));
+
+        Set<Result> frontier = new LinkedHashSet<>();
+        double bestQps = Double.NEGATIVE_INFINITY;
+        for (Result result : sorted) {
+            if (result.qps > bestQps) {
+                frontier.add(result);
+                bestQps = result.qps;
+            }
+        }
+        return frontier;
+    }
+
+    private static void printFrontier(Set<Result> frontier, PrintStream out) {
+        out.println("Pareto frontier, best recall first :");
+        out.printf("%6s %16s %6s %8s %12s%n", "M", "efConstruction", "ef", "recall", "qps");
+        for (Result result : frontier) {
+            out.printf("%6d %16d %6d %8.4f %12.0f%n",
+                    result.m, result.efConstruction, result.ef, result.recall, result.qps);
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DistanceFunction<float[], Float> distanceFunction(String name) throws ReflectiveOperationException {
+        if (!name.startsWith("FLOAT") || name.contains("SPARSE")) {
+            throw new IllegalArgumentException("Only dense float distance functions are supported, got " + name + ".");
+        }
+        return (DistanceFunction<float[], Float>) DistanceFunctions.class.getField(name).get(null);
+    }
+
+    static final class Result {
+        final int m;
+        final int efConstruction;
+        final int ef;
+        final int k;
+        final double recall;
+        final double qps;
+        final long buildTimeMillis;
+        final long memoryBytes;
+
+        Result(int m, int efConstruction, int ef, int k, double recall, double qps, long buildTimeMillis,
+               long memoryBytes) {
+            this.m = m;
+            this.efConstruction = efConstruction;
+            this.ef = ef;
+            this.k = k;
+            this.recall = recall;
+            this.qps = qps;
+            this.buildTimeMillis = buildTimeMillis;
+            this.memoryBytes = memoryBytes;
+        }
+
+        String toCsv(boolean pareto) {
+            return String.format(Locale.ROOT, "%d,%d,%d,%d,%.6f,%.1f,%d,%d,%b",
+                    m, efConstruction, ef, k, recall, qps, buildTimeMillis, memoryBytes, pareto);
+        }
+    }
+}
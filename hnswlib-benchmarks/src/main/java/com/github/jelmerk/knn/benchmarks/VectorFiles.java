@@ -0,0 +1,88 @@
+package com.github.jelmerk.knn.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the fvecs and ivecs files the <a href="http://corpus-texmex.irisa.fr/">texmex</a> and ann-benchmarks datasets
+ * are distributed in. Every vector is stored as a little endian int holding the number of dimensions, followed by
+ * that many little endian floats or ints.
+ */
+public final class VectorFiles {
+
+    private VectorFiles() {
+    }
+
+    /**
+     * Reads float vectors from an fvecs file.
+     *
+     * @param path path of the file
+     * @param limit maximum number of vectors to read
+     * @return the vectors
+     * @throws IOException in case of I/O exception
+     */
+    public static float[][] readFvecs(Path path, int limit) throws IOException {
+        List<float[]> vectors = new ArrayList<>();
+        try (DataInputStream in = open(path)) {
+            ByteBuffer buffer;
+            while (vectors.size() < limit && (buffer = readVector(in)) != null) {
+                float[] vector = new float[buffer.remaining() / Float.BYTES];
+                buffer.asFloatBuffer().get(vector);
+                vectors.add(vector);
+            }
+        }
+        return vectors.toArray(new float[0][]);
+    }
+
+    /**
+     * Reads int vectors, typically the ids of the true nearest neighbors of a set of queries, from an ivecs file.
+     *
+     * @param path path of the file
+     * @param limit maximum number of vectors to read
+     * @return the vectors
+     * @throws IOException in case of I/O exception
+     */
+    public static int[][] readIvecs(Path path, int limit) throws IOException {
+        List<int[]> vectors = new ArrayList<>();
+        try (DataInputStream in = open(path)) {
+            ByteBuffer buffer;
+            while (vectors.size() < limit && (buffer = readVector(in)) != null) {
+                int[] vector = new int[buffer.remaining() / Integer.BYTES];
+                buffer.asIntBuffer().get(vector);
+                vectors.add(vector);
+            }
+        }
+        return vectors.toArray(new int[0][]);
+    }
+
+    private static DataInputStream open(Path path) throws IOException {
+        InputStream in = Files.newInputStream(path);
+        return new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    }
+
+    private static ByteBuffer readVector(DataInputStream in) throws IOException {
+        int dimensions;
+        try {
+            dimensions = Integer.reverseBytes(in.readInt());
+        } catch (EOFException e) {
+            return null;
+        }
+
+        if (dimensions < 0) {
+            throw new IOException("Corrupt vector file, negative dimensions " + dimensions + ".");
+        }
+
+        byte[] bytes = new byte[dimensions * 4];
+        in.readFully(bytes);
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.jelmerk.knn;
+
+/**
+ * Hint passed to the index builders that tells what type of identifier the items stored in the index have. Indices
+ * keep a map from identifier to their internal bookkeeping, when the identifiers are ints or longs this map can store
+ * them unboxed, which takes a fraction of the memory.
+ */
+public enum IdType {
+
+    /**
+     * Identifiers of any type. They are stored as objects.
+     */
+    OBJECT,
+
+    /**
+     * Identifiers of type {@link Integer}. They are stored as primitive ints.
+     */
+    INT,
+
+    /**
+     * Identifiers of type {@link Long}. They are stored as primitive longs.
+     */
+    LONG
+}
@@ -1,15 +1,14 @@
 package com.github.jelmerk.knn;
 
-import com.github.jelmerk.knn.util.NamedThreadFactory;
-
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * K-nearest neighbors search index.
@@ -99,56 +98,80 @@ public interface Index<TId, TVector, TItem extends Item<TId, TVector>, TDistance
      */
     default void addAll(Collection<TItem> items, int numThreads, ProgressListener listener, int progressUpdateInterval)
             throws InterruptedException {
+        Indexer.addAll(this, items.iterator(), items.size(), numThreads, listener, progressUpdateInterval);
+    }
 
-        AtomicReference<RuntimeException> throwableHolder = new AtomicReference<>();
-
-        ThreadPoolExecutor executorService = new ThreadPoolExecutor(numThreads, numThreads, 60L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<>(),
-                new NamedThreadFactory("indexer-%d"));
-        executorService.allowCoreThreadTimeOut(true);
-
-        int numItems = items.size();
-
-        AtomicInteger workDone = new AtomicInteger();
-
-        try {
-            Queue<TItem> queue = new LinkedBlockingDeque<>(items);
-
-            CountDownLatch latch = new CountDownLatch(numThreads);
-
-            for (int threadId = 0; threadId < numThreads; threadId++) {
-
-                executorService.submit(() -> {
-                    TItem item;
-                    while(throwableHolder.get() == null && (item = queue.poll()) != null) {
-                        try {
-                            add(item);
-
-                            int done = workDone.incrementAndGet();
-
-                            if (done % progressUpdateInterval == 0 || numItems == done) {
-                                listener.updateProgress(done, items.size());
-                            }
-
-                        } catch (RuntimeException t) {
-                            throwableHolder.set(t);
-                        }
-                    }
-
-                    latch.countDown();
-                });
-            }
+    /**
+     * Add the items returned by the iterator to the index. Items are pulled from the iterator lazily by the calling
+     * thread, so they do not all have to fit in memory at once.
+     *
+     * @param items the items to add to the index
+     * @throws InterruptedException thrown when the thread doing the indexing is interrupted
+     */
+    default void addAll(Iterator<TItem> items) throws InterruptedException {
+        addAll(items, NullProgressListener.INSTANCE);
+    }
 
-            latch.await();
+    /**
+     * Add the items returned by the iterator to the index. Reports progress to the passed in implementation of
+     * {@link ProgressListener} every {@link Index#DEFAULT_PROGRESS_UPDATE_INTERVAL} elements indexed.
+     *
+     * @param items the items to add to the index
+     * @param listener listener to report progress to
+     * @throws InterruptedException thrown when the thread doing the indexing is interrupted
+     */
+    default void addAll(Iterator<TItem> items, ProgressListener listener) throws InterruptedException {
+        addAll(items, Runtime.getRuntime().availableProcessors(), listener, DEFAULT_PROGRESS_UPDATE_INTERVAL);
+    }
 
-            RuntimeException throwable = throwableHolder.get();
+    /**
+     * Add the items returned by the iterator to the index. Items are pulled from the iterator lazily by the calling
+     * thread and handed to the indexing threads through a bounded queue, so the iterator can read the items from
+     * disk or the network while the index is being built. Reports progress to the passed in implementation of
+     * {@link ProgressListener} every progressUpdateInterval elements indexed. Because the total number of items is not
+     * known up front, max will be -1 except for the final update, which is reported once the iterator is exhausted.
+     *
+     * @param items the items to add to the index
+     * @param numThreads number of threads to use for parallel indexing
+     * @param listener listener to report progress to
+     * @param progressUpdateInterval after indexing this many items progress will be reported. The last element will always be reported regardless of this setting.
+     * @throws InterruptedException thrown when the thread doing the indexing is interrupted
+     */
+    default void addAll(Iterator<TItem> items, int numThreads, ProgressListener listener, int progressUpdateInterval)
+            throws InterruptedException {
+        Indexer.addAll(this, items, Indexer.UNKNOWN_SIZE, numThreads, listener, progressUpdateInterval);
+    }
 
-            if (throwable != null) {
-                throw throwable;
-            }
+    /**
+     * Add the items in the stream to the index. Items are consumed from the stream lazily. The stream is closed once
+     * indexing finishes or fails.
+     *
+     * @param items the items to add to the index
+     * @throws InterruptedException thrown when the thread doing the indexing is interrupted
+     */
+    default void addAll(Stream<TItem> items) throws InterruptedException {
+        try (Stream<TItem> stream = items) {
+            addAll(stream.iterator());
+        }
+    }
 
-        } finally {
-            executorService.shutdown();
+    /**
+     * Add the items in the stream to the index. Items are consumed from the stream lazily. Reports progress to the
+     * passed in implementation of {@link ProgressListener} every progressUpdateInterval elements indexed. The stream
+     * is closed once indexing finishes or fails.
+     *
+     * @param items the items to add to the index
+     * @param numThreads number of threads to use for parallel indexing
+     * @param listener listener to report progress to
+     * @param progressUpdateInterval after indexing this many items progress will be reported. The last element will always be reported regardless of this setting.
+     * @throws InterruptedException thrown when the thread doing the indexing is interrupted
+     *
+     * @see #addAll(Iterator, int, ProgressListener, int)
+     */
+    default void addAll(Stream<TItem> items, int numThreads, ProgressListener listener, int progressUpdateInterval)
+            throws InterruptedException {
+        try (Stream<TItem> stream = items) {
+            addAll(stream.iterator(), numThreads, listener, progressUpdateInterval);
         }
     }
 
@@ -199,6 +222,31 @@ public interface Index<TId, TVector, TItem extends Item<TId, TVector>, TDistance
                 .orElse(Collections.emptyList());
     }
 
+    /**
+     * Find the items closest to the passed in vector on the common fork join pool.
+     *
+     * @param vector the vector
+     * @param k number of items to return
+     * @return future that completes with the items closest to the passed in vector
+     */
+    default CompletableFuture<List<SearchResult<TItem, TDistance>>> findNearestAsync(TVector vector, int k) {
+        return findNearestAsync(vector, k, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Find the items closest to the passed in vector on the passed in executor.
+     *
+     * @param vector the vector
+     * @param k number of items to return
+     * @param executor the executor to run the search on
+     * @return future that completes with the items closest to the passed in vector
+     */
+    default CompletableFuture<List<SearchResult<TItem, TDistance>>> findNearestAsync(TVector vector,
+                                                                                     int k,
+                                                                                     Executor executor) {
+        return CompletableFuture.supplyAsync(() -> findNearest(vector, k), executor);
+    }
+
     /**
      * Saves the index to an OutputStream. Saving is not thread safe and you should not modify the index while saving.
      *
@@ -0,0 +1,158 @@
+package com.github.jelmerk.knn;
+
+import com.github.jelmerk.knn.util.NamedThreadFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Adds the items produced by an iterator to an index using multiple threads. The calling thread pulls the items from
+ * the iterator and hands them to the indexing threads through a bounded queue, so no more than a few items per thread
+ * are held in memory at any time.
+ */
+final class Indexer {
+
+    /**
+     * Number of items per indexing thread that are read ahead of the indexing threads.
+     */
+    static final int PREFETCH_PER_THREAD = 64;
+
+    /**
+     * Passed to progress listeners when the total amount of items to index is not known up front.
+     */
+    static final int UNKNOWN_SIZE = -1;
+
+    private static final long POLL_INTERVAL_MILLIS = 100L;
+
+    private static final Object END_OF_INPUT = new Object();
+
+    private Indexer() {
+    }
+
+    /**
+     * Add the items returned by the iterator to the index.
+     *
+     * @param index the index to add the items to
+     * @param items the items to add to the index
+     * @param numItems the number of items the iterator will return or {@link #UNKNOWN_SIZE}
+     * @param numThreads number of threads to use for parallel indexing
+     * @param listener listener to report progress to
+     * @param progressUpdateInterval after indexing this many items progress will be reported
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items
+     * @throws InterruptedException thrown when the thread doing the indexing is interrupted
+     */
+    static <TId, TVector, TItem extends Item<TId, TVector>, TDistance> void addAll(
+            Index<TId, TVector, TItem, TDistance> index,
+            Iterator<TItem> items,
+            int numItems,
+            int numThreads,
+            ProgressListener listener,
+            int progressUpdateInterval) throws InterruptedException {
+
+        AtomicReference<RuntimeException> throwableHolder = new AtomicReference<>();
+        AtomicBoolean aborted = new AtomicBoolean();
+        AtomicInteger workDone = new AtomicInteger();
+
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(numThreads * PREFETCH_PER_THREAD);
+
+        ThreadPoolExecutor executorService = new ThreadPoolExecutor(numThreads, numThreads, 60L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamedThreadFactory("indexer-%d"));
+        executorService.allowCoreThreadTimeOut(true);
+
+        try {
+            CountDownLatch latch = new CountDownLatch(numThreads);
+
+            for (int threadId = 0; threadId < numThreads; threadId++) {
+
+                executorService.submit(() -> {
+                    try {
+                        while (throwableHolder.get() == null && !aborted.get()) {
+
+                            Object item = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+                            if (item == END_OF_INPUT) {
+                                break;
+                            } else if (item == null) {
+                                continue;
+                            }
+
+                            @SuppressWarnings("unchecked")
+                            TItem typedItem = (TItem) item;
+
+                            index.add(typedItem);
+
+                            int done = workDone.incrementAndGet();
+
+                            if (done % progressUpdateInterval == 0 || numItems == done) {
+                                listener.updateProgress(done, numItems);
+                            }
+                        }
+                    } catch (RuntimeException t) {
+                        throwableHolder.compareAndSet(null, t);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+
+            produce(items, queue, throwableHolder);
+
+            for (int threadId = 0; threadId < numThreads; threadId++) {
+                offer(END_OF_INPUT, queue, throwableHolder);
+            }
+
+            latch.await();
+
+            RuntimeException throwable = throwableHolder.get();
+
+            if (throwable != null) {
+                throw throwable;
+            }
+
+            int done = workDone.get();
+
+            // now that the iterator is exhausted the total is known
+            if (numItems == UNKNOWN_SIZE && done > 0) {
+                listener.updateProgress(done, done);
+            }
+
+        } catch (InterruptedException e) {
+            aborted.set(true);
+            throw e;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static void produce(Iterator<?> items,
+                                BlockingQueue<Object> queue,
+                                AtomicReference<RuntimeException> throwableHolder) throws InterruptedException {
+        try {
+            while (throwableHolder.get() == null && items.hasNext()) {
+                offer(items.next(), queue, throwableHolder);
+            }
+        } catch (RuntimeException t) {
+            throwableHolder.compareAndSet(null, t);
+        }
+    }
+
+    private static void offer(Object item,
+                              BlockingQueue<Object> queue,
+                              AtomicReference<RuntimeException> throwableHolder) throws InterruptedException {
+        // once an indexing thread has failed the others stop taking items from the queue so it may never drain
+        while (!queue.offer(item, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (throwableHolder.get() != null) {
+                return;
+            }
+        }
+    }
+}
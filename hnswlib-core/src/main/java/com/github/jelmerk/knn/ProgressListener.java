@@ -10,7 +10,7 @@ public interface ProgressListener {
      * Called by the index at set intervals to report progress of the indexing process.
      *
      * @param workDone the amount of items indexed so far
-     * @param max the total amount of items to be indexed
+     * @param max the total amount of items to be indexed or -1 when this is not known up front
      */
     void updateProgress(int workDone, int max);
 }
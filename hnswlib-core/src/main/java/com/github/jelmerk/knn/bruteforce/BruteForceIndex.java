@@ -1,20 +1,35 @@
 package com.github.jelmerk.knn.bruteforce;
 
 import com.github.jelmerk.knn.DistanceFunction;
+import com.github.jelmerk.knn.IdType;
 import com.github.jelmerk.knn.Index;
 import com.github.jelmerk.knn.Item;
 import com.github.jelmerk.knn.SearchResult;
+import com.github.jelmerk.knn.util.BoundedMaxHeap;
 import com.github.jelmerk.knn.util.ClassLoaderObjectInputStream;
+import com.github.jelmerk.knn.util.IdIntMap;
+import com.github.jelmerk.knn.util.IdLongMap;
+import com.github.jelmerk.knn.util.IdMaps;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Implementation of {@link Index} that does pairwise comparison and as such can be used as a baseline for measuring
  * approximate nearest neighbors index precision.
+ * <p>
+ * Items and their vectors are kept in contiguous arrays, removed items are replaced by the last item so the arrays
+ * never have gaps. Searches of large indices split the scan over the threads of a {@link ForkJoinPool}, and
+ * {@link #findNearestBatch(List, int)} compares blocks of queries against blocks of items so that every block of
+ * vectors is read from memory once per block of queries rather than once per query. Additions and removals wait for
+ * running searches to complete.
  *
  * @param <TId> Type of the external identifier of an item
  * @param <TVector> Type of the vector to perform distance calculation on
@@ -26,19 +41,50 @@ public class BruteForceIndex<TId, TVector, TItem extends Item<TId, TVector>, TDi
 
     private static final long serialVersionUID = 1L;
 
-    private final int dimensions;
-    private final DistanceFunction<TVector, TDistance> distanceFunction;
-    private final Comparator<TDistance> distanceComparator;
+    // the serialized form predates the arrays, it stores the items as a map
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("dimensions", int.class),
+        new ObjectStreamField("distanceFunction", DistanceFunction.class),
+        new ObjectStreamField("distanceComparator", Comparator.class),
+        new ObjectStreamField("items", Map.class),
+        new ObjectStreamField("deletedItemVersions", Map.class),
+        new ObjectStreamField("idType", IdType.class)
+    };
 
-    private final Map<TId, TItem> items;
-    private final Map<TId, Long> deletedItemVersions;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final int NO_SLOT = -1;
+
+    /**
+     * Searches of indices with fewer items than this are done on the calling thread.
+     */
+    private static final int MIN_PARALLEL_SIZE = 16384;
+
+    private static final int SCAN_BATCH_SIZE = 4096;
+
+    private static final int ITEM_BLOCK_SIZE = 256;
+
+    private static final int QUERY_BLOCK_SIZE = 32;
+
+    private int dimensions;
+    private DistanceFunction<TVector, TDistance> distanceFunction;
+    private Comparator<TDistance> distanceComparator;
+
+    private IdType idType;
+
+    private transient ReadWriteLock lock;
+    private transient IdIntMap<TId> slots;
+    private transient IdLongMap<TId> deletedItemVersions;
+    private transient Object[] itemArena;
+    private transient Object[] vectorArena;
+    private transient int size;
 
     private BruteForceIndex(BruteForceIndex.Builder<TVector, TDistance> builder) {
         this.dimensions = builder.dimensions;
         this.distanceFunction = builder.distanceFunction;
         this.distanceComparator = builder.distanceComparator;
-        this.items = new ConcurrentHashMap<>();
-        this.deletedItemVersions = new ConcurrentHashMap<>();
+        this.idType = builder.idType;
+        initializeArena(INITIAL_CAPACITY);
     }
 
     /**
@@ -46,7 +92,12 @@ public class BruteForceIndex<TId, TVector, TItem extends Item<TId, TVector>, TDi
      */
     @Override
     public int size() {
-        return items.size();
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -54,15 +105,34 @@ public class BruteForceIndex<TId, TVector, TItem extends Item<TId, TVector>, TDi
      */
     @Override
     public Optional<TItem> get(TId id) {
-        return Optional.ofNullable(items.get(id));
+        lock.readLock().lock();
+        try {
+            int slot = slots.getIfAbsent(id, NO_SLOT);
+            return slot == NO_SLOT ? Optional.empty() : Optional.of(item(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Returns all items in the index. The items are copied into a new list while holding the read lock, so the
+     * returned collection is a snapshot rather than a live view and building it takes time proportional to the size
+     * of the index. Additions and removals wait while the copy is being made.
+     *
+     * @return all items in the index
      */
     @Override
     public Collection<TItem> items() {
-        return items.values();
+        lock.readLock().lock();
+        try {
+            List<TItem> result = new ArrayList<>(size);
+            for (int slot = 0; slot < size; slot++) {
+                result.add(item(slot));
+            }
+            return Collections.unmodifiableList(result);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -82,19 +152,33 @@ public class BruteForceIndex<TId, TVector, TItem extends Item<TId, TVector>, TDi
         if (item.dimensions() != dimensions) {
             throw new IllegalArgumentException("Item does not have dimensionality of : " + dimensions);
         }
-        synchronized (items) {
-            TItem existingItem = items.get(item.id());
+        lock.writeLock().lock();
+        try {
+            int slot = slots.getIfAbsent(item.id(), NO_SLOT);
 
-            if (existingItem != null && item.version() < existingItem.version()) {
+            if (slot != NO_SLOT && item.version() < item(slot).version()) {
                 return false;
             }
 
-            if (item.version() < deletedItemVersions.getOrDefault(item.id(), 0L)) {
+            if (item.version() < deletedItemVersions.getIfAbsent(item.id(), 0L)) {
                 return false;
             }
 
-            items.put(item.id(), item);
+            if (slot == NO_SLOT) {
+                if (size == itemArena.length) {
+                    int capacity = itemArena.length + (itemArena.length >> 1);
+                    itemArena = Arrays.copyOf(itemArena, capacity);
+                    vectorArena = Arrays.copyOf(vectorArena, capacity);
+                }
+                slot = size++;
+                slots.put(item.id(), slot);
+            }
+
+            itemArena[slot] = item;
+            vectorArena[slot] = item.vector();
             return true;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -103,25 +187,40 @@ public class BruteForceIndex<TId, TVector, TItem extends Item<TId, TVector>, TDi
      */
     @Override
     public boolean remove(TId id, long version) {
-        synchronized (items) {
-            TItem item = items.get(id);
+        lock.writeLock().lock();
+        try {
+            int slot = slots.getIfAbsent(id, NO_SLOT);
 
-            if (item == null) {
+            if (slot == NO_SLOT) {
                 return false;
             }
 
-            if (version < item.version()) {
+            if (version < item(slot).version()) {
                 return false;
             }
-            items.remove(id);
+
+            slots.remove(id);
             deletedItemVersions.put(id, version);
 
+            int last = --size;
+            if (slot != last) {
+                itemArena[slot] = itemArena[last];
+                vectorArena[slot] = vectorArena[last];
+                slots.put(item(slot).id(), slot);
+            }
+            itemArena[last] = null;
+            vectorArena[last] = null;
+
             return true;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Indices with many items are scanned in parallel on the {@link ForkJoinPool#commonPool() common pool}.
      */
     @Override
     public List<SearchResult<TItem, TDistance>> findNearest(TVector vector, int k) {
@@ -129,33 +228,278 @@ public class BruteForceIndex<TId, TVector, TItem extends Item<TId, TVector>, TDi
             throw new IllegalArgumentException("Vector cannot be null.");
         }
 
-        Comparator<SearchResult<TItem, TDistance>> comparator = Comparator
-                .<SearchResult<TItem, TDistance>>naturalOrder()
-                .reversed();
+        lock.readLock().lock();
+        try {
+            BoundedMaxHeap<TDistance> heap;
+            if (size < MIN_PARALLEL_SIZE) {
+                heap = new BoundedMaxHeap<>(Math.min(k, size), distanceComparator);
+                scan(vector, 0, size, heap);
+            } else {
+                heap = ForkJoinPool.commonPool().invoke(new ScanTask(vector, k, 0, size));
+            }
+            return toResults(heap);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-        PriorityQueue<SearchResult<TItem, TDistance>> queue = new PriorityQueue<>(k, comparator);
+    /**
+     * Finds the k nearest neighbors of every vector in a list, on the {@link ForkJoinPool#commonPool() common pool}.
+     *
+     * @param vectors the vectors to search for
+     * @param k number of items to return per vector
+     * @return for every vector, in the order of the passed in list, the k nearest items sorted by distance
+     */
+    public List<List<SearchResult<TItem, TDistance>>> findNearestBatch(List<TVector> vectors, int k) {
+        return findNearestBatch(vectors, k, ForkJoinPool.commonPool());
+    }
 
-        for (TItem item : items.values()) {
-            TDistance distance = distanceFunction.distance(item.vector(), vector);
+    /**
+     * Finds the k nearest neighbors of every vector in a list, using the passed in number of threads. When that equals
+     * the parallelism of the {@link ForkJoinPool#commonPool() common pool} the common pool is used, otherwise a pool
+     * is started for the duration of the call. Pass in a pool with
+     * {@link #findNearestBatch(List, int, ForkJoinPool)} to avoid that when searching batches repeatedly.
+     *
+     * @param vectors the vectors to search for
+     * @param k number of items to return per vector
+     * @param numThreads number of threads to use
+     * @return for every vector, in the order of the passed in list, the k nearest items sorted by distance
+     */
+    public List<List<SearchResult<TItem, TDistance>>> findNearestBatch(List<TVector> vectors, int k, int numThreads) {
+        if (numThreads == ForkJoinPool.commonPool().getParallelism()) {
+            return findNearestBatch(vectors, k, ForkJoinPool.commonPool());
+        }
 
-            SearchResult<TItem, TDistance> searchResult = new SearchResult<>(item, distance, distanceComparator);
-            queue.add(searchResult);
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            return findNearestBatch(vectors, k, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-            if (queue.size() > k) {
-                queue.poll();
+    /**
+     * Finds the k nearest neighbors of every vector in a list on the threads of the passed in pool. Searching many
+     * vectors at once is considerably faster than searching them one by one because blocks of queries are compared
+     * against blocks of items that fit in the processor cache.
+     *
+     * @param vectors the vectors to search for
+     * @param k number of items to return per vector
+     * @param pool the pool to run the search on
+     * @return for every vector, in the order of the passed in list, the k nearest items sorted by distance
+     */
+    public List<List<SearchResult<TItem, TDistance>>> findNearestBatch(List<TVector> vectors,
+                                                                       int k,
+                                                                       ForkJoinPool pool) {
+        Object[] queries = vectors.toArray();
+        for (Object query : queries) {
+            if (query == null) {
+                throw new IllegalArgumentException("Vector cannot be null.");
             }
         }
 
-        List<SearchResult<TItem, TDistance>> results = new ArrayList<>(queue.size());
+        int numThreads = pool.getParallelism();
+
+        lock.readLock().lock();
+        try {
+            List<BoundedMaxHeap<TDistance>> heaps = new ArrayList<>(Collections.nCopies(queries.length, null));
 
-        SearchResult<TItem, TDistance> result;
-        while((result = queue.poll()) != null) { // if you iterate over a priority queue the order is not guaranteed
-            results.add(0, result);
+            if (queries.length < numThreads) {
+                // too few queries to keep every thread busy, split the items instead
+                for (int i = 0; i < queries.length; i++) {
+                    heaps.set(i, pool.invoke(new ScanTask(vector(queries[i]), k, 0, size)));
+                }
+            } else {
+                int queryBlockSize = Math.max(1, Math.min(QUERY_BLOCK_SIZE, queries.length / numThreads));
+                pool.invoke(new QueryBlockTask(queries, k, 0, queries.length, queryBlockSize, heaps));
+            }
+
+            List<List<SearchResult<TItem, TDistance>>> results = new ArrayList<>(queries.length);
+            for (BoundedMaxHeap<TDistance> heap : heaps) {
+                results.add(toResults(heap));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
         }
+    }
+
+    private void scan(TVector vector, int from, int to, BoundedMaxHeap<TDistance> heap) {
+        for (int slot = from; slot < to; slot++) {
+            heap.offer(slot, distanceFunction.distance(vector(vectorArena[slot]), vector));
+        }
+    }
 
+    private List<SearchResult<TItem, TDistance>> toResults(BoundedMaxHeap<TDistance> heap) {
+        List<SearchResult<TItem, TDistance>> results = new ArrayList<>(heap.size());
+        heap.drain((slot, distance) -> results.add(new SearchResult<>(item(slot), distance, distanceComparator)));
+        Collections.reverse(results);
         return results;
     }
 
+    @SuppressWarnings("unchecked")
+    private TItem item(int slot) {
+        return (TItem) itemArena[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    private TVector vector(Object vector) {
+        return (TVector) vector;
+    }
+
+    private void initializeArena(int capacity) {
+        this.lock = new ReentrantReadWriteLock();
+        this.slots = IdMaps.newIdIntMap(idType, capacity);
+        this.deletedItemVersions = IdMaps.newIdLongMap(idType, INITIAL_CAPACITY);
+        this.itemArena = new Object[capacity];
+        this.vectorArena = new Object[capacity];
+        this.size = 0;
+    }
+
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        lock.readLock().lock();
+        try {
+            Map<TId, TItem> items = new LinkedHashMap<>();
+            for (int slot = 0; slot < size; slot++) {
+                TItem item = item(slot);
+                items.put(item.id(), item);
+            }
+
+            Map<TId, Long> deleted = new HashMap<>();
+            deletedItemVersions.forEachKeyValue(deleted::put);
+
+            ObjectOutputStream.PutField fields = oos.putFields();
+            fields.put("dimensions", dimensions);
+            fields.put("distanceFunction", distanceFunction);
+            fields.put("distanceComparator", distanceComparator);
+            fields.put("items", items);
+            fields.put("deletedItemVersions", deleted);
+            fields.put("idType", idType);
+            oos.writeFields();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = ois.readFields();
+        this.dimensions = fields.get("dimensions", 0);
+        this.distanceFunction = (DistanceFunction<TVector, TDistance>) fields.get("distanceFunction", null);
+        this.distanceComparator = (Comparator<TDistance>) fields.get("distanceComparator", null);
+
+        // indices saved before the id type was introduced have object ids
+        IdType savedIdType = (IdType) fields.get("idType", null);
+        this.idType = savedIdType == null ? IdType.OBJECT : savedIdType;
+
+        Map<TId, TItem> items = (Map<TId, TItem>) fields.get("items", null);
+
+        initializeArena(Math.max(INITIAL_CAPACITY, items.size()));
+
+        ((Map<TId, Long>) fields.get("deletedItemVersions", null)).forEach(deletedItemVersions::put);
+
+        for (TItem item : items.values()) {
+            slots.put(item.id(), size);
+            itemArena[size] = item;
+            vectorArena[size] = item.vector();
+            size++;
+        }
+    }
+
+    /**
+     * Scans a range of slots for the nearest neighbors of a single vector. Every leaf task collects candidates in its
+     * own heap, the heaps are merged when the tasks are joined.
+     */
+    private final class ScanTask extends RecursiveTask<BoundedMaxHeap<TDistance>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TVector vector;
+        private final int k;
+        private final int from;
+        private final int to;
+
+        ScanTask(TVector vector, int k, int from, int to) {
+            this.vector = vector;
+            this.k = k;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected BoundedMaxHeap<TDistance> compute() {
+            if (to - from <= SCAN_BATCH_SIZE) {
+                BoundedMaxHeap<TDistance> heap = new BoundedMaxHeap<>(Math.min(k, to - from), distanceComparator);
+                scan(vector, from, to, heap);
+                return heap;
+            }
+
+            int mid = (from + to) >>> 1;
+            ScanTask left = new ScanTask(vector, k, from, mid);
+            left.fork();
+
+            BoundedMaxHeap<TDistance> right = new ScanTask(vector, k, mid, to).compute();
+            BoundedMaxHeap<TDistance> heap = left.join();
+
+            BoundedMaxHeap<TDistance> merged = new BoundedMaxHeap<>(Math.min(k, to - from), distanceComparator);
+            merged.merge(heap);
+            merged.merge(right);
+            return merged;
+        }
+    }
+
+    /**
+     * Finds the nearest neighbors of a range of queries. Leaf tasks walk the items in blocks and compare every block
+     * against all their queries before moving on to the next block, similar to a blocked matrix multiplication.
+     */
+    private final class QueryBlockTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] queries;
+        private final int k;
+        private final int from;
+        private final int to;
+        private final int queryBlockSize;
+        private final List<BoundedMaxHeap<TDistance>> heaps;
+
+        QueryBlockTask(Object[] queries, int k, int from, int to, int queryBlockSize,
+                       List<BoundedMaxHeap<TDistance>> heaps) {
+            this.queries = queries;
+            this.k = k;
+            this.from = from;
+            this.to = to;
+            this.queryBlockSize = queryBlockSize;
+            this.heaps = heaps;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > queryBlockSize) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new QueryBlockTask(queries, k, from, mid, queryBlockSize, heaps),
+                        new QueryBlockTask(queries, k, mid, to, queryBlockSize, heaps));
+                return;
+            }
+
+            List<BoundedMaxHeap<TDistance>> blockHeaps = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                blockHeaps.add(new BoundedMaxHeap<>(Math.min(k, size), distanceComparator));
+            }
+
+            for (int blockStart = 0; blockStart < size; blockStart += ITEM_BLOCK_SIZE) {
+                int blockEnd = Math.min(size, blockStart + ITEM_BLOCK_SIZE);
+                for (int i = from; i < to; i++) {
+                    scan(vector(queries[i]), blockStart, blockEnd, blockHeaps.get(i - from));
+                }
+            }
+
+            for (int i = from; i < to; i++) {
+                heaps.set(i, blockHeaps.get(i - from));
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -317,12 +661,27 @@ public class BruteForceIndex<TId, TVector, TItem extends Item<TId, TVector>, TDi
 
         private final Comparator<TDistance> distanceComparator;
 
+        private IdType idType = IdType.OBJECT;
+
         Builder(int dimensions, DistanceFunction<TVector, TDistance> distanceFunction, Comparator<TDistance> distanceComparator) {
             this.dimensions = dimensions;
             this.distanceFunction = distanceFunction;
             this.distanceComparator = distanceComparator;
         }
 
+        /**
+         * Tells the index what type of identifier its items have. Int and long identifiers are looked up in maps
+         * keyed by primitives, which take a quarter to a third of the memory of the default map. Adding an item
+         * whose identifier does not have the hinted type fails with a ClassCastException.
+         *
+         * @param idType type of the identifiers of the items
+         * @return the builder
+         */
+        public Builder<TVector, TDistance> withIdType(IdType idType) {
+            this.idType = idType;
+            return this;
+        }
+
         /**
          * Builds the BruteForceIndex instance.
          *
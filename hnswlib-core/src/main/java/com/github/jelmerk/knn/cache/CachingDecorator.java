@@ -0,0 +1,376 @@
+package com.github.jelmerk.knn.cache;
+
+import com.github.jelmerk.knn.Index;
+import com.github.jelmerk.knn.Item;
+import com.github.jelmerk.knn.SearchResult;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decorator on top of an index that caches the results of {@link #findNearest(Object, int)}. Workloads where the same
+ * vectors are searched for over and over again, such as popular items, are served from memory instead of searching the
+ * index again.
+ * <p>
+ * Results are cached per vector and k. The cache holds at most maxSize results, when it is full the least recently
+ * used results are evicted. Every add or remove through this decorator invalidates all cached results. Changes made
+ * to the decorated index directly are not seen by the cache, call {@link #invalidate()} after making them.
+ * <p>
+ * Primitive array vectors are copied before they are cached so callers are free to reuse their vector arrays, other
+ * vector types must not be modified after they are passed in.
+ *
+ * @param <TId> Type of the external identifier of an item
+ * @param <TVector> Type of the vector to perform distance calculation on
+ * @param <TItem> Type of items stored in the index
+ * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+ * @param <TIndex> Type of the decorated index
+ */
+public class CachingDecorator<TId, TVector, TItem extends Item<TId, TVector>, TDistance,
+        TIndex extends Index<TId, TVector, TItem, TDistance>>
+        implements Index<TId, TVector, TItem, TDistance>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Maximum number of independently locked segments the cache is split up in.
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    private final TIndex index;
+
+    private final int maxSize;
+
+    private transient AtomicLong generation;
+
+    private transient Segment<TVector, TItem, TDistance>[] segments;
+
+    private transient LongAdder hitCount;
+    private transient LongAdder missCount;
+    private transient LongAdder evictionCount;
+
+    /**
+     * Constructs a new CachingDecorator.
+     *
+     * @param index the index to cache the search results of
+     * @param maxSize maximum number of search results to cache
+     */
+    public CachingDecorator(TIndex index, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1.");
+        }
+
+        this.index = index;
+        this.maxSize = maxSize;
+
+        initialize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add(TItem item) {
+        boolean added = index.add(item);
+        if (added) {
+            // bumped after the change so results computed while the item was being added are never served
+            generation.incrementAndGet();
+        }
+        return added;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove(TId id, long version) {
+        boolean removed = index.remove(id, version);
+        if (removed) {
+            generation.incrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<TItem> get(TId id) {
+        return index.get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(TId id) {
+        return index.contains(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<TItem> items() {
+        return index.items();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<SearchResult<TItem, TDistance>> findNearest(TVector vector, int k) {
+        long currentGeneration = generation.get();
+
+        CacheKey<TVector> key = new CacheKey<>(vector, k);
+
+        Segment<TVector, TItem, TDistance> segment = segmentFor(key);
+
+        CacheEntry<TItem, TDistance> entry = segment.get(key);
+
+        if (entry != null && entry.generation == currentGeneration) {
+            hitCount.increment();
+            return entry.results;
+        }
+
+        missCount.increment();
+
+        List<SearchResult<TItem, TDistance>> results =
+                Collections.unmodifiableList(index.findNearest(vector, k));
+
+        segment.put(new CacheKey<>(copyOf(vector), k), new CacheEntry<>(currentGeneration, results));
+
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(OutputStream out) throws IOException {
+        index.save(out);
+    }
+
+    /**
+     * Discards all cached search results.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+
+        for (Segment<TVector, TItem, TDistance> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns the decorated index.
+     *
+     * @return the decorated index
+     */
+    public TIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the maximum number of search results held in the cache.
+     *
+     * @return the maximum number of search results held in the cache
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of search results currently held in the cache. This includes results that were invalidated
+     * but not yet evicted.
+     *
+     * @return the number of search results currently held in the cache
+     */
+    public int cacheSize() {
+        int size = 0;
+        for (Segment<TVector, TItem, TDistance> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of searches that were answered from the cache.
+     *
+     * @return the number of searches that were answered from the cache
+     */
+    public long hitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Returns the number of searches that had to be passed on to the decorated index.
+     *
+     * @return the number of searches that had to be passed on to the decorated index
+     */
+    public long missCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Returns the number of search results that were evicted from the cache because it was full.
+     *
+     * @return the number of search results that were evicted from the cache
+     */
+    public long evictionCount() {
+        return evictionCount.sum();
+    }
+
+    private Segment<TVector, TItem, TDistance> segmentFor(CacheKey<TVector> key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    @SuppressWarnings("unchecked")
+    private void initialize() {
+        this.generation = new AtomicLong();
+        this.hitCount = new LongAdder();
+        this.missCount = new LongAdder();
+        this.evictionCount = new LongAdder();
+
+        // every segment must be able to hold at least one result, so small caches are split up in fewer segments
+        int numSegments = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maxSize));
+
+        // hand out the capacity so that the sizes of the segments add up to exactly maxSize
+        this.segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            int segmentSize = maxSize / numSegments + (i < maxSize % numSegments ? 1 : 0);
+            segments[i] = new Segment<>(segmentSize, evictionCount);
+        }
+    }
+
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        initialize();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <TVector> TVector copyOf(TVector vector) {
+        if (vector instanceof float[]) {
+            return (TVector) ((float[]) vector).clone();
+        } else if (vector instanceof double[]) {
+            return (TVector) ((double[]) vector).clone();
+        } else if (vector instanceof int[]) {
+            return (TVector) ((int[]) vector).clone();
+        } else if (vector instanceof long[]) {
+            return (TVector) ((long[]) vector).clone();
+        } else if (vector instanceof short[]) {
+            return (TVector) ((short[]) vector).clone();
+        } else if (vector instanceof byte[]) {
+            return (TVector) ((byte[]) vector).clone();
+        } else if (vector instanceof char[]) {
+            return (TVector) ((char[]) vector).clone();
+        } else {
+            return vector;
+        }
+    }
+
+    /**
+     * Least recently used cache holding part of the cached search results.
+     */
+    private static class Segment<TVector, TItem, TDistance> {
+
+        private final LinkedHashMap<CacheKey<TVector>, CacheEntry<TItem, TDistance>> entries;
+
+        Segment(int maxSize, LongAdder evictionCount) {
+            this.entries = new LinkedHashMap<CacheKey<TVector>, CacheEntry<TItem, TDistance>>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CacheKey<TVector>, CacheEntry<TItem, TDistance>> eldest) {
+                    if (size() > maxSize) {
+                        evictionCount.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized CacheEntry<TItem, TDistance> get(CacheKey<TVector> key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(CacheKey<TVector> key, CacheEntry<TItem, TDistance> entry) {
+            CacheEntry<TItem, TDistance> existing = entries.get(key);
+
+            // a slow search must not overwrite the result of a search that started after a later change
+            if (existing == null || existing.generation <= entry.generation) {
+                entries.put(key, entry);
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Key of a cached search result. Vectors are compared by value, so arrays holding the same values match.
+     */
+    private static class CacheKey<TVector> {
+
+        private final TVector vector;
+        private final int k;
+        private final int hash;
+
+        CacheKey(TVector vector, int k) {
+            this.vector = vector;
+            this.k = k;
+            this.hash = 31 * Arrays.deepHashCode(new Object[] { vector }) + k;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey<?> that = (CacheKey<?>) o;
+            return k == that.k && hash == that.hash && Objects.deepEquals(vector, that.vector);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Search results together with the generation of the index they were computed for.
+     */
+    private static class CacheEntry<TItem, TDistance> {
+
+        final long generation;
+        final List<SearchResult<TItem, TDistance>> results;
+
+        CacheEntry(long generation, List<SearchResult<TItem, TDistance>> results) {
+            this.generation = generation;
+            this.results = results;
+        }
+    }
+}
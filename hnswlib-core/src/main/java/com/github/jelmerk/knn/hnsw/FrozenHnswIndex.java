@@ -0,0 +1,507 @@
+package com.github.jelmerk.knn.hnsw;
+
+import com.github.jelmerk.knn.DistanceFunction;
+import com.github.jelmerk.knn.Index;
+import com.github.jelmerk.knn.Item;
+import com.github.jelmerk.knn.SearchResult;
+import com.github.jelmerk.knn.hnsw.HnswIndex.MaxValueComparator;
+import com.github.jelmerk.knn.hnsw.HnswIndex.NodeIdAndDistance;
+import com.github.jelmerk.knn.util.ClassLoaderObjectInputStream;
+import com.github.jelmerk.knn.util.GenericObjectPool;
+import com.github.jelmerk.knn.util.IdIntMap;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Read only snapshot of a {@link HnswIndex} created with {@link HnswIndex#freeze()}. The graph is stored in flat
+ * arrays that never change, so apart from taking a visited list from a pool searches take no locks and read no
+ * volatile fields. Items cannot be added or removed.
+ *
+ * @param <TId>       Type of the external identifier of an item
+ * @param <TVector>   Type of the vector to perform distance calculation on
+ * @param <TItem>     Type of items stored in the index
+ * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+ */
+public class FrozenHnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance>
+        implements Index<TId, TVector, TItem, TDistance> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int NO_NODE_ID = -1;
+
+    private final DistanceFunction<TVector, TDistance> distanceFunction;
+    private final MaxValueComparator<TDistance> maxValueDistanceComparator;
+
+    private final int dimensions;
+    private final int m;
+    private final int efConstruction;
+
+    private int ef;
+
+    private final Object[] items;
+    private final Object[] vectors;
+    private final boolean[] deleted;
+
+    // neighbours on level 0 of node i are stored in level0Connections from level0Offsets[i] to level0Offsets[i + 1]
+    private final int[] level0Offsets;
+    private final int[] level0Connections;
+
+    // neighbours on level l > 0 of node i are stored in upperConnections[i][l - 1], null for nodes on level 0 only
+    private final int[][][] upperConnections;
+
+    private final int entryPoint;
+    private final int[] entryPoints;
+
+    private final IdIntMap<TId> lookup;
+
+    private transient GenericObjectPool<VisitedList> visitedListPool;
+
+    FrozenHnswIndex(DistanceFunction<TVector, TDistance> distanceFunction,
+                    MaxValueComparator<TDistance> maxValueDistanceComparator,
+                    int dimensions,
+                    int m,
+                    int ef,
+                    int efConstruction,
+                    Object[] items,
+                    boolean[] deleted,
+                    int[] level0Offsets,
+                    int[] level0Connections,
+                    int[][][] upperConnections,
+                    int entryPoint,
+                    int[] entryPoints,
+                    IdIntMap<TId> lookup) {
+
+        this.distanceFunction = distanceFunction;
+        this.maxValueDistanceComparator = maxValueDistanceComparator;
+        this.dimensions = dimensions;
+        this.m = m;
+        this.ef = ef;
+        this.efConstruction = efConstruction;
+        this.items = items;
+        this.deleted = deleted;
+        this.level0Offsets = level0Offsets;
+        this.level0Connections = level0Connections;
+        this.upperConnections = upperConnections;
+        this.entryPoint = entryPoint;
+        this.entryPoints = entryPoints;
+        this.lookup = lookup;
+
+        this.vectors = new Object[items.length];
+        for (int nodeId = 0; nodeId < items.length; nodeId++) {
+            vectors[nodeId] = item(nodeId).vector();
+        }
+
+        this.visitedListPool = newVisitedListPool(items.length);
+    }
+
+    /**
+     * This operation is not supported, a frozen index cannot be changed.
+     *
+     * @param item the item to add to the index
+     * @return never returns
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean add(TItem item) {
+        throw new UnsupportedOperationException("Index is frozen.");
+    }
+
+    /**
+     * This operation is not supported, a frozen index cannot be changed.
+     *
+     * @param id unique identifier or the item to remove
+     * @param version version of the delete
+     * @return never returns
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean remove(TId id, long version) {
+        throw new UnsupportedOperationException("Index is frozen.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return lookup.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<TItem> get(TId id) {
+        int nodeId = lookup.getIfAbsent(id, NO_NODE_ID);
+        return nodeId == NO_NODE_ID ? Optional.empty() : Optional.of(item(nodeId));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(TId id) {
+        return lookup.containsKey(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<TItem> items() {
+        List<TItem> results = new ArrayList<>(lookup.size());
+        lookup.forEachValue(nodeId -> results.add(item(nodeId)));
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<SearchResult<TItem, TDistance>> findNearest(TVector destination, int k) {
+
+        if (entryPoint == NO_NODE_ID) {
+            return Collections.emptyList();
+        }
+
+        int currObj = entryPoint;
+
+        TDistance curDist = distanceFunction.distance(destination, vector(currObj));
+
+        for (int candidate : entryPoints) {
+            if (candidate != entryPoint) {
+                TDistance candidateDistance = distanceFunction.distance(destination, vector(candidate));
+
+                if (lt(candidateDistance, curDist)) {
+                    curDist = candidateDistance;
+                    currObj = candidate;
+                }
+            }
+        }
+
+        for (int activeLevel = maxLevel(currObj); activeLevel > 0; activeLevel--) {
+
+            boolean changed = true;
+
+            while (changed) {
+                changed = false;
+
+                for (int candidateId : upperConnections[currObj][activeLevel - 1]) {
+
+                    TDistance candidateDistance = distanceFunction.distance(destination, vector(candidateId));
+
+                    if (lt(candidateDistance, curDist)) {
+                        curDist = candidateDistance;
+                        currObj = candidateId;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates =
+                searchBaseLayer(currObj, curDist, destination, Math.max(ef, k));
+
+        while (topCandidates.size() > k) {
+            topCandidates.poll();
+        }
+
+        List<SearchResult<TItem, TDistance>> results = new ArrayList<>(topCandidates.size());
+        while (!topCandidates.isEmpty()) {
+            NodeIdAndDistance<TDistance> pair = topCandidates.poll();
+            results.add(0, new SearchResult<>(item(pair.nodeId), pair.distance, maxValueDistanceComparator));
+        }
+
+        return results;
+    }
+
+    private PriorityQueue<NodeIdAndDistance<TDistance>> searchBaseLayer(
+            int entryPointId, TDistance entryPointDistance, TVector destination, int k) {
+
+        VisitedList visited = visitedListPool.borrowObject();
+        try {
+            visited.reset();
+            return searchBaseLayer(visited, entryPointId, entryPointDistance, destination, k);
+        } finally {
+            visitedListPool.returnObject(visited);
+        }
+    }
+
+    private PriorityQueue<NodeIdAndDistance<TDistance>> searchBaseLayer(
+            VisitedList visited, int entryPointId, TDistance entryPointDistance, TVector destination, int k) {
+
+        PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates =
+                new PriorityQueue<>(Comparator.<NodeIdAndDistance<TDistance>>naturalOrder().reversed());
+        PriorityQueue<NodeIdAndDistance<TDistance>> candidateSet = new PriorityQueue<>();
+
+        TDistance lowerBound;
+
+        if (!deleted[entryPointId]) {
+            NodeIdAndDistance<TDistance> pair =
+                    new NodeIdAndDistance<>(entryPointId, entryPointDistance, maxValueDistanceComparator);
+
+            topCandidates.add(pair);
+            lowerBound = entryPointDistance;
+            candidateSet.add(pair);
+        } else {
+            lowerBound = MaxValueComparator.maxValue();
+            candidateSet.add(new NodeIdAndDistance<>(entryPointId, lowerBound, maxValueDistanceComparator));
+        }
+
+        visited.visit(entryPointId);
+
+        while (!candidateSet.isEmpty()) {
+
+            NodeIdAndDistance<TDistance> currentPair = candidateSet.poll();
+
+            if (gt(currentPair.distance, lowerBound)) {
+                break;
+            }
+
+            int end = level0Offsets[currentPair.nodeId + 1];
+
+            for (int i = level0Offsets[currentPair.nodeId]; i < end; i++) {
+
+                int candidateId = level0Connections[i];
+
+                if (visited.visit(candidateId)) {
+
+                    TDistance candidateDistance = distanceFunction.distance(destination, vector(candidateId));
+
+                    if (topCandidates.size() < k || gt(lowerBound, candidateDistance)) {
+
+                        NodeIdAndDistance<TDistance> candidatePair =
+                                new NodeIdAndDistance<>(candidateId, candidateDistance, maxValueDistanceComparator);
+
+                        candidateSet.add(candidatePair);
+
+                        if (!deleted[candidateId]) {
+                            topCandidates.add(candidatePair);
+                        }
+
+                        if (topCandidates.size() > k) {
+                            topCandidates.poll();
+                        }
+
+                        if (!topCandidates.isEmpty()) {
+                            lowerBound = topCandidates.peek().distance;
+                        }
+                    }
+                }
+            }
+        }
+
+        return topCandidates;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(OutputStream out) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(this);
+        }
+    }
+
+    /**
+     * Returns the dimensionality of the items stored in this index.
+     *
+     * @return the dimensionality of the items stored in this index
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Returns the number of bi-directional links created for every new element during construction.
+     *
+     * @return the number of bi-directional links created for every new element during construction
+     */
+    public int getM() {
+        return m;
+    }
+
+    /**
+     * The size of the dynamic list for the nearest neighbors (used during the search)
+     *
+     * @return The size of the dynamic list for the nearest neighbors
+     */
+    public int getEf() {
+        return ef;
+    }
+
+    /**
+     * Set the size of the dynamic list for the nearest neighbors (used during the search). Unlike the contents of the
+     * index this value is not safely published to other threads, set it before handing the index to them.
+     *
+     * @param ef The size of the dynamic list for the nearest neighbors
+     */
+    public void setEf(int ef) {
+        this.ef = ef;
+    }
+
+    /**
+     * Returns the parameter that controlled the time / accuracy trade-off when the index was built.
+     *
+     * @return the parameter that controlled the time / accuracy trade-off when the index was built
+     */
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    /**
+     * Returns the distance function.
+     *
+     * @return the distance function
+     */
+    public DistanceFunction<TVector, TDistance> getDistanceFunction() {
+        return distanceFunction;
+    }
+
+    @SuppressWarnings("unchecked")
+    private TItem item(int nodeId) {
+        return (TItem) items[nodeId];
+    }
+
+    @SuppressWarnings("unchecked")
+    private TVector vector(int nodeId) {
+        return (TVector) vectors[nodeId];
+    }
+
+    private int maxLevel(int nodeId) {
+        int[][] connections = upperConnections[nodeId];
+        return connections == null ? 0 : connections.length;
+    }
+
+    private static GenericObjectPool<VisitedList> newVisitedListPool(int size) {
+        // lists are only created once searches ask for them, and no more of them are kept than the pool can hold
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new GenericObjectPool<>(() -> new VisitedList(size), 0, Math.max(4 * processors, 16));
+    }
+
+    private boolean lt(TDistance x, TDistance y) {
+        return maxValueDistanceComparator.compare(x, y) < 0;
+    }
+
+    private boolean gt(TDistance x, TDistance y) {
+        return maxValueDistanceComparator.compare(x, y) > 0;
+    }
+
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        this.visitedListPool = newVisitedListPool(items.length);
+    }
+
+    /**
+     * Restores a {@link FrozenHnswIndex} from a File.
+     *
+     * @param file File to restore the index from
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..).
+     * @return The restored index
+     * @throws IOException in case of an I/O exception
+     */
+    public static <TId, TVector, TItem extends Item<TId, TVector>, TDistance> FrozenHnswIndex<TId, TVector, TItem, TDistance> load(File file)
+            throws IOException {
+        return load(new FileInputStream(file));
+    }
+
+    /**
+     * Restores a {@link FrozenHnswIndex} from a Path.
+     *
+     * @param path Path to restore the index from
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..).
+     * @return The restored index
+     * @throws IOException in case of an I/O exception
+     */
+    public static <TId, TVector, TItem extends Item<TId, TVector>, TDistance> FrozenHnswIndex<TId, TVector, TItem, TDistance> load(Path path)
+            throws IOException {
+        return load(Files.newInputStream(path));
+    }
+
+    /**
+     * Restores a {@link FrozenHnswIndex} from an InputStream.
+     *
+     * @param inputStream InputStream to restore the index from
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ...).
+     * @return The restored index
+     * @throws IOException in case of an I/O exception
+     * @throws IllegalArgumentException in case the file cannot be read
+     */
+    public static <TId, TVector, TItem extends Item<TId, TVector>, TDistance> FrozenHnswIndex<TId, TVector, TItem, TDistance> load(InputStream inputStream)
+            throws IOException {
+        return load(inputStream, Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Restores a {@link FrozenHnswIndex} from an InputStream.
+     *
+     * @param inputStream InputStream to restore the index from
+     * @param classLoader the classloader to use
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ...).
+     * @return The restored index
+     * @throws IOException in case of an I/O exception
+     * @throws IllegalArgumentException in case the file cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public static <TId, TVector, TItem extends Item<TId, TVector>, TDistance> FrozenHnswIndex<TId, TVector, TItem, TDistance> load(InputStream inputStream, ClassLoader classLoader)
+            throws IOException {
+
+        try (ObjectInputStream ois = new ClassLoaderObjectInputStream(classLoader, inputStream)) {
+            return (FrozenHnswIndex<TId, TVector, TItem, TDistance>) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Could not read input file.", e);
+        }
+    }
+
+    /**
+     * Set of visited nodes that is cleared in constant time by moving on to the next mark.
+     */
+    static class VisitedList {
+
+        // one byte per node instead of a full int keeps the list small, the price is clearing it once every 255
+        // searches instead of once every 2^32
+        private final byte[] marks;
+        private byte mark;
+
+        VisitedList(int size) {
+            this.marks = new byte[size];
+        }
+
+        void reset() {
+            if (++mark == 0) {
+                Arrays.fill(marks, (byte) 0);
+                mark = 1;
+            }
+        }
+
+        /**
+         * Marks a node as visited.
+         *
+         * @param nodeId the node to mark
+         * @return true if the node was not visited before
+         */
+        boolean visit(int nodeId) {
+            if (marks[nodeId] == mark) {
+                return false;
+            }
+            marks[nodeId] = mark;
+            return true;
+        }
+    }
+}
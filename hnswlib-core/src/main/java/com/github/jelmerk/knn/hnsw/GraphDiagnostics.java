@@ -0,0 +1,341 @@
+package com.github.jelmerk.knn.hnsw;
+
+import com.github.jelmerk.knn.util.ArrayBitSet;
+import com.github.jelmerk.knn.util.BitSet;
+import org.eclipse.collections.api.set.primitive.IntSet;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Statistics about the structure of the graph of a {@link HnswIndex}, as returned by {@link HnswIndex#diagnose()}.
+ * <p>
+ * Removed items stay in the graph until the index is {@link HnswIndex#compact() compacted}. A high deleted ratio or
+ * a high share of deleted neighbours means searches spend a lot of their time on removed nodes and the index should
+ * be compacted. Items that cannot be reached from the entry point are never returned by a search, if there are any
+ * the index should be compacted or rebuilt.
+ */
+public final class GraphDiagnostics {
+
+    private static final int BATCH_SIZE = 1024;
+
+    private final long nodeCount;
+    private final long deletedNodeCount;
+    private final long unreachableNodeCount;
+    private final double deletedNeighbourShareSum;
+    private final long mostlyDeletedNeighbourCount;
+    private final long[] levelPopulations;
+    private final long[][] degreeDistributions;
+
+    private GraphDiagnostics(long nodeCount,
+                             long deletedNodeCount,
+                             long unreachableNodeCount,
+                             double deletedNeighbourShareSum,
+                             long mostlyDeletedNeighbourCount,
+                             long[] levelPopulations,
+                             long[][] degreeDistributions) {
+        this.nodeCount = nodeCount;
+        this.deletedNodeCount = deletedNodeCount;
+        this.unreachableNodeCount = unreachableNodeCount;
+        this.deletedNeighbourShareSum = deletedNeighbourShareSum;
+        this.mostlyDeletedNeighbourCount = mostlyDeletedNeighbourCount;
+        this.levelPopulations = levelPopulations;
+        this.degreeDistributions = degreeDistributions;
+    }
+
+    /**
+     * Returns the number of nodes in the graph, including the nodes of removed items that were not yet compacted.
+     *
+     * @return the number of nodes in the graph
+     */
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns the number of nodes of removed items that are still part of the graph.
+     *
+     * @return the number of nodes of removed items
+     */
+    public long getDeletedNodeCount() {
+        return deletedNodeCount;
+    }
+
+    /**
+     * Returns the fraction of the nodes in the graph that belong to removed items.
+     *
+     * @return the fraction of the nodes in the graph that belong to removed items
+     */
+    public double getDeletedRatio() {
+        return nodeCount == 0 ? 0 : deletedNodeCount / (double) nodeCount;
+    }
+
+    /**
+     * Returns the number of items that cannot be reached from the entry point by following the connections on the
+     * bottom layer.
+     *
+     * @return the number of items that cannot be reached from the entry point
+     */
+    public long getUnreachableNodeCount() {
+        return unreachableNodeCount;
+    }
+
+    /**
+     * Returns, averaged over all items, the fraction of the connections on the bottom layer that point to removed
+     * items.
+     *
+     * @return the average fraction of connections that point to removed items
+     */
+    public double getMeanDeletedNeighbourShare() {
+        long liveNodeCount = nodeCount - deletedNodeCount;
+        return liveNodeCount == 0 ? 0 : deletedNeighbourShareSum / liveNodeCount;
+    }
+
+    /**
+     * Returns the number of items for which more than half of the connections on the bottom layer point to removed
+     * items.
+     *
+     * @return the number of items with mostly removed neighbours
+     */
+    public long getMostlyDeletedNeighbourCount() {
+        return mostlyDeletedNeighbourCount;
+    }
+
+    /**
+     * Returns the number of layers in the graph.
+     *
+     * @return the number of layers in the graph
+     */
+    public int getNumLevels() {
+        return levelPopulations.length;
+    }
+
+    /**
+     * Returns the number of nodes on a layer of the graph.
+     *
+     * @param level the layer, 0 is the bottom layer that holds all items
+     * @return the number of nodes on the layer
+     */
+    public long getLevelPopulation(int level) {
+        return level < levelPopulations.length ? levelPopulations[level] : 0;
+    }
+
+    /**
+     * Returns the distribution of the number of connections of the nodes on a layer of the graph. Element i of the
+     * returned array holds the number of nodes with i connections.
+     *
+     * @param level the layer, 0 is the bottom layer that holds all items
+     * @return the distribution of the number of connections of the nodes on the layer
+     */
+    public long[] getDegreeDistribution(int level) {
+        return level < degreeDistributions.length ? degreeDistributions[level].clone() : new long[0];
+    }
+
+    /**
+     * Returns the average number of connections of the nodes on a layer of the graph.
+     *
+     * @param level the layer, 0 is the bottom layer that holds all items
+     * @return the average number of connections of the nodes on the layer
+     */
+    public double getMeanDegree(int level) {
+        if (level >= degreeDistributions.length || levelPopulations[level] == 0) {
+            return 0;
+        }
+        long[] distribution = degreeDistributions[level];
+        long connections = 0;
+        for (int degree = 0; degree < distribution.length; degree++) {
+            connections += degree * distribution[degree];
+        }
+        return connections / (double) levelPopulations[level];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append("nodes: ").append(nodeCount).append('\n')
+                .append("deleted nodes: ").append(deletedNodeCount)
+                .append(String.format(" (%.2f%%)", getDeletedRatio() * 100)).append('\n')
+                .append("unreachable nodes: ").append(unreachableNodeCount).append('\n')
+                .append(String.format("mean deleted neighbour share: %.4f", getMeanDeletedNeighbourShare()))
+                .append('\n')
+                .append("nodes with mostly deleted neighbours: ").append(mostlyDeletedNeighbourCount).append('\n');
+
+        for (int level = levelPopulations.length - 1; level >= 0; level--) {
+            builder.append("level ").append(level)
+                    .append(": nodes ").append(levelPopulations[level])
+                    .append(String.format(", mean degree %.2f", getMeanDegree(level)))
+                    .append(", degrees ").append(Arrays.toString(degreeDistributions[level]))
+                    .append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Walks the graph. Reads the published connections of the nodes, so it does not block searches or insertions.
+     */
+    static <TItem> GraphDiagnostics compute(AtomicReferenceArray<HnswIndex.Node<TItem>> nodes,
+                                            int nodeCount,
+                                            IntSet freedNodeIds,
+                                            HnswIndex.Node<TItem> entryPoint,
+                                            ForkJoinPool pool) {
+
+        Accumulator total = new Accumulator();
+
+        ForkJoinTask<Void> task = pool.submit(new HnswIndex.RangeTask(0, nodeCount, BATCH_SIZE, (from, to) -> {
+            Accumulator accumulator = new Accumulator();
+            for (int nodeId = from; nodeId < to; nodeId++) {
+                HnswIndex.Node<TItem> node = nodes.get(nodeId);
+                if (node != null && !freedNodeIds.contains(nodeId)) {
+                    accumulator.add(node, nodes);
+                }
+            }
+            synchronized (total) {
+                total.merge(accumulator);
+            }
+        }));
+
+        // the breadth first search is sequential, run it while the pool collects the other statistics
+        long reachable = countReachable(nodes, nodeCount, entryPoint);
+
+        task.join();
+
+        long[][] degreeDistributions = new long[total.levelPopulations.length][];
+        for (int level = 0; level < degreeDistributions.length; level++) {
+            degreeDistributions[level] = trimTrailingZeros(total.degreeDistributions[level]);
+        }
+
+        // items added while walking the graph can make the reachable count exceed the count of the other walk
+        long unreachable = Math.max(0, total.nodeCount - total.deletedNodeCount - reachable);
+
+        return new GraphDiagnostics(total.nodeCount, total.deletedNodeCount, unreachable,
+                total.deletedNeighbourShareSum,
+                total.mostlyDeletedNeighbourCount, total.levelPopulations, degreeDistributions);
+    }
+
+    private static <TItem> long countReachable(AtomicReferenceArray<HnswIndex.Node<TItem>> nodes,
+                                               int nodeCount,
+                                               HnswIndex.Node<TItem> entryPoint) {
+        if (entryPoint == null) {
+            return 0;
+        }
+
+        BitSet visited = new ArrayBitSet(nodeCount);
+        IntArrayList queue = new IntArrayList();
+
+        visited.add(entryPoint.id);
+        queue.add(entryPoint.id);
+
+        long reachable = 0;
+
+        // searches pass through removed nodes so follow their connections but do not count them
+        for (int position = 0; position < queue.size(); position++) {
+            HnswIndex.Node<TItem> node = nodes.get(queue.get(position));
+
+            if (node == null) {
+                continue;
+            }
+
+            if (!node.deleted) {
+                reachable++;
+            }
+
+            for (int neighbourId : node.connections(0)) {
+                if (neighbourId < nodeCount && !visited.contains(neighbourId)) {
+                    visited.add(neighbourId);
+                    queue.add(neighbourId);
+                }
+            }
+        }
+        return reachable;
+    }
+
+    private static long[] trimTrailingZeros(long[] values) {
+        int length = values.length;
+        while (length > 0 && values[length - 1] == 0) {
+            length--;
+        }
+        return Arrays.copyOf(values, length);
+    }
+
+    private static final class Accumulator {
+
+        private long nodeCount;
+        private long deletedNodeCount;
+        private double deletedNeighbourShareSum;
+        private long mostlyDeletedNeighbourCount;
+        private long[] levelPopulations = new long[0];
+        private long[][] degreeDistributions = new long[0][];
+
+        <TItem> void add(HnswIndex.Node<TItem> node, AtomicReferenceArray<HnswIndex.Node<TItem>> nodes) {
+            nodeCount++;
+
+            if (node.deleted) {
+                deletedNodeCount++;
+            }
+
+            ensureLevels(node.maxLevel() + 1);
+
+            for (int level = 0; level <= node.maxLevel(); level++) {
+                int[] connections = node.connections(level);
+
+                levelPopulations[level]++;
+
+                if (connections.length >= degreeDistributions[level].length) {
+                    degreeDistributions[level] = Arrays.copyOf(degreeDistributions[level], connections.length + 1);
+                }
+                degreeDistributions[level][connections.length]++;
+
+                if (level == 0 && !node.deleted && connections.length > 0) {
+                    int deletedNeighbours = 0;
+                    for (int neighbourId : connections) {
+                        HnswIndex.Node<TItem> neighbour = nodes.get(neighbourId);
+                        if (neighbour == null || neighbour.deleted) {
+                            deletedNeighbours++;
+                        }
+                    }
+
+                    deletedNeighbourShareSum += deletedNeighbours / (double) connections.length;
+
+                    if (deletedNeighbours * 2 > connections.length) {
+                        mostlyDeletedNeighbourCount++;
+                    }
+                }
+            }
+        }
+
+        void merge(Accumulator other) {
+            nodeCount += other.nodeCount;
+            deletedNodeCount += other.deletedNodeCount;
+            deletedNeighbourShareSum += other.deletedNeighbourShareSum;
+            mostlyDeletedNeighbourCount += other.mostlyDeletedNeighbourCount;
+
+            ensureLevels(other.levelPopulations.length);
+
+            for (int level = 0; level < other.levelPopulations.length; level++) {
+                levelPopulations[level] += other.levelPopulations[level];
+
+                long[] otherDistribution = other.degreeDistributions[level];
+                if (otherDistribution.length > degreeDistributions[level].length) {
+                    degreeDistributions[level] = Arrays.copyOf(degreeDistributions[level], otherDistribution.length);
+                }
+                for (int degree = 0; degree < otherDistribution.length; degree++) {
+                    degreeDistributions[level][degree] += otherDistribution[degree];
+                }
+            }
+        }
+
+        private void ensureLevels(int numLevels) {
+            int current = levelPopulations.length;
+            if (numLevels > current) {
+                levelPopulations = Arrays.copyOf(levelPopulations, numLevels);
+                degreeDistributions = Arrays.copyOf(degreeDistributions, numLevels);
+                for (int level = current; level < numLevels; level++) {
+                    degreeDistributions[level] = new long[0];
+                }
+            }
+        }
+    }
+}
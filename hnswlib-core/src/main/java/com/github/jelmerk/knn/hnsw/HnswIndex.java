@@ -5,23 +5,28 @@ import com.github.jelmerk.knn.*;
 import com.github.jelmerk.knn.util.*;
 import com.github.jelmerk.knn.util.BitSet;
 import org.eclipse.collections.api.list.primitive.MutableIntList;
-import org.eclipse.collections.api.map.primitive.MutableObjectIntMap;
-import org.eclipse.collections.api.map.primitive.MutableObjectLongMap;
-import org.eclipse.collections.api.tuple.primitive.ObjectIntPair;
-import org.eclipse.collections.api.tuple.primitive.ObjectLongPair;
 import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
-import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
-import org.eclipse.collections.impl.map.mutable.primitive.ObjectLongHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.*;
 
 /**
  * Implementation of {@link Index} that implements the hnsw algorithm.
+ * <p>
+ * Searches of the graph through {@code findNearest} do not wait for insertions, removals or maintenance operations.
+ * Apart from briefly taking a visited set from a pool they take no locks, which makes them safe to run on event loops
+ * or threads that must not be parked. This does not apply to the exact view returned by {@link #asExactIndex()}, whose
+ * searches wait for compaction, resizing, reordering and freezing to finish.
  *
  * @param <TId>       Type of the external identifier of an item
  * @param <TVector>   Type of the vector to perform distance calculation on
@@ -34,17 +39,27 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         implements Index<TId, TVector, TItem, TDistance> {
 
     private static final byte VERSION_1 = 0x01;
+    private static final byte VERSION_2 = 0x02;
+    private static final byte VERSION_3 = 0x03;
+    private static final byte VERSION_4 = 0x04;
 
     private static final long serialVersionUID = 1L;
 
     private static final int NO_NODE_ID = -1;
 
+    private static final int[] NO_CONNECTIONS = new int[0];
+
+    private static final int BULK_BUILD_BATCH_SIZE = 64;
+
+    // one in this many acquisitions of the lock on a neighbouring node is timed when instrumented
+    private static final int NODE_LOCK_SAMPLE_RATE = 64;
+
     private DistanceFunction<TVector, TDistance> distanceFunction;
     private Comparator<TDistance> distanceComparator;
     private MaxValueComparator<TDistance> maxValueDistanceComparator;
 
     private int dimensions;
-    private int maxItemCount;
+    private volatile int maxItemCount;
     private int m;
     private int maxM;
     private int maxM0;
@@ -52,14 +67,20 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
     private int ef;
     private int efConstruction;
     private boolean removeEnabled;
+    private int numEntryPoints;
 
     private int nodeCount;
 
+    private MutableIntList freedNodeIds;
+
     private volatile Node<TItem> entryPoint;
 
-    private AtomicReferenceArray<Node<TItem>> nodes;
-    private MutableObjectIntMap<TId> lookup;
-    private MutableObjectLongMap<TId> deletedItemVersions;
+    private AtomicReference<List<Node<TItem>>> entryPoints;
+
+    private volatile AtomicReferenceArray<Node<TItem>> nodes;
+    private IdType idType;
+    private IdIntMap<TId> lookup;
+    private IdLongMap<TId> deletedItemVersions;
     private Map<TId, Object> locks;
 
     private ObjectSerializer<TId> itemIdSerializer;
@@ -67,12 +88,16 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
 
     private ReentrantLock globalLock;
 
-    private GenericObjectPool<BitSet> visitedBitSetPool;
+    private ReadWriteLock compactionLock;
+
+    private volatile VisitedBitSetPool visitedBitSetPool;
 
-    private BitSet excludedCandidates;
+    private volatile BitSet excludedCandidates;
 
     private ExactView exactView;
 
+    private volatile HnswInstrumentation instrumentation;
+
     private HnswIndex(RefinedBuilder<TId, TVector, TItem, TDistance> builder) {
 
         this.dimensions = builder.dimensions;
@@ -88,24 +113,30 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         this.efConstruction = Math.max(builder.efConstruction, m);
         this.ef = builder.ef;
         this.removeEnabled = builder.removeEnabled;
+        this.numEntryPoints = builder.numEntryPoints;
+
+        this.entryPoints = new AtomicReference<>(Collections.emptyList());
 
         this.nodes = new AtomicReferenceArray<>(this.maxItemCount);
+        this.freedNodeIds = new IntArrayList();
 
-        this.lookup = new ObjectIntHashMap<>();
-        this.deletedItemVersions = new ObjectLongHashMap<>();
+        this.idType = builder.idType;
+        this.lookup = IdMaps.newIdIntMap(idType, 16);
+        this.deletedItemVersions = IdMaps.newIdLongMap(idType, 16);
         this.locks = new HashMap<>();
 
         this.itemIdSerializer = builder.itemIdSerializer;
         this.itemSerializer = builder.itemSerializer;
 
-        this.globalLock = new ReentrantLock();
+        this.globalLock = new GlobalLock();
+        this.compactionLock = new ReentrantReadWriteLock();
 
-        this.visitedBitSetPool = new GenericObjectPool<>(() -> new ArrayBitSet(this.maxItemCount),
-                Runtime.getRuntime().availableProcessors());
+        this.visitedBitSetPool = new VisitedBitSetPool(this.maxItemCount);
 
-        this.excludedCandidates = new SynchronizedBitSet(new ArrayBitSet(this.maxItemCount));
+        this.excludedCandidates = new ConcurrentBitSet(this.maxItemCount);
 
         this.exactView = new ExactView();
+        this.instrumentation = HnswInstrumentation.NO_OP;
     }
 
     /**
@@ -188,10 +219,14 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
 
             node.deleted = true;
 
+            dropEntryPoint(node);
+
             lookup.remove(id);
 
             deletedItemVersions.put(id, version);
 
+            reportDeletedNodeCount();
+
             return true;
         } finally {
             globalLock.unlock();
@@ -209,13 +244,9 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
 
         int randomLevel = assignLevel(item.id(), this.levelLambda);
 
-        IntArrayList[] connections = new IntArrayList[randomLevel + 1];
-
-        for (int level = 0; level <= randomLevel; level++) {
-            int levelM = randomLevel == 0 ? maxM0 : maxM;
-            connections[level] = new IntArrayList(levelM);
-        }
+        int[][] connections = newConnections(randomLevel);
 
+        compactionLock.readLock().lock();
         globalLock.lock();
 
         try {
@@ -244,11 +275,11 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
                 return false;
             }
 
-            if (nodeCount >= this.maxItemCount) {
+            if (nodeCount >= this.maxItemCount && freedNodeIds.isEmpty()) {
                 throw new SizeLimitExceededException("The number of elements exceeds the specified limit.");
             }
 
-            int newNodeId = nodeCount++;
+            int newNodeId = freedNodeIds.isEmpty() ? nodeCount++ : freedNodeIds.removeAtIndex(freedNodeIds.size() - 1);
 
             excludedCandidates.add(newNodeId);
 
@@ -270,346 +301,1405 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
                             globalLock.unlock();
                         }
 
-                        Node<TItem> currObj = entryPointCopy;
+                        connectNewNode(newNode, entryPointCopy);
 
-                        if (currObj != null) {
-
-                            if (newNode.maxLevel() < entryPointCopy.maxLevel()) {
+                        return true;
+                    }
+                }
+            } finally {
+                excludedCandidates.remove(newNodeId);
+            }
+        } finally {
+            if (globalLock.isHeldByCurrentThread()) {
+                globalLock.unlock();
+            }
+            compactionLock.readLock().unlock();
+        }
+    }
 
-                                TDistance curDist = distanceFunction.distance(item.vector(), currObj.item.vector());
+    /**
+     * Adds a large number of items to the index in one go. Unlike {@link #addAll(Collection)}, which
+     * adds the items one at a time from a shared queue, this method works out the level of each item up front and
+     * inserts the items with the highest levels first. This means the entry point of the graph is in place before the
+     * bulk of the items is inserted, so inserts only need the global lock to allocate node ids, which is done in
+     * batches. The work is distributed over the threads with a work stealing {@link ForkJoinPool}.
+     *
+     * Items whose id is already present in the index, or occurs more than once in the passed in items, are added
+     * through {@link #add(Item)} after the bulk of the items has been inserted.
+     *
+     * When inserting an item fails the exception is rethrown. Items inserted before the failure stay in the index,
+     * the item that failed and the items that were not inserted yet are left out.
+     *
+     * @param items the items to add to the index
+     * @throws SizeLimitExceededException thrown when the items do not fit in the index
+     * @throws IllegalArgumentException thrown when an item has the wrong dimensionality
+     */
+    public void bulkBuild(Collection<TItem> items) {
+        bulkBuild(items, Runtime.getRuntime().availableProcessors(), NullProgressListener.INSTANCE,
+                DEFAULT_PROGRESS_UPDATE_INTERVAL);
+    }
 
-                                for (int activeLevel = entryPointCopy.maxLevel(); activeLevel > newNode.maxLevel(); activeLevel--) {
+    /**
+     * Adds a large number of items to the index in one go. Reports progress to the passed in implementation of
+     * {@link ProgressListener} every progressUpdateInterval elements indexed.
+     *
+     * @param items the items to add to the index
+     * @param numThreads number of threads to use for parallel indexing
+     * @param listener listener to report progress to
+     * @param progressUpdateInterval after indexing this many items progress will be reported. The last element will always be reported regardless of this setting.
+     * @throws SizeLimitExceededException thrown when the items do not fit in the index
+     * @throws IllegalArgumentException thrown when an item has the wrong dimensionality
+     *
+     * @see #bulkBuild(Collection)
+     */
+    public void bulkBuild(Collection<TItem> items, int numThreads, ProgressListener listener, int progressUpdateInterval) {
+        for (TItem item : items) {
+            if (item.dimensions() != dimensions) {
+                throw new IllegalArgumentException("Item does not have dimensionality of : " + dimensions);
+            }
+        }
 
-                                    boolean changed = true;
+        // bucket the items by level so we can insert the items with the highest levels first
 
-                                    while (changed) {
-                                        changed = false;
+        List<List<TItem>> itemsByLevel = new ArrayList<>();
 
-                                        synchronized (currObj) {
-                                            MutableIntList candidateConnections = currObj.connections[activeLevel];
+        for (TItem item : items) {
+            int level = assignLevel(item.id(), this.levelLambda);
 
-                                            for (int i = 0; i < candidateConnections.size(); i++) {
+            while (itemsByLevel.size() <= level) {
+                itemsByLevel.add(new ArrayList<>());
+            }
+            itemsByLevel.get(level).add(item);
+        }
 
-                                                int candidateId = candidateConnections.get(i);
+        @SuppressWarnings("unchecked")
+        TItem[] sortedItems = (TItem[]) new Item[items.size()];
+        int[] sortedLevels = new int[items.size()];
 
-                                                Node<TItem> candidateNode = nodes.get(candidateId);
+        int numItems = 0;
+        for (int level = itemsByLevel.size() - 1; level >= 0; level--) {
+            for (TItem item : itemsByLevel.get(level)) {
+                sortedItems[numItems] = item;
+                sortedLevels[numItems] = level;
+                numItems++;
+            }
+        }
 
-                                                TDistance candidateDistance = distanceFunction.distance(
-                                                        item.vector(),
-                                                        candidateNode.item.vector()
-                                                );
+        BulkBuildState state = new BulkBuildState(sortedItems, sortedLevels, listener, progressUpdateInterval);
 
-                                                if (lt(candidateDistance, curDist)) {
-                                                    curDist = candidateDistance;
-                                                    currObj = candidateNode;
-                                                    changed = true;
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
+        int first = Math.min(1, numItems);
+        int upperLevelEnd = Math.max(first, numItems - (itemsByLevel.isEmpty() ? 0 : itemsByLevel.get(0).size()));
 
-                            for (int level = Math.min(randomLevel, entryPointCopy.maxLevel()); level >= 0; level--) {
-                                PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates =
-                                        searchBaseLayer(currObj, item.vector(), efConstruction, level);
+        compactionLock.readLock().lock();
+        try {
+            // the item with the highest level becomes the entry point, inserting it on its own avoids other inserts
+            // having to hold on to the global lock while the upper levels of the graph are being formed
+            state.insert(0, first);
 
-                                if (entryPointCopy.deleted) {
-                                    TDistance distance = distanceFunction.distance(item.vector(), entryPointCopy.item.vector());
-                                    topCandidates.add(new NodeIdAndDistance<>(entryPointCopy.id, distance, maxValueDistanceComparator));
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                pool.invoke(new RangeTask(first, upperLevelEnd, BULK_BUILD_BATCH_SIZE, state::insert));
+                pool.invoke(new RangeTask(upperLevelEnd, numItems, BULK_BUILD_BATCH_SIZE, state::insert));
+            } finally {
+                pool.shutdown();
+            }
 
-                                    if (topCandidates.size() > efConstruction) {
-                                        topCandidates.poll();
-                                    }
-                                }
+            for (TItem item : state.rejected) {
+                add(item);
+                state.itemDone();
+            }
+        } finally {
+            compactionLock.readLock().unlock();
+        }
+    }
 
+    /**
+     * Merges multiple indexes into a single new index. The graphs of the merged indexes are copied over as they are
+     * and every node is only connected to its nearest neighbours in the other graphs, which is considerably cheaper
+     * than adding all the items to a new index. The new index takes its settings from the first index and its maximum
+     * item count is the sum of those of the merged indexes. When the same item is present in more than one index the
+     * one with the highest version is kept.
+     *
+     * The indexes should not be modified while they are being merged.
+     *
+     * @param indexes the indexes to merge
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+     * @return the merged index
+     * @throws IllegalArgumentException thrown when no indexes are passed in or the indexes differ in dimensions, m,
+     *                                  distance function, distance comparator, remove setting or id type
+     */
+    public static <TId, TVector, TItem extends Item<TId, TVector>, TDistance> HnswIndex<TId, TVector, TItem, TDistance> merge(
+            List<HnswIndex<TId, TVector, TItem, TDistance>> indexes) {
+        return merge(indexes, Runtime.getRuntime().availableProcessors());
+    }
 
-                                mutuallyConnectNewElement(newNode, topCandidates, level);
+    /**
+     * Merges multiple indexes into a single new index.
+     *
+     * @param indexes the indexes to merge
+     * @param numThreads number of threads to use for connecting the graphs
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+     * @return the merged index
+     * @throws IllegalArgumentException thrown when no indexes are passed in or the indexes differ in dimensions, m,
+     *                                  distance function, distance comparator, remove setting or id type
+     *
+     * @see #merge(List)
+     */
+    public static <TId, TVector, TItem extends Item<TId, TVector>, TDistance> HnswIndex<TId, TVector, TItem, TDistance> merge(
+            List<HnswIndex<TId, TVector, TItem, TDistance>> indexes, int numThreads) {
 
-                            }
-                        }
+        if (indexes.isEmpty()) {
+            throw new IllegalArgumentException("No indexes to merge.");
+        }
 
-                        // zoom out to the highest level
-                        if (entryPoint == null || newNode.maxLevel() > entryPointCopy.maxLevel()) {
-                            // this is thread safe because we get the global lock when we add a level
-                            this.entryPoint = newNode;
-                        }
+        HnswIndex<TId, TVector, TItem, TDistance> first = indexes.get(0);
 
-                        return true;
-                    }
-                }
-            } finally {
-                excludedCandidates.remove(newNodeId);
+        int maxItemCount = 0;
+        for (HnswIndex<TId, TVector, TItem, TDistance> index : indexes) {
+            if (index.dimensions != first.dimensions || index.m != first.m) {
+                throw new IllegalArgumentException("Only indexes with the same dimensions and m can be merged.");
             }
-        } finally {
-            if (globalLock.isHeldByCurrentThread()) {
-                globalLock.unlock();
+            // distance functions and comparators are stateless, instances are compared by class because loading an
+            // index creates new instances of them
+            if (index.distanceFunction.getClass() != first.distanceFunction.getClass()
+                    || index.distanceComparator.getClass() != first.distanceComparator.getClass()) {
+                throw new IllegalArgumentException(
+                        "Only indexes with the same distance function and distance comparator can be merged.");
+            }
+            if (index.removeEnabled != first.removeEnabled || index.idType != first.idType) {
+                throw new IllegalArgumentException(
+                        "Only indexes with the same remove setting and id type can be merged.");
             }
+            maxItemCount += index.maxItemCount;
         }
-    }
 
-    private void mutuallyConnectNewElement(Node<TItem> newNode,
-                                           PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates,
-                                           int level) {
+        HnswIndex<TId, TVector, TItem, TDistance> merged = new RefinedBuilder<>(first.dimensions,
+                first.distanceFunction, first.distanceComparator, maxItemCount, first.m, first.ef, first.efConstruction,
+                first.removeEnabled, first.numEntryPoints, first.idType, first.itemIdSerializer, first.itemSerializer)
+                .build();
 
-        int bestN = level == 0 ? this.maxM0 : this.maxM;
+        int[] offsets = new int[indexes.size()];
 
-        int newNodeId = newNode.id;
-        TVector newItemVector = newNode.item.vector();
-        MutableIntList newItemConnections = newNode.connections[level];
+        for (int i = 0; i < indexes.size(); i++) {
+            offsets[i] = merged.nodeCount;
+            merged.copyNodes(indexes.get(i));
+        }
 
-        getNeighborsByHeuristic2(topCandidates, m);
+        merged.deletedItemVersions.forEachKeyValue((id, version) -> {
+            int nodeId = merged.lookup.getIfAbsent(id, NO_NODE_ID);
 
-        while (!topCandidates.isEmpty()) {
-            int selectedNeighbourId = topCandidates.poll().nodeId;
+            if (nodeId != NO_NODE_ID && version >= merged.nodes.get(nodeId).item.version()) {
+                merged.nodes.get(nodeId).deleted = true;
+                merged.lookup.remove(id);
+            }
+        });
 
-            if (excludedCandidates.contains(selectedNeighbourId)) {
-                continue;
+        // the graphs of the other indexes are only read from here on and every task only touches the connections of
+        // its own nodes, so connecting the nodes needs no locking
+
+        RangeAction connect = (from, to) -> {
+            for (int nodeId = from; nodeId < to; nodeId++) {
+                Node<TItem> node = merged.nodes.get(nodeId);
+
+                if (node == null || node.deleted) {
+                    continue;
+                }
+
+                for (int level = 0; level <= node.maxLevel(); level++) {
+                    merged.connectToOtherGraphs(node, level, indexes, offsets);
+                }
             }
+        };
 
-            newItemConnections.add(selectedNeighbourId);
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            pool.invoke(new RangeTask(0, merged.nodeCount, BULK_BUILD_BATCH_SIZE, connect));
+        } finally {
+            pool.shutdown();
+        }
 
-            Node<TItem> neighbourNode = nodes.get(selectedNeighbourId);
+        merged.rebuildEntryPoints();
 
-            synchronized (neighbourNode) {
+        return merged;
+    }
 
-                TVector neighbourVector = neighbourNode.item.vector();
+    private void copyNodes(HnswIndex<TId, TVector, TItem, TDistance> index) {
+        int offset = nodeCount;
 
-                MutableIntList neighbourConnectionsAtLevel = neighbourNode.connections[level];
+        index.globalLock.lock();
+        try {
+            for (int nodeId = 0; nodeId < index.nodeCount; nodeId++) {
+                Node<TItem> node = index.nodes.get(nodeId);
 
-                if (neighbourConnectionsAtLevel.size() < bestN) {
-                    neighbourConnectionsAtLevel.add(newNodeId);
-                } else {
-                    // finding the "weakest" element to replace it with the new one
+                int newNodeId = offset + nodeId;
 
-                    TDistance dMax = distanceFunction.distance(
-                            newItemVector,
-                            neighbourNode.item.vector()
-                    );
+                if (node == null) {
+                    freedNodeIds.add(newNodeId);
+                    continue;
+                }
 
-                    Comparator<NodeIdAndDistance<TDistance>> comparator = Comparator
-                            .<NodeIdAndDistance<TDistance>>naturalOrder().reversed();
+                Connections[] connections = new Connections[node.maxLevel() + 1];
 
-                    PriorityQueue<NodeIdAndDistance<TDistance>> candidates = new PriorityQueue<>(comparator);
-                    candidates.add(new NodeIdAndDistance<>(newNodeId, dMax, maxValueDistanceComparator));
+                for (int level = 0; level < connections.length; level++) {
+                    Connections levelConnections = node.connectionsWithDistances(level);
+                    int[] newLevelConnections = levelConnections.ids.clone();
+                    for (int i = 0; i < newLevelConnections.length; i++) {
+                        newLevelConnections[i] += offset;
+                    }
+                    // the distances do not depend on the ids of the nodes
+                    connections[level] = new Connections(newLevelConnections, levelConnections.distances);
+                }
 
-                    neighbourConnectionsAtLevel.forEach(id -> {
-                        TDistance dist = distanceFunction.distance(
-                                neighbourVector,
-                                nodes.get(id).item.vector()
-                        );
+                Node<TItem> newNode = new Node<>(newNodeId, connections, node.item, node.deleted);
 
-                        candidates.add(new NodeIdAndDistance<>(id, dist, maxValueDistanceComparator));
-                    });
+                nodes.set(newNodeId, newNode);
 
-                    getNeighborsByHeuristic2(candidates, bestN);
+                if (!newNode.deleted) {
+                    TId id = newNode.item.id();
 
-                    neighbourConnectionsAtLevel.clear();
+                    int existingNodeId = lookup.getIfAbsent(id, NO_NODE_ID);
 
-                    while (!candidates.isEmpty()) {
-                        neighbourConnectionsAtLevel.add(candidates.poll().nodeId);
+                    if (existingNodeId == NO_NODE_ID) {
+                        lookup.put(id, newNodeId);
+                    } else if (nodes.get(existingNodeId).item.version() < newNode.item.version()) {
+                        nodes.get(existingNodeId).deleted = true;
+                        lookup.put(id, newNodeId);
+                    } else {
+                        newNode.deleted = true;
                     }
                 }
             }
+
+            index.deletedItemVersions.forEachKeyValue((id, version) ->
+                    deletedItemVersions.put(id, Math.max(version, deletedItemVersions.getIfAbsent(id, version))));
+
+            Node<TItem> indexEntryPoint = index.entryPoint;
+
+            if (indexEntryPoint != null && (entryPoint == null || indexEntryPoint.maxLevel() > entryPoint.maxLevel())) {
+                entryPoint = nodes.get(offset + indexEntryPoint.id);
+            }
+
+            nodeCount += index.nodeCount;
+        } finally {
+            index.globalLock.unlock();
         }
     }
 
-    private void getNeighborsByHeuristic2(PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates, int m) {
+    private void connectToOtherGraphs(Node<TItem> node,
+                                      int level,
+                                      List<HnswIndex<TId, TVector, TItem, TDistance>> indexes,
+                                      int[] offsets) {
 
-        if (topCandidates.size() < m) {
-            return;
-        }
+        int bestN = level == 0 ? this.maxM0 : this.maxM;
+
+        TVector vector = node.item.vector();
 
-        PriorityQueue<NodeIdAndDistance<TDistance>> queueClosest = new PriorityQueue<>();
-        List<NodeIdAndDistance<TDistance>> returnList = new ArrayList<>();
+        Comparator<NodeIdAndDistance<TDistance>> comparator = Comparator
+                .<NodeIdAndDistance<TDistance>>naturalOrder().reversed();
 
-        while(!topCandidates.isEmpty()) {
-            queueClosest.add(topCandidates.poll());
+        PriorityQueue<NodeIdAndDistance<TDistance>> candidates = new PriorityQueue<>(comparator);
+
+        Connections connections = node.connectionsWithDistances(level);
+
+        for (int i = 0; i < connections.ids.length; i++) {
+            TDistance distance = distanceToConnection(node, connections, i);
+            candidates.add(new NodeIdAndDistance<>(connections.ids[i], distance, maxValueDistanceComparator));
         }
 
-        while(!queueClosest.isEmpty()) {
-            if (returnList.size() >= m) {
-                break;
-            }
+        for (int i = 0; i < indexes.size(); i++) {
+            HnswIndex<TId, TVector, TItem, TDistance> index = indexes.get(i);
 
-            NodeIdAndDistance<TDistance> currentPair = queueClosest.poll();
+            int offset = offsets[i];
 
-            TDistance distToQuery = currentPair.distance;
+            // the node's own graph and graphs that do not reach this level have nothing to add
+            if (node.id >= offset && node.id < offset + index.nodeCount
+                    || index.entryPoint == null || index.entryPoint.maxLevel() < level) {
+                continue;
+            }
 
-            boolean good = true;
-            for (NodeIdAndDistance<TDistance> secondPair : returnList) {
+            // search as wide as an insertion would, the heuristic below trims the candidates down to bestN
+            int searchEf = Math.max(efConstruction, bestN);
 
-                TDistance curdist = distanceFunction.distance(
-                        nodes.get(secondPair.nodeId).item.vector(),
-                        nodes.get(currentPair.nodeId).item.vector()
-                );
+            PriorityQueue<NodeIdAndDistance<TDistance>> indexCandidates =
+                    index.findCandidates(index.nodes, index.entryPoint, vector, searchEf, level, null);
 
-                if (lt(curdist, distToQuery)) {
-                    good = false;
-                    break;
-                }
+            for (NodeIdAndDistance<TDistance> candidate : indexCandidates) {
+                int candidateId = offset + candidate.nodeId;
 
+                // skip items that lost out to a newer version of the same item in another index
+                if (!nodes.get(candidateId).deleted) {
+                    candidates.add(new NodeIdAndDistance<>(candidateId, candidate.distance, maxValueDistanceComparator));
+                }
             }
-            if (good) {
-                returnList.add(currentPair);
+        }
+
+        getNeighborsByHeuristic2(candidates, bestN, level);
+
+        node.setConnections(level, toConnections(candidates));
+    }
+
+    /**
+     * Builds the index from an approximate k-nearest neighbour graph computed with NN-descent, instead of inserting
+     * the items one by one. This is considerably faster for large offline builds. See
+     * {@link #buildFromKnnGraph(List, int[][])} for how the graph is turned into an index.
+     *
+     * @param items the items to add to the index
+     * @throws IllegalStateException thrown when the index is not empty
+     * @throws SizeLimitExceededException thrown when the items do not fit in the index
+     * @throws IllegalArgumentException thrown when an item has the wrong dimensionality or an item id occurs more
+     *                                  than once
+     */
+    public void buildWithNNDescent(List<TItem> items) {
+        buildWithNNDescent(items, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Builds the index from an approximate k-nearest neighbour graph computed with NN-descent.
+     *
+     * @param items the items to add to the index
+     * @param numThreads number of threads to use
+     * @throws IllegalStateException thrown when the index is not empty
+     * @throws SizeLimitExceededException thrown when the items do not fit in the index
+     * @throws IllegalArgumentException thrown when an item has the wrong dimensionality or an item id occurs more
+     *                                  than once
+     *
+     * @see #buildWithNNDescent(List)
+     */
+    public void buildWithNNDescent(List<TItem> items, int numThreads) {
+        List<TVector> vectors = new ArrayList<>(items.size());
+        for (TItem item : items) {
+            if (item.dimensions() != dimensions) {
+                throw new IllegalArgumentException("Item does not have dimensionality of : " + dimensions);
             }
+            vectors.add(item.vector());
         }
 
-        topCandidates.addAll(returnList);
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            int[][] knnGraph = items.size() < 2 ? new int[items.size()][0] : new NNDescent<>(vectors,
+                    distanceFunction, distanceComparator, maxM0, NNDescent.DEFAULT_MAX_ITERATIONS,
+                    NNDescent.DEFAULT_SAMPLE_RATE, NNDescent.DEFAULT_TERMINATION_THRESHOLD, NNDescent.DEFAULT_SEED).build(pool);
+
+            buildFromKnnGraph(items, knnGraph, pool);
+        } finally {
+            pool.shutdown();
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Builds the index from a precomputed, possibly approximate, k-nearest neighbour graph instead of inserting the
+     * items one by one. The items that are assigned to the upper levels of the graph, on average one in every m,
+     * are inserted as usual. The neighbours of every node on the bottom level are then picked from its neighbours in
+     * the k-nearest neighbour graph, the nodes that have it as a neighbour and its neighbours on the upper levels,
+     * using the same heuristic that is used when inserting items.
+     *
+     * @param items the items to add to the index
+     * @param knnGraph for every item the positions in the items list of its nearest neighbours
+     * @throws IllegalStateException thrown when the index is not empty
+     * @throws SizeLimitExceededException thrown when the items do not fit in the index
+     * @throws IllegalArgumentException thrown when an item has the wrong dimensionality, an item id occurs more than
+     *                                  once or the graph does not match the items
      */
-    @Override
-    public List<SearchResult<TItem, TDistance>> findNearest(TVector destination, int k) {
+    public void buildFromKnnGraph(List<TItem> items, int[][] knnGraph) {
+        buildFromKnnGraph(items, knnGraph, Runtime.getRuntime().availableProcessors());
+    }
 
-        if (entryPoint == null) {
-            return Collections.emptyList();
+    /**
+     * Builds the index from a precomputed, possibly approximate, k-nearest neighbour graph.
+     *
+     * @param items the items to add to the index
+     * @param knnGraph for every item the positions in the items list of its nearest neighbours
+     * @param numThreads number of threads to use
+     * @throws IllegalStateException thrown when the index is not empty
+     * @throws SizeLimitExceededException thrown when the items do not fit in the index
+     * @throws IllegalArgumentException thrown when an item has the wrong dimensionality, an item id occurs more than
+     *                                  once or the graph does not match the items
+     *
+     * @see #buildFromKnnGraph(List, int[][])
+     */
+    public void buildFromKnnGraph(List<TItem> items, int[][] knnGraph, int numThreads) {
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            buildFromKnnGraph(items, knnGraph, pool);
+        } finally {
+            pool.shutdown();
         }
+    }
 
-        Node<TItem> entryPointCopy = entryPoint;
+    private void buildFromKnnGraph(List<TItem> items, int[][] knnGraph, ForkJoinPool pool) {
+        int numItems = items.size();
 
-        Node<TItem> currObj = entryPointCopy;
+        if (knnGraph.length != numItems) {
+            throw new IllegalArgumentException("The knn graph must have an entry for every item.");
+        }
 
-        TDistance curDist = distanceFunction.distance(destination, currObj.item.vector());
+        for (int[] neighbourIds : knnGraph) {
+            for (int neighbourId : neighbourIds) {
+                if (neighbourId < 0 || neighbourId >= numItems) {
+                    throw new IllegalArgumentException("Knn graph refers to unknown item " + neighbourId + ".");
+                }
+            }
+        }
 
-        for (int activeLevel = entryPointCopy.maxLevel(); activeLevel > 0; activeLevel--) {
+        compactionLock.writeLock().lock();
+        try {
+            globalLock.lock();
+            try {
+                if (nodeCount > 0) {
+                    throw new IllegalStateException("Index must be empty.");
+                }
 
-            boolean changed = true;
+                if (numItems > maxItemCount) {
+                    throw new SizeLimitExceededException("The number of elements exceeds the specified limit.");
+                }
 
-            while (changed) {
-                changed = false;
+                createNodes(items);
+            } finally {
+                globalLock.unlock();
+            }
 
-                synchronized (currObj) {
-                    MutableIntList candidateConnections = currObj.connections[activeLevel];
+            MutableIntList[] reverseKnnGraph = new MutableIntList[numItems];
 
-                    for (int i = 0; i < candidateConnections.size(); i++) {
+            for (int nodeId = 0; nodeId < numItems; nodeId++) {
+                reverseKnnGraph[nodeId] = new IntArrayList();
+            }
 
-                        int candidateId = candidateConnections.get(i);
+            for (int nodeId = 0; nodeId < numItems; nodeId++) {
+                for (int neighbourId : knnGraph[nodeId]) {
+                    reverseKnnGraph[neighbourId].add(nodeId);
+                }
+            }
 
-                        TDistance candidateDistance = distanceFunction.distance(
-                                destination,
-                                nodes.get(candidateId).item.vector()
-                        );
-                        if (lt(candidateDistance, curDist)) {
-                            curDist = candidateDistance;
-                            currObj = nodes.get(candidateId);
-                            changed = true;
-                        }
-                    }
+            // insert the nodes on the upper levels, highest level first, the first one becomes the entry point
+
+            List<Node<TItem>> upperLevelNodes = new ArrayList<>();
+            for (int nodeId = 0; nodeId < numItems; nodeId++) {
+                Node<TItem> node = nodes.get(nodeId);
+                if (node.maxLevel() > 0) {
+                    upperLevelNodes.add(node);
                 }
+            }
+            upperLevelNodes.sort(Comparator.comparingInt(node -> -node.maxLevel()));
 
+            if (upperLevelNodes.isEmpty() && numItems > 0) {
+                entryPoint = nodes.get(0);
+            } else if (!upperLevelNodes.isEmpty()) {
+                entryPoint = upperLevelNodes.get(0);
             }
-        }
 
-        PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates = searchBaseLayer(
-                currObj, destination, Math.max(ef, k), 0);
+            pool.invoke(new RangeTask(1, Math.max(1, upperLevelNodes.size()), BULK_BUILD_BATCH_SIZE, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    Node<TItem> newNode = upperLevelNodes.get(i);
 
-        while (topCandidates.size() > k) {
-            topCandidates.poll();
-        }
+                    excludedCandidates.add(newNode.id);
+                    try {
+                        synchronized (newNode) {
+                            connectNewNode(newNode, entryPoint);
+                        }
+                    } finally {
+                        excludedCandidates.remove(newNode.id);
+                    }
+                }
+            }));
 
-        List<SearchResult<TItem, TDistance>> results = new ArrayList<>(topCandidates.size());
-        while (!topCandidates.isEmpty()) {
-            NodeIdAndDistance<TDistance> pair = topCandidates.poll();
-            results.add(0, new SearchResult<>(nodes.get(pair.nodeId).item, pair.distance, maxValueDistanceComparator));
-        }
+            pool.invoke(new RangeTask(0, numItems, BULK_BUILD_BATCH_SIZE, (from, to) -> {
+                for (int nodeId = from; nodeId < to; nodeId++) {
+                    connectFromKnnGraph(nodes.get(nodeId), knnGraph[nodeId], reverseKnnGraph[nodeId]);
+                }
+            }));
 
-        return results;
+            rebuildEntryPoints();
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
     }
 
-    private PriorityQueue<NodeIdAndDistance<TDistance>> searchBaseLayer(
-            Node<TItem> entryPointNode, TVector destination, int k, int layer) {
-
-        BitSet visitedBitSet = visitedBitSetPool.borrowObject();
-
+    private void createNodes(List<TItem> items) {
+        int numItems = items.size();
         try {
-            PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates =
-                    new PriorityQueue<>(Comparator.<NodeIdAndDistance<TDistance>>naturalOrder().reversed());
-            PriorityQueue<NodeIdAndDistance<TDistance>> candidateSet = new PriorityQueue<>();
+            for (int nodeId = 0; nodeId < numItems; nodeId++) {
+                TItem item = items.get(nodeId);
 
-            TDistance lowerBound;
+                if (item.dimensions() != dimensions) {
+                    throw new IllegalArgumentException("Item does not have dimensionality of : " + dimensions);
+                }
 
-            if (!entryPointNode.deleted) {
-                TDistance distance = distanceFunction.distance(destination, entryPointNode.item.vector());
-                NodeIdAndDistance<TDistance> pair = new NodeIdAndDistance<>(entryPointNode.id, distance, maxValueDistanceComparator);
+                if (lookup.containsKey(item.id())) {
+                    throw new IllegalArgumentException("Item id " + item.id() + " occurs more than once.");
+                }
 
-                topCandidates.add(pair);
-                lowerBound = distance;
-                candidateSet.add(pair);
+                int level = assignLevel(item.id(), this.levelLambda);
 
-            } else {
-                lowerBound = MaxValueComparator.maxValue();
-                NodeIdAndDistance<TDistance> pair = new NodeIdAndDistance<>(entryPointNode.id, lowerBound, maxValueDistanceComparator);
-                candidateSet.add(pair);
+                nodes.set(nodeId, new Node<>(nodeId, newConnections(level), item, false));
+                lookup.put(item.id(), nodeId);
+            }
+            nodeCount = numItems;
+        } catch (RuntimeException e) {
+            // leave the index empty
+            for (int nodeId = 0; nodeId < numItems; nodeId++) {
+                nodes.set(nodeId, null);
             }
+            lookup.clear();
+            throw e;
+        }
+    }
 
-            visitedBitSet.add(entryPointNode.id);
+    private void connectFromKnnGraph(Node<TItem> node, int[] neighbourIds, MutableIntList reverseNeighbourIds) {
+        IntHashSet candidateIds = new IntHashSet();
 
-            while (!candidateSet.isEmpty()) {
+        candidateIds.addAll(node.connections(0));
+        candidateIds.addAll(neighbourIds);
+        candidateIds.addAll(reverseNeighbourIds);
+        candidateIds.remove(node.id);
 
-                NodeIdAndDistance<TDistance> currentPair = candidateSet.poll();
+        Comparator<NodeIdAndDistance<TDistance>> comparator = Comparator
+                .<NodeIdAndDistance<TDistance>>naturalOrder().reversed();
 
-                if (gt(currentPair.distance, lowerBound)) {
-                    break;
-                }
+        PriorityQueue<NodeIdAndDistance<TDistance>> candidates = new PriorityQueue<>(comparator);
 
-                Node<TItem> node = nodes.get(currentPair.nodeId);
+        candidateIds.forEach(candidateId -> {
+            TDistance distance = distanceFunction.distance(
+                    node.item.vector(),
+                    nodes.get(candidateId).item.vector()
+            );
+            candidates.add(new NodeIdAndDistance<>(candidateId, distance, maxValueDistanceComparator));
+        });
 
-                synchronized (node) {
+        getNeighborsByHeuristic2(candidates, maxM0, 0);
 
-                    MutableIntList candidates = node.connections[layer];
+        synchronized (node) {
+            node.setConnections(0, toConnections(candidates));
+        }
+    }
 
-                    for (int i = 0; i < candidates.size(); i++) {
+    private static int[][] newConnections(int randomLevel) {
+        int[][] connections = new int[randomLevel + 1][];
+        Arrays.fill(connections, NO_CONNECTIONS);
+        return connections;
+    }
 
-                        int candidateId = candidates.get(i);
+    private static <TDistance> Connections toConnections(PriorityQueue<NodeIdAndDistance<TDistance>> candidates) {
+        return toConnections(new ArrayList<>(candidates));
+    }
 
-                        if (!visitedBitSet.contains(candidateId)) {
+    private static <TDistance> Connections toConnections(List<NodeIdAndDistance<TDistance>> candidates) {
+        int[] nodeIds = new int[candidates.size()];
+        Object[] distances = new Object[nodeIds.length];
+        for (int i = 0; i < nodeIds.length; i++) {
+            NodeIdAndDistance<TDistance> candidate = candidates.get(i);
+            nodeIds[i] = candidate.nodeId;
+            distances[i] = candidate.distance;
+        }
+        return new Connections(nodeIds, distances);
+    }
 
-                            visitedBitSet.add(candidateId);
+    @SuppressWarnings("unchecked")
+    private TDistance distanceToConnection(Node<TItem> node, Connections connections, int index) {
+        if (connections.distances != null) {
+            return (TDistance) connections.distances[index];
+        }
+        return distanceFunction.distance(node.item.vector(), nodes.get(connections.ids[index]).item.vector());
+    }
 
-                            Node<TItem> candidateNode = nodes.get(candidateId);
+    private void connectNewNode(Node<TItem> newNode, Node<TItem> entryPointCopy) {
+        TItem item = newNode.item;
+        int randomLevel = newNode.maxLevel();
 
-                            TDistance candidateDistance = distanceFunction.distance(destination,
-                                    candidateNode.item.vector());
+        HnswInstrumentation instrumentationCopy = instrumentation;
+        boolean instrumented = instrumentationCopy != HnswInstrumentation.NO_OP;
 
-                            if (topCandidates.size() < k || gt(lowerBound, candidateDistance)) {
+        long start = instrumented ? System.nanoTime() : 0;
+        long descentNanos = 0;
+        long layerSearchNanos = 0;
+        long connectNanos = 0;
 
-                                NodeIdAndDistance<TDistance> candidatePair =
-                                        new NodeIdAndDistance<>(candidateId, candidateDistance, maxValueDistanceComparator);
+        Node<TItem> currObj = entryPointCopy;
 
-                                candidateSet.add(candidatePair);
+        if (currObj != null) {
 
-                                if (!candidateNode.deleted) {
-                                    topCandidates.add(candidatePair);
-                                }
+            if (newNode.maxLevel() < entryPointCopy.maxLevel()) {
 
-                                if (topCandidates.size() > k) {
-                                    topCandidates.poll();
-                                }
+                TDistance curDist = distanceFunction.distance(item.vector(), currObj.item.vector());
 
-                                if (!topCandidates.isEmpty()) {
-                                    lowerBound = topCandidates.peek().distance;
-                                }
-                            }
-                        }
-                    }
+                for (int activeLevel = entryPointCopy.maxLevel(); activeLevel > newNode.maxLevel(); activeLevel--) {
 
-                }
+                    boolean changed = true;
+
+                    while (changed) {
+                        changed = false;
+
+                        for (int candidateId : currObj.connections(activeLevel)) {
+
+                            Node<TItem> candidateNode = nodes.get(candidateId);
+
+                            TDistance candidateDistance = distanceFunction.distance(
+                                    item.vector(),
+                                    candidateNode.item.vector()
+                            );
+
+                            if (lt(candidateDistance, curDist)) {
+                                curDist = candidateDistance;
+                                currObj = candidateNode;
+                                changed = true;
+                            }
+                        }
+                    }
+                }
+            }
+
+            long layerSearchStart = instrumented ? System.nanoTime() : 0;
+
+            if (instrumented) {
+                descentNanos = layerSearchStart - start;
+            }
+
+            int topLevel = Math.min(randomLevel, entryPointCopy.maxLevel());
+
+            @SuppressWarnings("unchecked")
+            List<NodeIdAndDistance<TDistance>>[] neighbours = new List[topLevel + 1];
+
+            for (int level = topLevel; level >= 0; level--) {
+                PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates =
+                        searchBaseLayer(nodes, currObj, item.vector(), efConstruction, level, null);
+
+                if (entryPointCopy.deleted) {
+                    TDistance distance = distanceFunction.distance(item.vector(), entryPointCopy.item.vector());
+                    topCandidates.add(new NodeIdAndDistance<>(entryPointCopy.id, distance, maxValueDistanceComparator));
+
+                    if (topCandidates.size() > efConstruction) {
+                        topCandidates.poll();
+                    }
+                }
+
+                neighbours[level] = selectNeighbours(topCandidates, level);
+            }
+
+            long connectStart = instrumented ? System.nanoTime() : 0;
+
+            // searches and other insertions read the connections without locking, so the connections of the new
+            // node on every level are set in full before any neighbour links back to it. Until then the node cannot
+            // be reached and nobody sees it half built
+            synchronized (newNode) {
+                for (int level = topLevel; level >= 0; level--) {
+                    newNode.setConnections(level, toConnections(neighbours[level]));
+                }
+            }
+
+            for (int level = topLevel; level >= 0; level--) {
+                linkNeighbours(newNode, neighbours[level], level);
+            }
+
+            if (instrumented) {
+                layerSearchNanos = connectStart - layerSearchStart;
+                connectNanos = System.nanoTime() - connectStart;
+            }
+        }
+
+        // zoom out to the highest level
+        if (entryPoint == null || newNode.maxLevel() > entryPointCopy.maxLevel()) {
+            // this is thread safe because we get the global lock when we add a level
+            this.entryPoint = newNode;
+        }
+
+        offerEntryPoint(newNode);
+
+        if (instrumented) {
+            instrumentationCopy.insertCompleted(descentNanos, layerSearchNanos, connectNanos);
+        }
+    }
+
+    private void offerEntryPoint(Node<TItem> node) {
+        if (numEntryPoints <= 1) {
+            return;
+        }
+
+        List<Node<TItem>> current;
+        List<Node<TItem>> updated;
+        do {
+            current = entryPoints.get();
+
+            if (current.size() == numEntryPoints && node.maxLevel() <= current.get(current.size() - 1).maxLevel()) {
+                return;
+            }
+
+            updated = new ArrayList<>(current.size() + 1);
+
+            // keep the entry points ordered from the highest level to the lowest
+            int position = 0;
+            while (position < current.size() && current.get(position).maxLevel() >= node.maxLevel()) {
+                position++;
+            }
+            updated.addAll(current.subList(0, position));
+            updated.add(node);
+            updated.addAll(current.subList(position, Math.min(current.size(), numEntryPoints - 1)));
+
+        } while (!entryPoints.compareAndSet(current, Collections.unmodifiableList(updated)));
+
+        // the node may have been removed after it was offered but before it made it into the list
+        if (node.deleted) {
+            dropEntryPoint(node);
+        }
+    }
+
+    private void dropEntryPoint(Node<TItem> node) {
+        List<Node<TItem>> current;
+        List<Node<TItem>> updated;
+        do {
+            current = entryPoints.get();
+
+            if (!current.contains(node)) {
+                return;
+            }
+
+            updated = new ArrayList<>(current);
+            updated.remove(node);
+
+        } while (!entryPoints.compareAndSet(current, Collections.unmodifiableList(updated)));
+    }
+
+    private void rebuildEntryPoints() {
+        entryPoints.set(Collections.emptyList());
+
+        IntHashSet freed = IntHashSet.newSet(freedNodeIds);
+
+        for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            Node<TItem> node = nodes.get(nodeId);
+            if (node != null && !node.deleted && !freed.contains(nodeId)) {
+                offerEntryPoint(node);
+            }
+        }
+    }
+
+    private List<NodeIdAndDistance<TDistance>> selectNeighbours(
+            PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates, int level) {
+
+        getNeighborsByHeuristic2(topCandidates, m, level);
+
+        List<NodeIdAndDistance<TDistance>> selected = new ArrayList<>(topCandidates.size());
+
+        while (!topCandidates.isEmpty()) {
+            NodeIdAndDistance<TDistance> candidate = topCandidates.poll();
+
+            // nodes that are being inserted concurrently are not fully linked yet
+            if (!excludedCandidates.contains(candidate.nodeId)) {
+                selected.add(candidate);
+            }
+        }
+        return selected;
+    }
+
+    private void linkNeighbours(Node<TItem> newNode, List<NodeIdAndDistance<TDistance>> neighbours, int level) {
+
+        int bestN = level == 0 ? this.maxM0 : this.maxM;
+
+        int newNodeId = newNode.id;
+
+        for (NodeIdAndDistance<TDistance> selectedNeighbour : neighbours) {
+            Node<TItem> neighbourNode = nodes.get(selectedNeighbour.nodeId);
+
+            HnswInstrumentation instrumentationCopy = instrumentation;
+
+            long lockRequested = instrumentationCopy != HnswInstrumentation.NO_OP
+                    && ThreadLocalRandom.current().nextInt(NODE_LOCK_SAMPLE_RATE) == 0 ? System.nanoTime() : 0;
+            long lockWait = 0;
+
+            synchronized (neighbourNode) {
+
+                if (lockRequested != 0) {
+                    lockWait = System.nanoTime() - lockRequested;
+                }
+
+                Connections neighbourConnectionsAtLevel = neighbourNode.connectionsWithDistances(level);
+
+                int size = neighbourConnectionsAtLevel.ids.length;
+
+                if (size < bestN) {
+                    int[] connections = Arrays.copyOf(neighbourConnectionsAtLevel.ids, size + 1);
+                    connections[size] = newNodeId;
+
+                    Object[] distances = null;
+                    if (neighbourConnectionsAtLevel.distances != null) {
+                        distances = Arrays.copyOf(neighbourConnectionsAtLevel.distances, size + 1);
+                        distances[size] = selectedNeighbour.distance;
+                    }
+                    neighbourNode.setConnections(level, new Connections(connections, distances));
+                } else {
+                    // finding the "weakest" element to replace it with the new one
+
+                    Comparator<NodeIdAndDistance<TDistance>> comparator = Comparator
+                            .<NodeIdAndDistance<TDistance>>naturalOrder().reversed();
+
+                    PriorityQueue<NodeIdAndDistance<TDistance>> candidates = new PriorityQueue<>(comparator);
+                    // the distance between the new node and this neighbour was already calculated while searching for candidates
+                    candidates.add(new NodeIdAndDistance<>(newNodeId, selectedNeighbour.distance, maxValueDistanceComparator));
+
+                    // the distances to the existing neighbours are kept with the connections, they only need to be
+                    // computed when they are not known yet, for instance for an index that was loaded from disk
+                    for (int i = 0; i < size; i++) {
+                        TDistance dist = distanceToConnection(neighbourNode, neighbourConnectionsAtLevel, i);
+                        candidates.add(new NodeIdAndDistance<>(
+                                neighbourConnectionsAtLevel.ids[i], dist, maxValueDistanceComparator));
+                    }
+
+                    getNeighborsByHeuristic2(candidates, bestN, level);
+
+                    neighbourNode.setConnections(level, toConnections(candidates));
+                }
+            }
+
+            if (lockRequested != 0) {
+                instrumentationCopy.nodeLockAcquired(lockWait);
+            }
+        }
+    }
+
+    private void getNeighborsByHeuristic2(PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates,
+                                          int m,
+                                          int level) {
+
+        if (topCandidates.size() < m) {
+            return;
+        }
+
+        // sorting the candidates once is considerably cheaper than draining them into a second priority queue
+
+        @SuppressWarnings("unchecked")
+        NodeIdAndDistance<TDistance>[] queueClosest = topCandidates.toArray(new NodeIdAndDistance[0]);
+        Arrays.sort(queueClosest);
+
+        topCandidates.clear();
+
+        List<NodeIdAndDistance<TDistance>> returnList = new ArrayList<>(m);
+        List<Node<TItem>> returnNodes = new ArrayList<>(m);
+
+        for (NodeIdAndDistance<TDistance> currentPair : queueClosest) {
+            if (returnList.size() >= m) {
+                break;
+            }
+
+            TDistance distToQuery = currentPair.distance;
+            Node<TItem> currentNode = nodes.get(currentPair.nodeId);
+
+            boolean good = true;
+            for (Node<TItem> secondNode : returnNodes) {
+
+                // candidates close to each other are often already connected, in which case the distance between
+                // them is known
+                @SuppressWarnings("unchecked")
+                TDistance curdist = level <= secondNode.maxLevel()
+                        ? (TDistance) secondNode.connectionsWithDistances(level).distanceTo(currentPair.nodeId)
+                        : null;
+
+                if (curdist == null) {
+                    curdist = distanceFunction.distance(secondNode.item.vector(), currentNode.item.vector());
+                }
+
+                if (lt(curdist, distToQuery)) {
+                    good = false;
+                    break;
+                }
+
+            }
+            if (good) {
+                returnList.add(currentPair);
+                returnNodes.add(currentNode);
+            }
+        }
+
+        topCandidates.addAll(returnList);
+    }
+
+    /**
+     * Changes the maximum number of items the index can hold. Searches can continue while the index is being resized
+     * but additions and removals will block until it is done.
+     *
+     * @param newSize the new maximum number of items the index can hold
+     * @throws IllegalArgumentException thrown when the new size is smaller than the number of items in the index
+     */
+    public void resize(int newSize) {
+        compactionLock.writeLock().lock();
+        try {
+            globalLock.lock();
+            try {
+                if (newSize < nodeCount) {
+                    throw new IllegalArgumentException("Index already holds more than " + newSize + " nodes.");
+                }
+
+                AtomicReferenceArray<Node<TItem>> newNodes = new AtomicReferenceArray<>(newSize);
+                for (int i = 0; i < nodeCount; i++) {
+                    newNodes.set(i, nodes.get(i));
+                }
+
+                this.maxItemCount = newSize;
+                this.nodes = newNodes;
+                this.visitedBitSetPool = new VisitedBitSetPool(newSize);
+                // no insert can be in progress while the write lock is held so there are no candidates to carry over
+                this.excludedCandidates = new ConcurrentBitSet(newSize);
+            } finally {
+                globalLock.unlock();
+            }
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Permanently removes the items that were removed with {@link #remove(Object, long)} from the graph. Nodes that
+     * link to a removed node are reconnected to the neighbours of that node, using the same heuristic that is used
+     * when adding items, after which the slots taken up by the removed nodes are reused by subsequent additions.
+     * Searches can continue while the index is being compacted but additions and removals will block until it is done.
+     *
+     * @return the number of nodes purged from the graph
+     */
+    public int compact() {
+        compactionLock.writeLock().lock();
+        globalLock.lock();
+
+        try {
+            IntHashSet alreadyFreed = IntHashSet.newSet(freedNodeIds);
+            IntHashSet purged = new IntHashSet();
+
+            for (int i = 0; i < nodeCount; i++) {
+                Node<TItem> node = nodes.get(i);
+                if (node != null && node.deleted && !alreadyFreed.contains(i)) {
+                    purged.add(i);
+                }
+            }
+
+            if (purged.isEmpty()) {
+                return 0;
+            }
+
+            Node<TItem> newEntryPoint = null;
+
+            for (int i = 0; i < nodeCount; i++) {
+                Node<TItem> node = nodes.get(i);
+
+                if (node == null || node.deleted) {
+                    continue;
+                }
+
+                for (int level = 0; level <= node.maxLevel(); level++) {
+                    repairConnections(node, level, purged);
+                }
+
+                if (newEntryPoint == null || node.maxLevel() > newEntryPoint.maxLevel()) {
+                    newEntryPoint = node;
+                }
+            }
+
+            if (entryPoint == null || entryPoint.deleted) {
+                this.entryPoint = newEntryPoint;
+            }
+
+            purged.forEach(freedNodeIds::add);
+
+            rebuildEntryPoints();
+
+            reportDeletedNodeCount();
+
+            return purged.size();
+        } finally {
+            globalLock.unlock();
+            compactionLock.writeLock().unlock();
+        }
+    }
+
+    private void repairConnections(Node<TItem> node, int level, IntHashSet purged) {
+        synchronized (node) {
+            Connections levelConnections = node.connectionsWithDistances(level);
+
+            int[] connections = levelConnections.ids;
+
+            if (Arrays.stream(connections).noneMatch(purged::contains)) {
+                return;
+            }
+
+            int bestN = level == 0 ? this.maxM0 : this.maxM;
+
+            IntHashSet candidateIds = new IntHashSet();
+
+            for (int neighbourId : connections) {
+                if (!purged.contains(neighbourId)) {
+                    candidateIds.add(neighbourId);
+                } else {
+                    for (int candidateId : nodes.get(neighbourId).connections(level)) {
+                        if (candidateId != node.id && !purged.contains(candidateId)) {
+                            candidateIds.add(candidateId);
+                        }
+                    }
+                }
+            }
+
+            Comparator<NodeIdAndDistance<TDistance>> comparator = Comparator
+                    .<NodeIdAndDistance<TDistance>>naturalOrder().reversed();
+
+            PriorityQueue<NodeIdAndDistance<TDistance>> candidates = new PriorityQueue<>(comparator);
+
+            candidateIds.forEach(candidateId -> {
+                @SuppressWarnings("unchecked")
+                TDistance distance = (TDistance) levelConnections.distanceTo(candidateId);
+                if (distance == null) {
+                    distance = distanceFunction.distance(node.item.vector(), nodes.get(candidateId).item.vector());
+                }
+                candidates.add(new NodeIdAndDistance<>(candidateId, distance, maxValueDistanceComparator));
+            });
+
+            getNeighborsByHeuristic2(candidates, bestN, level);
+
+            node.setConnections(level, toConnections(candidates));
+        }
+    }
+
+    /**
+     * Renumbers the nodes in the graph in the order in which a breadth first search from the entry point reaches
+     * them, so that nodes that are close to each other in the graph end up close to each other in memory. This makes
+     * better use of the cpu caches during searches. Slots freed by {@link #compact()} are given up in the process.
+     * Searches can continue while the index is being reordered, every search runs on either the old or the renumbered
+     * graph and never on a mix of the two. Additions, removals and maintenance operations will block until it is done.
+     */
+    public void reorder() {
+        compactionLock.writeLock().lock();
+        globalLock.lock();
+
+        try {
+            IntHashSet freed = IntHashSet.newSet(freedNodeIds);
+
+            int[] newIds = new int[nodeCount];
+            Arrays.fill(newIds, NO_NODE_ID);
+
+            int[] order = new int[nodeCount];
+            int count = 0;
+
+            if (entryPoint != null) {
+                newIds[entryPoint.id] = count;
+                order[count++] = entryPoint.id;
+
+                for (int head = 0; head < count; head++) {
+                    for (int neighbourId : nodes.get(order[head]).connections(0)) {
+                        if (newIds[neighbourId] == NO_NODE_ID && !freed.contains(neighbourId)) {
+                            newIds[neighbourId] = count;
+                            order[count++] = neighbourId;
+                        }
+                    }
+                }
+            }
+
+            // nodes the search could not reach go at the end
+            for (int i = 0; i < nodeCount; i++) {
+                if (newIds[i] == NO_NODE_ID && nodes.get(i) != null && !freed.contains(i)) {
+                    newIds[i] = count;
+                    order[count++] = i;
+                }
+            }
+
+            AtomicReferenceArray<Node<TItem>> newNodes = new AtomicReferenceArray<>(nodes.length());
+
+            for (int newId = 0; newId < count; newId++) {
+                Node<TItem> node = nodes.get(order[newId]);
+
+                Connections[] connections = new Connections[node.maxLevel() + 1];
+
+                for (int level = 0; level < connections.length; level++) {
+                    Connections levelConnections = node.connectionsWithDistances(level);
+                    int[] newLevelConnections = new int[levelConnections.ids.length];
+
+                    for (int i = 0; i < newLevelConnections.length; i++) {
+                        newLevelConnections[i] = newIds[levelConnections.ids[i]];
+                    }
+                    connections[level] = new Connections(newLevelConnections, levelConnections.distances);
+                }
+
+                newNodes.set(newId, new Node<>(newId, connections, node.item, node.deleted));
+            }
+
+            IdIntMap<TId> newLookup = IdMaps.newIdIntMap(idType, lookup.size());
+            lookup.forEachKeyValue((id, nodeId) -> newLookup.put(id, newIds[nodeId]));
+
+            this.lookup = newLookup;
+            this.nodes = newNodes;
+            this.nodeCount = count;
+            this.freedNodeIds.clear();
+            this.entryPoint = entryPoint == null ? null : newNodes.get(newIds[entryPoint.id]);
+
+            rebuildEntryPoints();
+        } finally {
+            globalLock.unlock();
+            compactionLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<SearchResult<TItem, TDistance>> findNearest(TVector destination, int k) {
+        return findNearest(destination, k, null);
+    }
+
+    /**
+     * Find the items closest to the passed in vector and record the work done by the search in stats.
+     *
+     * @param destination the vector
+     * @param k number of items to return
+     * @param stats the statistics to fill in, or null to not collect statistics
+     * @return the items closest to the passed in vector
+     */
+    public List<SearchResult<TItem, TDistance>> findNearest(TVector destination, int k, SearchStats<TDistance> stats) {
+
+        HnswInstrumentation instrumentationCopy = instrumentation;
+
+        if (stats == null && instrumentationCopy != HnswInstrumentation.NO_OP) {
+            stats = new SearchStats<>();
+        }
+
+        if (stats != null) {
+            stats.reset();
+        }
+
+        // reorder replaces every node and the array holding them, a search works on one version of the graph and
+        // starts over when the entry point it picked up does not belong to the nodes it picked up
+        AtomicReferenceArray<Node<TItem>> nodesCopy;
+        Node<TItem> entryPointCopy;
+
+        do {
+            nodesCopy = nodes;
+            entryPointCopy = entryPoint;
+
+            if (entryPointCopy == null) {
+                return Collections.emptyList();
+            }
+        } while (nodesCopy.get(entryPointCopy.id) != entryPointCopy);
+
+        PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates =
+                findCandidates(nodesCopy, entryPointCopy, destination, Math.max(ef, k), 0, stats);
+
+        if (instrumentationCopy != HnswInstrumentation.NO_OP) {
+            instrumentationCopy.searchCompleted(stats.getDistanceComputations());
+        }
+
+        while (topCandidates.size() > k) {
+            topCandidates.poll();
+        }
+
+        List<SearchResult<TItem, TDistance>> results = new ArrayList<>(topCandidates.size());
+        while (!topCandidates.isEmpty()) {
+            NodeIdAndDistance<TDistance> pair = topCandidates.poll();
+            TItem item = nodesCopy.get(pair.nodeId).item;
+            results.add(0, new SearchResult<>(item, pair.distance, maxValueDistanceComparator));
+        }
+
+        return results;
+    }
+
+    private PriorityQueue<NodeIdAndDistance<TDistance>> findCandidates(AtomicReferenceArray<Node<TItem>> nodes,
+                                                                       Node<TItem> entryPointCopy,
+                                                                       TVector destination,
+                                                                       int k,
+                                                                       int layer,
+                                                                       SearchStats<TDistance> stats) {
+        Node<TItem> currObj = entryPointCopy;
+
+        TDistance curDist = distanceFunction.distance(destination, currObj.item.vector());
+
+        if (stats != null) {
+            stats.distanceComputed(entryPointCopy.maxLevel());
+        }
+
+        // start from the entry point closest to the destination
+        for (Node<TItem> candidate : entryPoints.get()) {
+            // entry points of a graph that was reordered in the meantime are not part of the nodes being searched
+            if (candidate != entryPointCopy && candidate.maxLevel() >= layer && nodes.get(candidate.id) == candidate) {
+                TDistance candidateDistance = distanceFunction.distance(destination, candidate.item.vector());
+
+                // like the main entry point, every entry point is counted on the top layer it is part of
+                if (stats != null) {
+                    stats.distanceComputed(candidate.maxLevel());
+                }
+
+                if (lt(candidateDistance, curDist)) {
+                    curDist = candidateDistance;
+                    currObj = candidate;
+                }
+            }
+        }
+
+        for (int activeLevel = currObj.maxLevel(); activeLevel > layer; activeLevel--) {
+
+            boolean changed = true;
+
+            while (changed) {
+                changed = false;
+
+                for (int candidateId : currObj.connections(activeLevel)) {
+
+                    TDistance candidateDistance = distanceFunction.distance(
+                            destination,
+                            nodes.get(candidateId).item.vector()
+                    );
+
+                    if (stats != null) {
+                        stats.distanceComputed(activeLevel);
+                    }
+
+                    if (lt(candidateDistance, curDist)) {
+                        curDist = candidateDistance;
+                        currObj = nodes.get(candidateId);
+                        changed = true;
+
+                        if (stats != null) {
+                            stats.hop();
+                        }
+                    }
+                }
+            }
+        }
+
+        return searchBaseLayer(nodes, currObj, destination, k, layer, stats);
+    }
+
+    private PriorityQueue<NodeIdAndDistance<TDistance>> searchBaseLayer(AtomicReferenceArray<Node<TItem>> nodes,
+                                                                        Node<TItem> entryPointNode,
+                                                                        TVector destination,
+                                                                        int k,
+                                                                        int layer,
+                                                                        SearchStats<TDistance> stats) {
+
+        HnswInstrumentation instrumentationCopy = instrumentation;
+
+        VisitedBitSetPool bitSetPool = visitedBitSetPool;
+        BitSet visitedBitSet;
+
+        if (stats == null && instrumentationCopy == HnswInstrumentation.NO_OP) {
+            visitedBitSet = bitSetPool.borrowObject();
+        } else {
+            long borrowStart = System.nanoTime();
+            visitedBitSet = bitSetPool.borrowObject();
+            long borrowNanos = System.nanoTime() - borrowStart;
+
+            if (stats != null) {
+                stats.lockWaited(borrowNanos);
+            }
+            instrumentationCopy.visitedSetBorrowed(borrowNanos);
+        }
+
+        try {
+            PriorityQueue<NodeIdAndDistance<TDistance>> topCandidates =
+                    new PriorityQueue<>(Comparator.<NodeIdAndDistance<TDistance>>naturalOrder().reversed());
+            PriorityQueue<NodeIdAndDistance<TDistance>> candidateSet = new PriorityQueue<>();
+
+            TDistance lowerBound;
+
+            if (!entryPointNode.deleted) {
+                TDistance distance = distanceFunction.distance(destination, entryPointNode.item.vector());
+                NodeIdAndDistance<TDistance> pair = new NodeIdAndDistance<>(entryPointNode.id, distance, maxValueDistanceComparator);
+
+                if (stats != null) {
+                    stats.distanceComputed(layer);
+                }
+
+                topCandidates.add(pair);
+                lowerBound = distance;
+                candidateSet.add(pair);
+
+            } else {
+                lowerBound = MaxValueComparator.maxValue();
+                NodeIdAndDistance<TDistance> pair = new NodeIdAndDistance<>(entryPointNode.id, lowerBound, maxValueDistanceComparator);
+                candidateSet.add(pair);
+            }
+
+            visitedBitSet.add(entryPointNode.id);
+
+            if (stats != null) {
+                stats.visited();
+                stats.heapPush();
+            }
+
+            while (!candidateSet.isEmpty()) {
+
+                NodeIdAndDistance<TDistance> currentPair = candidateSet.poll();
+
+                if (gt(currentPair.distance, lowerBound)) {
+                    break;
+                }
+
+                Node<TItem> node = nodes.get(currentPair.nodeId);
+
+                if (stats != null) {
+                    stats.expanded();
+                }
+
+                for (int candidateId : node.connections(layer)) {
+
+                    // nodes added after a resize that completed during this search do not fit in the visited set,
+                    // they were not in the index when the search started so they can be left out
+                    if (candidateId >= bitSetPool.capacity) {
+                        continue;
+                    }
+
+                    if (!visitedBitSet.contains(candidateId)) {
+
+                        visitedBitSet.add(candidateId);
+
+                        Node<TItem> candidateNode = nodes.get(candidateId);
+
+                        TDistance candidateDistance = distanceFunction.distance(destination,
+                                candidateNode.item.vector());
+
+                        if (stats != null) {
+                            stats.visited();
+                            stats.distanceComputed(layer);
+                        }
+
+                        if (topCandidates.size() < k || gt(lowerBound, candidateDistance)) {
+
+                            NodeIdAndDistance<TDistance> candidatePair =
+                                    new NodeIdAndDistance<>(candidateId, candidateDistance, maxValueDistanceComparator);
+
+                            candidateSet.add(candidatePair);
+
+                            if (stats != null) {
+                                stats.heapPush();
+                            }
+
+                            if (!candidateNode.deleted) {
+                                topCandidates.add(candidatePair);
+                            }
+
+                            if (topCandidates.size() > k) {
+                                topCandidates.poll();
+                            }
+
+                            if (!topCandidates.isEmpty()) {
+                                lowerBound = topCandidates.peek().distance;
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (stats != null) {
+                stats.lowerBound(lowerBound);
             }
 
             return topCandidates;
         } finally {
             visitedBitSet.clear();
-            visitedBitSetPool.returnObject(visitedBitSet);
+            bitSetPool.returnObject(visitedBitSet);
         }
     }
 
     /**
      * Creates a read only view on top of this index that uses pairwise comparision when doing distance search. And as
      * such can be used as a baseline for assessing the precision of the index.
-     * Searches will be really slow but give the correct result every time.
+     * Searches will be really slow but give the correct result every time. Large indices are scanned in parallel, use
+     * {@link #exactView()} to search for many queries at once.
      *
      * @return read only view on top of this index that uses pairwise comparision when doing distance search
      */
@@ -617,6 +1707,145 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         return exactView;
     }
 
+    /**
+     * Returns the same view as {@link #asExactIndex()}, typed so that many queries can be searched at once with
+     * {@link ExactView#findNearestBatch(List, int)}.
+     *
+     * @return read only view on top of this index that uses pairwise comparision when doing distance search
+     */
+    public ExactView exactView() {
+        return exactView;
+    }
+
+    /**
+     * Creates a read only snapshot of this index. The snapshot stores the graph in flat arrays and searches it without
+     * locking nodes, which makes it faster to search than this index. Changes made to this index after the snapshot
+     * was taken are not reflected in the snapshot. Additions, removals and compaction block while the snapshot is
+     * taken.
+     *
+     * @return read only snapshot of this index
+     */
+    public FrozenHnswIndex<TId, TVector, TItem, TDistance> freeze() {
+        compactionLock.writeLock().lock();
+        globalLock.lock();
+        try {
+            // slots freed by compaction still hold the purged node until they are reused
+            IntHashSet freed = IntHashSet.newSet(freedNodeIds);
+
+            // number the nodes consecutively, skipping the slots of removed nodes
+            int[] newIds = new int[nodeCount];
+            int count = 0;
+            for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+                newIds[nodeId] = nodes.get(nodeId) == null || freed.contains(nodeId) ? NO_NODE_ID : count++;
+            }
+
+            Object[] items = new Object[count];
+            boolean[] deleted = new boolean[count];
+            int[] level0Offsets = new int[count + 1];
+            int[][][] upperConnections = new int[count][][];
+            MutableIntList level0Connections = new IntArrayList(count * maxM0);
+
+            for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+                int newId = newIds[nodeId];
+
+                if (newId == NO_NODE_ID) {
+                    continue;
+                }
+
+                Node<TItem> node = nodes.get(nodeId);
+
+                synchronized (node) {
+                    items[newId] = node.item;
+                    deleted[newId] = node.deleted;
+
+                    for (int neighbourId : node.connections(0)) {
+                        if (newIds[neighbourId] != NO_NODE_ID) {
+                            level0Connections.add(newIds[neighbourId]);
+                        }
+                    }
+                    level0Offsets[newId + 1] = level0Connections.size();
+
+                    if (node.maxLevel() > 0) {
+                        upperConnections[newId] = new int[node.maxLevel()][];
+
+                        for (int level = 1; level <= node.maxLevel(); level++) {
+                            MutableIntList levelConnections = new IntArrayList(node.connections(level).length);
+
+                            for (int neighbourId : node.connections(level)) {
+                                if (newIds[neighbourId] != NO_NODE_ID) {
+                                    levelConnections.add(newIds[neighbourId]);
+                                }
+                            }
+                            upperConnections[newId][level - 1] = levelConnections.toArray();
+                        }
+                    }
+                }
+            }
+
+            IdIntMap<TId> newLookup = IdMaps.newIdIntMap(idType, lookup.size());
+            lookup.forEachKeyValue((id, nodeId) -> newLookup.put(id, newIds[nodeId]));
+
+            Node<TItem> entryPointCopy = entryPoint;
+
+            int[] newEntryPoints = entryPoints.get().stream()
+                    .mapToInt(node -> newIds[node.id])
+                    .filter(newId -> newId != NO_NODE_ID)
+                    .toArray();
+
+            return new FrozenHnswIndex<>(distanceFunction, maxValueDistanceComparator, dimensions, m, ef,
+                    efConstruction, items, deleted, level0Offsets, level0Connections.toArray(), upperConnections,
+                    entryPointCopy == null ? NO_NODE_ID : newIds[entryPointCopy.id], newEntryPoints, newLookup);
+        } finally {
+            globalLock.unlock();
+            compactionLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Collects statistics about the structure of the graph, such as the number of connections per node, the number
+     * of items that cannot be reached from the entry point and the number of removed items that are still part of the
+     * graph. Searches, additions and removals can continue while the graph is examined, compaction will block until
+     * it is done. Changes made while the graph is examined may or may not be reflected in the result.
+     *
+     * @return statistics about the structure of the graph
+     */
+    public GraphDiagnostics diagnose() {
+        return diagnose(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Collects statistics about the structure of the graph.
+     *
+     * @param numThreads number of threads to use
+     * @return statistics about the structure of the graph
+     *
+     * @see #diagnose()
+     */
+    public GraphDiagnostics diagnose(int numThreads) {
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+
+        compactionLock.readLock().lock();
+        try {
+            int nodeCountCopy;
+            IntHashSet freed;
+            Node<TItem> entryPointCopy;
+
+            globalLock.lock();
+            try {
+                nodeCountCopy = nodeCount;
+                freed = IntHashSet.newSet(freedNodeIds);
+                entryPointCopy = entryPoint;
+            } finally {
+                globalLock.unlock();
+            }
+
+            return GraphDiagnostics.compute(nodes, nodeCountCopy, freed, entryPointCopy, pool);
+        } finally {
+            compactionLock.readLock().unlock();
+            pool.shutdown();
+        }
+    }
+
     /**
      * Returns the dimensionality of the items stored in this index.
      *
@@ -653,13 +1882,48 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         this.ef = ef;
     }
 
+    /**
+     * Returns the instrumentation that receives measurements of the internals of this index.
+     *
+     * @return the instrumentation that receives measurements of the internals of this index
+     */
+    public HnswInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * Installs instrumentation that receives measurements of the internals of this index, such as the time spent
+     * waiting for locks and the number of distances computed per search. The instrumentation is not saved with the
+     * index.
+     *
+     * @param instrumentation the instrumentation to install, or null to stop taking measurements
+     */
+    public void setInstrumentation(HnswInstrumentation instrumentation) {
+        globalLock.lock();
+        try {
+            this.instrumentation = instrumentation == null ? HnswInstrumentation.NO_OP : instrumentation;
+            reportDeletedNodeCount();
+        } finally {
+            globalLock.unlock();
+        }
+    }
+
     /**
      * Returns the parameter has the same meaning as ef, but controls the index time / index precision.
      *
-     * @return the parameter has the same meaning as ef, but controls the index time / index precision
+     * @return the parameter has the same meaning as ef, but controls the index time / index precision
+     */
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    /**
+     * Returns the number of nodes a search can start from.
+     *
+     * @return the number of nodes a search can start from
      */
-    public int getEfConstruction() {
-        return efConstruction;
+    public int getNumEntryPoints() {
+        return numEntryPoints;
     }
 
     /**
@@ -728,7 +1992,7 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
     }
 
     private void writeObject(ObjectOutputStream oos) throws IOException {
-        oos.writeByte(VERSION_1);
+        oos.writeByte(VERSION_4);
         oos.writeInt(dimensions);
         oos.writeObject(distanceFunction);
         oos.writeObject(distanceComparator);
@@ -742,16 +2006,18 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         oos.writeInt(ef);
         oos.writeInt(efConstruction);
         oos.writeBoolean(removeEnabled);
+        oos.writeObject(idType);
         oos.writeInt(nodeCount);
-        writeMutableObjectIntMap(oos, lookup);
-        writeMutableObjectLongMap(oos, deletedItemVersions);
+        writeIdIntMap(oos, lookup);
+        writeIdLongMap(oos, deletedItemVersions);
         writeNodesArray(oos, nodes);
         oos.writeInt(entryPoint == null ? -1 : entryPoint.id);
+        oos.writeInt(numEntryPoints);
     }
 
     @SuppressWarnings("unchecked")
     private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
-        @SuppressWarnings("unused") byte version = ois.readByte(); // for coping with future incompatible serialization
+        byte version = ois.readByte(); // for coping with future incompatible serialization
         this.dimensions = ois.readInt();
         this.distanceFunction = (DistanceFunction<TVector, TDistance>) ois.readObject();
         this.distanceComparator = (Comparator<TDistance>) ois.readObject();
@@ -767,59 +2033,91 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         this.ef = ois.readInt();
         this.efConstruction = ois.readInt();
         this.removeEnabled = ois.readBoolean();
+        this.idType = version < VERSION_4 ? IdType.OBJECT : (IdType) ois.readObject();
         this.nodeCount = ois.readInt();
-        this.lookup = readMutableObjectIntMap(ois, itemIdSerializer);
-        this.deletedItemVersions = readMutableObjectLongMap(ois, itemIdSerializer);
-        this.nodes = readNodesArray(ois, itemSerializer, maxM0, maxM);
+        this.lookup = readIdIntMap(ois, itemIdSerializer, idType);
+        this.deletedItemVersions = readIdLongMap(ois, itemIdSerializer, idType);
+        this.nodes = readNodesArray(ois, itemSerializer, version);
+
+        this.freedNodeIds = new IntArrayList();
+        for (int i = 0; i < nodeCount; i++) {
+            if (nodes.get(i) == null) {
+                freedNodeIds.add(i);
+            }
+        }
 
         int entrypointNodeId = ois.readInt();
         this.entryPoint = entrypointNodeId == -1 ? null : nodes.get(entrypointNodeId);
 
-        this.globalLock = new ReentrantLock();
-        this.visitedBitSetPool = new GenericObjectPool<>(() -> new ArrayBitSet(this.maxItemCount),
-                Runtime.getRuntime().availableProcessors());
-        this.excludedCandidates = new SynchronizedBitSet(new ArrayBitSet(this.maxItemCount));
+        this.numEntryPoints = version == VERSION_1 || version == VERSION_2 ? 1 : ois.readInt();
+        this.entryPoints = new AtomicReference<>(Collections.emptyList());
+        rebuildEntryPoints();
+
+        this.globalLock = new GlobalLock();
+        this.compactionLock = new ReentrantReadWriteLock();
+        this.visitedBitSetPool = new VisitedBitSetPool(this.maxItemCount);
+        this.excludedCandidates = new ConcurrentBitSet(this.maxItemCount);
         this.locks = new HashMap<>();
         this.exactView = new ExactView();
+        this.instrumentation = HnswInstrumentation.NO_OP;
     }
 
-    private void writeMutableObjectIntMap(ObjectOutputStream oos, MutableObjectIntMap<TId> map) throws IOException {
+    private void writeIdIntMap(ObjectOutputStream oos, IdIntMap<TId> map) throws IOException {
         oos.writeInt(map.size());
 
-        for (ObjectIntPair<TId> pair : map.keyValuesView()) {
-            itemIdSerializer.write(pair.getOne(), oos);
-            oos.writeInt(pair.getTwo());
+        try {
+            map.forEachKeyValue((id, value) -> {
+                try {
+                    itemIdSerializer.write(id, oos);
+                    oos.writeInt(value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
-    private void writeMutableObjectLongMap(ObjectOutputStream oos, MutableObjectLongMap<TId> map) throws IOException {
+    private void writeIdLongMap(ObjectOutputStream oos, IdLongMap<TId> map) throws IOException {
         oos.writeInt(map.size());
 
-        for (ObjectLongPair<TId> pair : map.keyValuesView()) {
-            itemIdSerializer.write(pair.getOne(), oos);
-            oos.writeLong(pair.getTwo());
+        try {
+            map.forEachKeyValue((id, value) -> {
+                try {
+                    itemIdSerializer.write(id, oos);
+                    oos.writeLong(value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
     private void writeNodesArray(ObjectOutputStream oos, AtomicReferenceArray<Node<TItem>> nodes) throws IOException {
         oos.writeInt(nodes.length());
+
+        ConnectionsEncoder encoder = new ConnectionsEncoder(maxM0);
+
+        // slots freed by compact are stored as empty slots, and put back on the free list when loading the index
+        IntHashSet freed = IntHashSet.newSet(freedNodeIds);
+
         for (int i = 0; i < nodes.length(); i++) {
-            writeNode(oos, nodes.get(i));
+            writeNode(oos, freed.contains(i) ? null : nodes.get(i), encoder);
         }
     }
 
-    private void writeNode(ObjectOutputStream oos, Node<TItem> node) throws IOException {
+    private void writeNode(ObjectOutputStream oos, Node<TItem> node, ConnectionsEncoder encoder) throws IOException {
         if (node == null) {
             oos.writeInt(-1);
         } else {
             oos.writeInt(node.id);
-            oos.writeInt(node.connections.length);
+            oos.writeInt(node.maxLevel() + 1);
 
-            for (MutableIntList connections : node.connections) {
-                oos.writeInt(connections.size());
-                for (int j = 0; j < connections.size(); j++) {
-                    oos.writeInt(connections.get(j));
-                }
+            for (int level = 0; level <= node.maxLevel(); level++) {
+                encoder.write(oos, node.connections(level));
             }
             itemSerializer.write(node.item, oos);
             oos.writeBoolean(node.deleted);
@@ -934,22 +2232,47 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         }
     }
 
-    private static IntArrayList readIntArrayList(ObjectInputStream ois, int initialSize) throws IOException {
+    private static int[] readIntArray(ObjectInputStream ois) throws IOException {
         int size = ois.readInt();
 
-        IntArrayList list = new IntArrayList(initialSize);
+        int[] array = new int[size];
+
+        for (int j = 0; j < size; j++) {
+            array[j] = ois.readInt();
+        }
+
+        return array;
+    }
+
+    private static int[] readEncodedIntArray(ObjectInputStream ois) throws IOException {
+        int size = readVarInt(ois);
 
+        int[] array = new int[size];
+
+        int previous = 0;
         for (int j = 0; j < size; j++) {
-            list.add(ois.readInt());
+            previous += readVarInt(ois);
+            array[j] = previous;
         }
 
-        return list;
+        return array;
+    }
+
+    private static int readVarInt(ObjectInputStream ois) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = ois.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
     }
 
     private static <TItem> Node<TItem> readNode(ObjectInputStream ois,
                                                 ObjectSerializer<TItem> itemSerializer,
-                                                int maxM0,
-                                                int maxM) throws IOException, ClassNotFoundException {
+                                                byte version) throws IOException, ClassNotFoundException {
 
         int id = ois.readInt();
 
@@ -958,11 +2281,11 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         } else {
             int connectionsSize = ois.readInt();
 
-            MutableIntList[] connections = new MutableIntList[connectionsSize];
+            int[][] connections = new int[connectionsSize][];
 
             for (int i = 0; i < connectionsSize; i++) {
-                int levelM = i == 0 ? maxM0 : maxM;
-                connections[i] = readIntArrayList(ois, levelM);
+                // version 1 stored every connection as a raw 4 byte int
+                connections[i] = version == VERSION_1 ? readIntArray(ois) : readEncodedIntArray(ois);
             }
 
             TItem item = itemSerializer.read(ois);
@@ -975,27 +2298,27 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
 
     private static <TItem> AtomicReferenceArray<Node<TItem>> readNodesArray(ObjectInputStream ois,
                                                                             ObjectSerializer<TItem> itemSerializer,
-                                                                            int maxM0,
-                                                                            int maxM)
+                                                                            byte version)
             throws IOException, ClassNotFoundException {
 
         int size = ois.readInt();
         AtomicReferenceArray<Node<TItem>> nodes = new AtomicReferenceArray<>(size);
 
         for (int i = 0; i < nodes.length(); i++) {
-            nodes.set(i, readNode(ois, itemSerializer, maxM0, maxM));
+            nodes.set(i, readNode(ois, itemSerializer, version));
         }
 
         return nodes;
     }
 
-    private static <TId> MutableObjectIntMap<TId> readMutableObjectIntMap(ObjectInputStream ois,
-                                                                          ObjectSerializer<TId> itemIdSerializer)
+    private static <TId> IdIntMap<TId> readIdIntMap(ObjectInputStream ois,
+                                                    ObjectSerializer<TId> itemIdSerializer,
+                                                    IdType idType)
             throws IOException, ClassNotFoundException {
 
         int size = ois.readInt();
 
-        MutableObjectIntMap<TId> map = new ObjectIntHashMap<>(size);
+        IdIntMap<TId> map = IdMaps.newIdIntMap(idType, size);
 
         for (int i = 0; i < size; i++) {
             TId key = itemIdSerializer.read(ois);
@@ -1006,13 +2329,14 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         return map;
     }
 
-    private static <TId> MutableObjectLongMap<TId> readMutableObjectLongMap(ObjectInputStream ois,
-                                                                            ObjectSerializer<TId> itemIdSerializer)
+    private static <TId> IdLongMap<TId> readIdLongMap(ObjectInputStream ois,
+                                                      ObjectSerializer<TId> itemIdSerializer,
+                                                      IdType idType)
             throws IOException, ClassNotFoundException {
 
         int size = ois.readInt();
 
-        MutableObjectLongMap<TId> map = new ObjectLongHashMap<>(size);
+        IdLongMap<TId> map = IdMaps.newIdLongMap(idType, size);
 
         for (int i = 0; i < size; i++) {
             TId key = itemIdSerializer.read(ois);
@@ -1091,10 +2415,25 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         return maxValueDistanceComparator.compare(x, y) > 0;
     }
 
-    class ExactView implements Index<TId, TVector, TItem, TDistance> {
+    /**
+     * View on top of the index that compares the query with every item in the index, as returned by
+     * {@link #asExactIndex()} and {@link #exactView()}. The node array is scanned in chunks in parallel, every chunk collects its candidates
+     * in its own heap of node ids and distances, so only the returned items get a {@link SearchResult}. Searches
+     * block compaction while they run.
+     */
+    public class ExactView implements Index<TId, TVector, TItem, TDistance> {
 
         private static final long serialVersionUID = 1L;
 
+        // indices with fewer nodes than this are scanned on the calling thread
+        private static final int MIN_PARALLEL_SIZE = 16384;
+
+        private static final int SCAN_BATCH_SIZE = 4096;
+
+        private static final int NODE_BLOCK_SIZE = 256;
+
+        private static final int QUERY_BLOCK_SIZE = 32;
+
         @Override
         public int size() {
             return HnswIndex.this.size();
@@ -1111,38 +2450,155 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
             return HnswIndex.this.items();
         }
 
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Large indices are scanned in parallel on the {@link ForkJoinPool#commonPool() common pool}.
+         */
         @Override
         public List<SearchResult<TItem, TDistance>> findNearest(TVector vector, int k) {
+            if (vector == null) {
+                throw new IllegalArgumentException("Vector cannot be null.");
+            }
 
-            Comparator<SearchResult<TItem, TDistance>> comparator = Comparator
-                    .<SearchResult<TItem, TDistance>>naturalOrder()
-                    .reversed();
+            compactionLock.readLock().lock();
+            try {
+                int count = nodeCount;
+                BoundedMaxHeap<TDistance> heap = new BoundedMaxHeap<>(Math.min(k, count), maxValueDistanceComparator);
 
-            PriorityQueue<SearchResult<TItem, TDistance>> queue = new PriorityQueue<>(k, comparator);
+                if (count < MIN_PARALLEL_SIZE) {
+                    scan(vector, 0, count, heap);
+                } else {
+                    scanChunks(vector, count, heap, ForkJoinPool.commonPool());
+                }
+                return toResults(heap);
+            } finally {
+                compactionLock.readLock().unlock();
+            }
+        }
 
-            for (int i = 0; i < nodeCount; i++) {
-                Node<TItem> node = nodes.get(i);
-                if (node == null || node.deleted) {
-                    continue;
+        /**
+         * Finds the k nearest neighbors of every vector in a list, on the
+         * {@link ForkJoinPool#commonPool() common pool}.
+         *
+         * @param vectors the vectors to search for
+         * @param k number of items to return per vector
+         * @return for every vector, in the order of the passed in list, the k nearest items sorted by distance
+         */
+        public List<List<SearchResult<TItem, TDistance>>> findNearestBatch(List<TVector> vectors, int k) {
+            return findNearestBatch(vectors, k, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * Finds the k nearest neighbors of every vector in a list, using the passed in number of threads. When that
+         * equals the parallelism of the {@link ForkJoinPool#commonPool() common pool} the common pool is used,
+         * otherwise a pool is started for the duration of the call.
+         *
+         * @param vectors the vectors to search for
+         * @param k number of items to return per vector
+         * @param numThreads number of threads to use
+         * @return for every vector, in the order of the passed in list, the k nearest items sorted by distance
+         */
+        public List<List<SearchResult<TItem, TDistance>>> findNearestBatch(List<TVector> vectors,
+                                                                          int k,
+                                                                          int numThreads) {
+            if (numThreads == ForkJoinPool.commonPool().getParallelism()) {
+                return findNearestBatch(vectors, k, ForkJoinPool.commonPool());
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+            try {
+                return findNearestBatch(vectors, k, pool);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        /**
+         * Finds the k nearest neighbors of every vector in a list on the threads of the passed in pool. Blocks of
+         * queries are compared against blocks of nodes so every block of nodes is read from memory once per block of
+         * queries rather than once per query.
+         *
+         * @param vectors the vectors to search for
+         * @param k number of items to return per vector
+         * @param pool the pool to run the search on
+         * @return for every vector, in the order of the passed in list, the k nearest items sorted by distance
+         */
+        public List<List<SearchResult<TItem, TDistance>>> findNearestBatch(List<TVector> vectors,
+                                                                          int k,
+                                                                          ForkJoinPool pool) {
+            List<TVector> queries = new ArrayList<>(vectors);
+            for (TVector query : queries) {
+                if (query == null) {
+                    throw new IllegalArgumentException("Vector cannot be null.");
+                }
+            }
+
+            int numThreads = pool.getParallelism();
+
+            compactionLock.readLock().lock();
+            try {
+                int count = nodeCount;
+                int numQueries = queries.size();
+
+                List<BoundedMaxHeap<TDistance>> heaps = new ArrayList<>(numQueries);
+                for (int i = 0; i < numQueries; i++) {
+                    heaps.add(new BoundedMaxHeap<>(Math.min(k, count), maxValueDistanceComparator));
                 }
 
-                TDistance distance = distanceFunction.distance(node.item.vector(), vector);
+                if (numQueries < numThreads) {
+                    // too few queries to keep every thread busy, split the nodes instead
+                    for (int i = 0; i < numQueries; i++) {
+                        scanChunks(queries.get(i), count, heaps.get(i), pool);
+                    }
+                } else {
+                    int queryBlockSize = Math.min(QUERY_BLOCK_SIZE, numQueries / numThreads);
 
-                SearchResult<TItem, TDistance> searchResult = new SearchResult<>(node.item, distance, maxValueDistanceComparator);
-                queue.add(searchResult);
+                    pool.invoke(new RangeTask(0, numQueries, queryBlockSize, (from, to) -> {
+                        for (int blockStart = 0; blockStart < count; blockStart += NODE_BLOCK_SIZE) {
+                            int blockEnd = Math.min(count, blockStart + NODE_BLOCK_SIZE);
+                            for (int i = from; i < to; i++) {
+                                scan(queries.get(i), blockStart, blockEnd, heaps.get(i));
+                            }
+                        }
+                    }));
+                }
 
-                if (queue.size() > k) {
-                    queue.poll();
+                List<List<SearchResult<TItem, TDistance>>> results = new ArrayList<>(numQueries);
+                for (BoundedMaxHeap<TDistance> heap : heaps) {
+                    results.add(toResults(heap));
                 }
+                return results;
+            } finally {
+                compactionLock.readLock().unlock();
             }
+        }
 
-            List<SearchResult<TItem, TDistance>> results = new ArrayList<>(queue.size());
+        private void scanChunks(TVector vector, int count, BoundedMaxHeap<TDistance> heap, ForkJoinPool pool) {
+            pool.invoke(new RangeTask(0, count, SCAN_BATCH_SIZE, (from, to) -> {
+                BoundedMaxHeap<TDistance> chunkHeap = new BoundedMaxHeap<>(heap.capacity(), maxValueDistanceComparator);
+                scan(vector, from, to, chunkHeap);
+                synchronized (heap) {
+                    heap.merge(chunkHeap);
+                }
+            }));
+        }
 
-            SearchResult<TItem, TDistance> result;
-            while ((result = queue.poll()) != null) { // if you iterate over a priority queue the order is not guaranteed
-                results.add(0, result);
+        private void scan(TVector vector, int from, int to, BoundedMaxHeap<TDistance> heap) {
+            for (int nodeId = from; nodeId < to; nodeId++) {
+                Node<TItem> node = nodes.get(nodeId);
+                if (node == null || node.deleted) {
+                    continue;
+                }
+                heap.offer(nodeId, distanceFunction.distance(node.item.vector(), vector));
             }
+        }
 
+        private List<SearchResult<TItem, TDistance>> toResults(BoundedMaxHeap<TDistance> heap) {
+            List<SearchResult<TItem, TDistance>> results = new ArrayList<>(heap.size());
+            heap.drain((nodeId, distance) ->
+                    results.add(new SearchResult<>(nodes.get(nodeId).item, distance, maxValueDistanceComparator)));
+            Collections.reverse(results);
             return results;
         }
 
@@ -1185,6 +2641,232 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         public void addAll(Collection<TItem> items, int numThreads, ProgressListener listener, int progressUpdateInterval) throws InterruptedException {
             HnswIndex.this.addAll(items, numThreads, listener, progressUpdateInterval);
         }
+
+        @Override
+        public void addAll(Iterator<TItem> items) throws InterruptedException {
+            HnswIndex.this.addAll(items);
+        }
+
+        @Override
+        public void addAll(Iterator<TItem> items, ProgressListener listener) throws InterruptedException {
+            HnswIndex.this.addAll(items, listener);
+        }
+
+        @Override
+        public void addAll(Iterator<TItem> items, int numThreads, ProgressListener listener, int progressUpdateInterval) throws InterruptedException {
+            HnswIndex.this.addAll(items, numThreads, listener, progressUpdateInterval);
+        }
+    }
+
+    /**
+     * Shared state of a {@link #bulkBuild(Collection, int, ProgressListener, int)} invocation.
+     */
+    class BulkBuildState {
+
+        private final TItem[] items;
+        private final int[] levels;
+        private final ProgressListener listener;
+        private final int progressUpdateInterval;
+
+        private final AtomicInteger workDone = new AtomicInteger();
+
+        private final List<TItem> rejected = Collections.synchronizedList(new ArrayList<>());
+
+        BulkBuildState(TItem[] items, int[] levels, ProgressListener listener, int progressUpdateInterval) {
+            this.items = items;
+            this.levels = levels;
+            this.listener = listener;
+            this.progressUpdateInterval = progressUpdateInterval;
+        }
+
+        void insert(int from, int to) {
+            List<Node<TItem>> batch = allocate(from, to);
+
+            for (int i = 0; i < batch.size(); i++) {
+                Node<TItem> newNode = batch.get(i);
+                try {
+                    Node<TItem> entryPointCopy = entryPoint;
+
+                    boolean newEntryPoint = entryPointCopy == null || newNode.maxLevel() > entryPointCopy.maxLevel();
+
+                    if (newEntryPoint) {
+                        globalLock.lock();
+                    }
+                    try {
+                        synchronized (newNode) {
+                            connectNewNode(newNode, newEntryPoint ? entryPoint : entryPointCopy);
+                        }
+                    } finally {
+                        if (newEntryPoint) {
+                            globalLock.unlock();
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    rollback(newNode, batch.subList(i + 1, batch.size()));
+                    throw e;
+                } finally {
+                    excludedCandidates.remove(newNode.id);
+                }
+
+                itemDone();
+            }
+        }
+
+        // the node that failed to connect may already be linked to from its neighbours, so it is marked deleted and
+        // left for compact to clean up. The nodes after it were never connected and cannot be reached, their slots are
+        // freed right away
+        private void rollback(Node<TItem> failedNode, List<Node<TItem>> unconnectedNodes) {
+            globalLock.lock();
+            try {
+                failedNode.deleted = true;
+                dropEntryPoint(failedNode);
+                lookup.remove(failedNode.item.id());
+
+                for (Node<TItem> node : unconnectedNodes) {
+                    lookup.remove(node.item.id());
+                    nodes.set(node.id, null);
+                    freedNodeIds.add(node.id);
+                    excludedCandidates.remove(node.id);
+                }
+
+                reportDeletedNodeCount();
+            } finally {
+                globalLock.unlock();
+            }
+        }
+
+        private List<Node<TItem>> allocate(int from, int to) {
+            List<Node<TItem>> batch = new ArrayList<>(to - from);
+
+            globalLock.lock();
+            try {
+                for (int i = from; i < to; i++) {
+                    TItem item = items[i];
+
+                    // anything that is not a plain insert of a new item, or does not fit, takes the regular route
+                    if (lookup.containsKey(item.id()) || deletedItemVersions.containsKey(item.id())
+                            || (nodeCount >= maxItemCount && freedNodeIds.isEmpty())) {
+                        rejected.add(item);
+                        continue;
+                    }
+
+                    int newNodeId = freedNodeIds.isEmpty() ? nodeCount++ : freedNodeIds.removeAtIndex(freedNodeIds.size() - 1);
+
+                    excludedCandidates.add(newNodeId);
+
+                    Node<TItem> newNode = new Node<>(newNodeId, newConnections(levels[i]), item, false);
+
+                    nodes.set(newNodeId, newNode);
+                    lookup.put(item.id(), newNodeId);
+
+                    batch.add(newNode);
+                }
+            } finally {
+                globalLock.unlock();
+            }
+            return batch;
+        }
+
+        void itemDone() {
+            int done = workDone.incrementAndGet();
+
+            if (done % progressUpdateInterval == 0 || items.length == done) {
+                listener.updateProgress(done, items.length);
+            }
+        }
+    }
+
+    // must be called while holding the global lock
+    private void reportDeletedNodeCount() {
+        HnswInstrumentation instrumentationCopy = instrumentation;
+        if (instrumentationCopy != HnswInstrumentation.NO_OP) {
+            instrumentationCopy.deletedNodeCountChanged(nodeCount - freedNodeIds.size() - lookup.size());
+        }
+    }
+
+    /**
+     * Global lock that reports how long it was waited for and held to the installed instrumentation.
+     */
+    private final class GlobalLock extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        // only accessed by the thread holding the lock
+        private long waitNanos;
+        private long acquiredAt;
+        private boolean timed;
+
+        @Override
+        public void lock() {
+            if (instrumentation == HnswInstrumentation.NO_OP) {
+                super.lock();
+                return;
+            }
+
+            long start = System.nanoTime();
+            super.lock();
+
+            if (getHoldCount() == 1) {
+                acquiredAt = System.nanoTime();
+                waitNanos = acquiredAt - start;
+                timed = true;
+            }
+        }
+
+        @Override
+        public void unlock() {
+            if (getHoldCount() != 1 || !timed) {
+                super.unlock();
+                return;
+            }
+
+            long holdNanos = System.nanoTime() - acquiredAt;
+            long wait = waitNanos;
+            timed = false;
+
+            super.unlock();
+
+            instrumentation.globalLockReleased(wait, holdNanos);
+        }
+    }
+
+    /**
+     * Action performed on a range of positions.
+     */
+    @FunctionalInterface
+    interface RangeAction {
+
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs an action over a range of positions, splitting the range up so idle threads can steal part of the work.
+     */
+    static class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int batchSize;
+        private final RangeAction action;
+
+        RangeTask(int from, int to, int batchSize, RangeAction action) {
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchSize) {
+                action.run(from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeTask(from, mid, batchSize, action), new RangeTask(mid, to, batchSize, action));
+            }
+        }
     }
 
     class ItemIterator implements Iterator<TItem> {
@@ -1211,27 +2893,164 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         }
     }
 
+    /**
+     * Writes connection lists as a varint encoded size followed by the varint encoded deltas between the sorted
+     * node ids. The deltas are a lot smaller than the ids themselves so most of them fit in one to three bytes instead
+     * of the four bytes needed to store a raw id. Read back by {@link #readEncodedIntArray}.
+     */
+    static class ConnectionsEncoder {
+
+        private int[] sorted;
+        private byte[] buffer;
+
+        ConnectionsEncoder(int initialCapacity) {
+            this.sorted = new int[initialCapacity];
+            this.buffer = new byte[(initialCapacity + 1) * 5];
+        }
+
+        void write(DataOutput out, int[] connections) throws IOException {
+            int size = connections.length;
+
+            if (sorted.length < size) {
+                sorted = new int[size];
+                buffer = new byte[(size + 1) * 5];
+            }
+
+            System.arraycopy(connections, 0, sorted, 0, size);
+            Arrays.sort(sorted, 0, size);
+
+            int length = writeVarInt(buffer, 0, size);
+
+            int previous = 0;
+            for (int i = 0; i < size; i++) {
+                length = writeVarInt(buffer, length, sorted[i] - previous);
+                previous = sorted[i];
+            }
+
+            out.write(buffer, 0, length);
+        }
+
+        private static int writeVarInt(byte[] buffer, int offset, int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[offset++] = (byte) value;
+            return offset;
+        }
+    }
+
+    static class VisitedBitSetPool extends GenericObjectPool<BitSet> {
+
+        private static final long serialVersionUID = 1L;
+
+        final int capacity;
+
+        VisitedBitSetPool(int capacity) {
+            // searches from more threads than there are cores are common (async searches, addAll with many threads),
+            // so let the pool grow past the core count instead of allocating and discarding a bitset on every search
+            super(() -> new ArrayBitSet(capacity), Runtime.getRuntime().availableProcessors(),
+                    Math.max(4 * Runtime.getRuntime().availableProcessors(), 16));
+            this.capacity = capacity;
+        }
+    }
+
     static class Node<TItem> implements Serializable {
 
         private static final long serialVersionUID = 1L;
 
         final int id;
 
-        final MutableIntList[] connections;
+        // the connections on every level. They are never modified, a change replaces the connections of a level as a
+        // whole so they can be read without holding the monitor of the node
+        final AtomicReferenceArray<Connections> connections;
 
         volatile TItem item;
 
         volatile boolean deleted;
 
-        Node(int id, MutableIntList[] connections, TItem item, boolean deleted) {
+        Node(int id, int[][] connections, TItem item, boolean deleted) {
+            this(id, withoutDistances(connections), item, deleted);
+        }
+
+        Node(int id, Connections[] connections, TItem item, boolean deleted) {
             this.id = id;
-            this.connections = connections;
+            this.connections = new AtomicReferenceArray<>(connections);
             this.item = item;
             this.deleted = deleted;
         }
 
+        int[] connections(int level) {
+            return connections.get(level).ids;
+        }
+
+        Connections connectionsWithDistances(int level) {
+            return connections.get(level);
+        }
+
+        /**
+         * Replaces the connections on a level. Must be called while holding the monitor of the node, the arrays of the
+         * connections must not be modified afterwards.
+         *
+         * @param level the level whose connections changed
+         * @param connections the new connections
+         */
+        void setConnections(int level, Connections connections) {
+            this.connections.set(level, connections);
+        }
+
         int maxLevel() {
-            return this.connections.length - 1;
+            return this.connections.length() - 1;
+        }
+
+        private static Connections[] withoutDistances(int[][] connections) {
+            Connections[] result = new Connections[connections.length];
+            for (int level = 0; level < connections.length; level++) {
+                result[level] = connections[level].length == 0
+                        ? Connections.EMPTY
+                        : new Connections(connections[level], null);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The connections of a node on a single level together with the distance from the node to each of them, so
+     * pruning the connections does not have to compute those distances again. Never modified after construction.
+     */
+    static class Connections implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        static final Connections EMPTY = new Connections(NO_CONNECTIONS, new Object[0]);
+
+        final int[] ids;
+
+        // the distances in the same order as the ids, or null when they are not known. For instance because the
+        // index was loaded from disk, distances are not persisted
+        final Object[] distances;
+
+        Connections(int[] ids, Object[] distances) {
+            this.ids = ids;
+            this.distances = distances;
+        }
+
+        /**
+         * Returns the distance to a connection when it is known.
+         *
+         * @param nodeId id of the connected node
+         * @return the distance or null when the node is not connected or the distance is not known
+         */
+        Object distanceTo(int nodeId) {
+            if (distances == null) {
+                return null;
+            }
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == nodeId) {
+                    return distances[i];
+                }
+            }
+            return null;
         }
     }
 
@@ -1288,6 +3107,7 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         public static final int DEFAULT_EF = 10;
         public static final int DEFAULT_EF_CONSTRUCTION = 200;
         public static final boolean DEFAULT_REMOVE_ENABLED = false;
+        public static final int DEFAULT_NUM_ENTRY_POINTS = 1;
 
         int dimensions;
         DistanceFunction<TVector, TDistance> distanceFunction;
@@ -1299,6 +3119,8 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
         int ef = DEFAULT_EF;
         int efConstruction = DEFAULT_EF_CONSTRUCTION;
         boolean removeEnabled = DEFAULT_REMOVE_ENABLED;
+        int numEntryPoints = DEFAULT_NUM_ENTRY_POINTS;
+        IdType idType = IdType.OBJECT;
 
         BuilderBase(int dimensions,
                     DistanceFunction<TVector, TDistance> distanceFunction,
@@ -1370,6 +3192,33 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
             this.removeEnabled = true;
             return self();
         }
+
+        /**
+         * Sets the number of nodes a search can start from. The nodes on the highest levels of the graph, which are
+         * spread out over the data, are used as entry points and every search starts from the one closest to the
+         * query. On clustered data this shortens the path a search has to travel and spreads the searches out over
+         * more nodes.
+         *
+         * @param numEntryPoints the number of nodes a search can start from
+         * @return the builder
+         */
+        public TBuilder withNumEntryPoints(int numEntryPoints) {
+            this.numEntryPoints = numEntryPoints;
+            return self();
+        }
+
+        /**
+         * Tells the index what type of identifier its items have. Int and long identifiers are looked up in maps
+         * keyed by primitives, which take a quarter to a third of the memory of the default map. Adding an item
+         * whose identifier does not have the hinted type fails with a ClassCastException.
+         *
+         * @param idType type of the identifiers of the items
+         * @return the builder
+         */
+        public TBuilder withIdType(IdType idType) {
+            this.idType = idType;
+            return self();
+        }
     }
 
 
@@ -1412,7 +3261,7 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
          */
         public <TId, TItem extends Item<TId, TVector>> RefinedBuilder<TId, TVector, TItem, TDistance> withCustomSerializers(ObjectSerializer<TId> itemIdSerializer, ObjectSerializer<TItem> itemSerializer) {
             return new RefinedBuilder<>(dimensions, distanceFunction, distanceComparator, maxItemCount, m, ef, efConstruction,
-                    removeEnabled, itemIdSerializer, itemSerializer);
+                    removeEnabled, numEntryPoints, idType, itemIdSerializer, itemSerializer);
         }
 
         /**
@@ -1454,6 +3303,8 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
                        int ef,
                        int efConstruction,
                        boolean removeEnabled,
+                       int numEntryPoints,
+                       IdType idType,
                        ObjectSerializer<TId> itemIdSerializer,
                        ObjectSerializer<TItem> itemSerializer) {
 
@@ -1463,6 +3314,8 @@ public class HnswIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance
             this.ef = ef;
             this.efConstruction = efConstruction;
             this.removeEnabled = removeEnabled;
+            this.numEntryPoints = numEntryPoints;
+            this.idType = idType;
 
             this.itemIdSerializer = itemIdSerializer;
             this.itemSerializer = itemSerializer;
@@ -0,0 +1,67 @@
+package com.github.jelmerk.knn.hnsw;
+
+/**
+ * Receives measurements of the internals of a {@link HnswIndex}. Install an implementation with
+ * {@link HnswIndex#setInstrumentation(HnswInstrumentation)}. Methods are called from the threads that use the index,
+ * often while searches and insertions are in progress on other threads, so implementations must be thread safe and
+ * should return quickly. All durations are in nanoseconds.
+ */
+public interface HnswInstrumentation {
+
+    /**
+     * Instrumentation that ignores all measurements. The index does not take any measurements while this is installed.
+     */
+    HnswInstrumentation NO_OP = new HnswInstrumentation() { };
+
+    /**
+     * Called after a search took a visited set from the pool.
+     *
+     * @param nanos time it took to obtain the visited set
+     */
+    default void visitedSetBorrowed(long nanos) {
+    }
+
+    /**
+     * Called after the global lock, which guards the allocation of nodes and the entry point, was released.
+     *
+     * @param waitNanos time spent waiting to acquire the lock
+     * @param holdNanos time the lock was held
+     */
+    default void globalLockReleased(long waitNanos, long holdNanos) {
+    }
+
+    /**
+     * Called for a sample of the times an insertion locked a neighbouring node to update its connections.
+     *
+     * @param waitNanos time spent waiting to acquire the lock on the node
+     */
+    default void nodeLockAcquired(long waitNanos) {
+    }
+
+    /**
+     * Called after every search.
+     *
+     * @param distanceComputations number of distances computed by the search
+     */
+    default void searchCompleted(long distanceComputations) {
+    }
+
+    /**
+     * Called after an item was connected to the graph.
+     *
+     * @param descentNanos time spent descending through the layers above the highest layer of the new node
+     * @param layerSearchNanos time spent searching for neighbours on the layers of the new node
+     * @param connectNanos time spent connecting the new node to its neighbours
+     */
+    default void insertCompleted(long descentNanos, long layerSearchNanos, long connectNanos) {
+    }
+
+    /**
+     * Called when the number of removed items that are still part of the graph changed, and when the instrumentation
+     * is installed.
+     *
+     * @param count number of removed items that are still part of the graph
+     */
+    default void deletedNodeCountChanged(int count) {
+    }
+}
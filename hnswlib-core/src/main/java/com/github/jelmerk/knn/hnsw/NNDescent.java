@@ -0,0 +1,331 @@
+package com.github.jelmerk.knn.hnsw;
+
+import com.github.jelmerk.knn.DistanceFunction;
+import org.eclipse.collections.api.list.primitive.MutableIntList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds an approximate k-nearest neighbour graph with the NN-descent algorithm. Every node starts out with random
+ * neighbours, after which the neighbours of neighbours of each node are compared with one another until hardly any
+ * better neighbours are found.
+ *
+ * @param <TVector> Type of the vector to perform distance calculation on
+ * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+ *
+ * @see <a href="https://www.cs.princeton.edu/cass/papers/www11.pdf">
+ * Efficient K-Nearest Neighbor Graph Construction for Generic Similarity Measures</a>
+ */
+class NNDescent<TVector, TDistance> {
+
+    static final int DEFAULT_MAX_ITERATIONS = 10;
+    static final double DEFAULT_SAMPLE_RATE = 0.5;
+    static final double DEFAULT_TERMINATION_THRESHOLD = 0.001;
+    static final long DEFAULT_SEED = 42L;
+
+    private static final int BATCH_SIZE = 64;
+
+    private final List<TVector> vectors;
+    private final DistanceFunction<TVector, TDistance> distanceFunction;
+    private final Comparator<TDistance> distanceComparator;
+    private final int k;
+    private final int maxIterations;
+    private final double sampleRate;
+    private final double terminationThreshold;
+    private final long seed;
+
+    private NeighbourHeap<TDistance>[] heaps;
+
+    NNDescent(List<TVector> vectors,
+              DistanceFunction<TVector, TDistance> distanceFunction,
+              Comparator<TDistance> distanceComparator,
+              int k,
+              int maxIterations,
+              double sampleRate,
+              double terminationThreshold,
+              long seed) {
+        this.vectors = vectors;
+        this.distanceFunction = distanceFunction;
+        this.distanceComparator = distanceComparator;
+        this.k = Math.min(k, vectors.size() - 1);
+        this.maxIterations = maxIterations;
+        this.sampleRate = sampleRate;
+        this.terminationThreshold = terminationThreshold;
+        this.seed = seed;
+    }
+
+    /**
+     * Builds the graph.
+     *
+     * @param pool the pool to run the work on
+     * @return for every vector the positions of its approximate nearest neighbours
+     */
+    @SuppressWarnings("unchecked")
+    int[][] build(ForkJoinPool pool) {
+        int numVectors = vectors.size();
+
+        heaps = new NeighbourHeap[numVectors];
+
+        pool.invoke(new HnswIndex.RangeTask(0, numVectors, BATCH_SIZE, this::initialize));
+
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+
+            MutableIntList[] newCandidates = new MutableIntList[numVectors];
+            MutableIntList[] oldCandidates = new MutableIntList[numVectors];
+
+            for (int i = 0; i < numVectors; i++) {
+                newCandidates[i] = new IntArrayList();
+                oldCandidates[i] = new IntArrayList();
+            }
+
+            sampleCandidates(newCandidates, oldCandidates, new Random(seed + iteration));
+
+            AtomicLong updates = new AtomicLong();
+
+            pool.invoke(new HnswIndex.RangeTask(0, numVectors, BATCH_SIZE, (from, to) -> {
+                long localUpdates = 0;
+                for (int i = from; i < to; i++) {
+                    localUpdates += localJoin(newCandidates[i], oldCandidates[i]);
+                }
+                updates.addAndGet(localUpdates);
+            }));
+
+            if (updates.get() <= terminationThreshold * numVectors * k) {
+                break;
+            }
+        }
+
+        int[][] graph = new int[numVectors][];
+        for (int i = 0; i < numVectors; i++) {
+            graph[i] = heaps[i].ids();
+        }
+        return graph;
+    }
+
+    private void initialize(int from, int to) {
+        int numVectors = vectors.size();
+
+        for (int i = from; i < to; i++) {
+            heaps[i] = new NeighbourHeap<>(k, distanceComparator);
+        }
+
+        for (int i = from; i < to; i++) {
+            Random random = new Random(seed ^ i);
+
+            while (heaps[i].size() < k) {
+                int j = random.nextInt(numVectors);
+                if (j != i) {
+                    heaps[i].push(j, distance(i, j), true);
+                }
+            }
+        }
+    }
+
+    private void sampleCandidates(MutableIntList[] newCandidates, MutableIntList[] oldCandidates, Random random) {
+        int maxSamples = Math.max(1, (int) (sampleRate * k));
+
+        for (int i = 0; i < heaps.length; i++) {
+            NeighbourHeap<TDistance> heap = heaps[i];
+
+            int sampled = 0;
+
+            for (int n = 0; n < heap.size(); n++) {
+                int neighbourId = heap.id(n);
+
+                if (!heap.isNew(n)) {
+                    oldCandidates[i].add(neighbourId);
+                    addReverse(oldCandidates[neighbourId], i, maxSamples, random);
+                } else if (sampled < maxSamples) {
+                    // only neighbours that take part in a join lose their new status
+                    heap.markOld(n);
+                    sampled++;
+
+                    newCandidates[i].add(neighbourId);
+                    addReverse(newCandidates[neighbourId], i, maxSamples, random);
+                }
+            }
+        }
+    }
+
+    private void addReverse(MutableIntList candidates, int id, int maxSamples, Random random) {
+        // reservoir sample the reverse neighbours so hubs do not blow up the local joins
+        if (candidates.size() < maxSamples) {
+            candidates.add(id);
+        } else if (random.nextInt(candidates.size() + 1) < maxSamples) {
+            candidates.set(random.nextInt(candidates.size()), id);
+        }
+    }
+
+    private long localJoin(MutableIntList newCandidates, MutableIntList oldCandidates) {
+        long updates = 0;
+
+        for (int a = 0; a < newCandidates.size(); a++) {
+            int u1 = newCandidates.get(a);
+
+            for (int b = a + 1; b < newCandidates.size(); b++) {
+                updates += join(u1, newCandidates.get(b));
+            }
+
+            for (int b = 0; b < oldCandidates.size(); b++) {
+                updates += join(u1, oldCandidates.get(b));
+            }
+        }
+        return updates;
+    }
+
+    private int join(int u1, int u2) {
+        if (u1 == u2) {
+            return 0;
+        }
+
+        TDistance distance = distance(u1, u2);
+
+        int updates = 0;
+        if (heaps[u1].pushIfCloser(u2, distance)) {
+            updates++;
+        }
+        if (heaps[u2].pushIfCloser(u1, distance)) {
+            updates++;
+        }
+        return updates;
+    }
+
+    private TDistance distance(int i, int j) {
+        return distanceFunction.distance(vectors.get(i), vectors.get(j));
+    }
+
+    /**
+     * Bounded max heap holding the closest neighbours found so far for a single node.
+     *
+     * @param <TDistance> Type of distance between items
+     */
+    static class NeighbourHeap<TDistance> {
+
+        private final int[] ids;
+        private final Object[] distances;
+        private final boolean[] isNew;
+        private final Comparator<TDistance> distanceComparator;
+
+        private int size;
+
+        // distance of the furthest neighbour once the heap is full, lets most rejections skip the lock
+        private volatile Object threshold;
+
+        NeighbourHeap(int capacity, Comparator<TDistance> distanceComparator) {
+            this.ids = new int[capacity];
+            this.distances = new Object[capacity];
+            this.isNew = new boolean[capacity];
+            this.distanceComparator = distanceComparator;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized int id(int n) {
+            return ids[n];
+        }
+
+        synchronized boolean isNew(int n) {
+            return isNew[n];
+        }
+
+        synchronized void markOld(int n) {
+            isNew[n] = false;
+        }
+
+        synchronized int[] ids() {
+            return Arrays.copyOf(ids, size);
+        }
+
+        boolean pushIfCloser(int id, TDistance distance) {
+            // the threshold only ever decreases so a stale value never rejects a neighbour that should be accepted
+            @SuppressWarnings("unchecked")
+            TDistance currentThreshold = (TDistance) threshold;
+
+            if (currentThreshold != null && distanceComparator.compare(distance, currentThreshold) >= 0) {
+                return false;
+            }
+            return push(id, distance, true);
+        }
+
+        synchronized boolean push(int id, TDistance distance, boolean isNewNeighbour) {
+            for (int n = 0; n < size; n++) {
+                if (ids[n] == id) {
+                    return false;
+                }
+            }
+
+            if (size < ids.length) {
+                set(size, id, distance, isNewNeighbour);
+                siftUp(size++);
+            } else if (distanceComparator.compare(distance, distance(0)) < 0) {
+                set(0, id, distance, isNewNeighbour);
+                siftDown(0);
+            } else {
+                return false;
+            }
+
+            if (size == ids.length) {
+                threshold = distances[0];
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private TDistance distance(int n) {
+            return (TDistance) distances[n];
+        }
+
+        private void set(int n, int id, Object distance, boolean isNewNeighbour) {
+            ids[n] = id;
+            distances[n] = distance;
+            isNew[n] = isNewNeighbour;
+        }
+
+        private void swap(int a, int b) {
+            int id = ids[a];
+            Object distance = distances[a];
+            boolean newNeighbour = isNew[a];
+            set(a, ids[b], distances[b], isNew[b]);
+            set(b, id, distance, newNeighbour);
+        }
+
+        private void siftUp(int n) {
+            while (n > 0) {
+                int parent = (n - 1) >>> 1;
+                if (distanceComparator.compare(distance(n), distance(parent)) <= 0) {
+                    return;
+                }
+                swap(n, parent);
+                n = parent;
+            }
+        }
+
+        private void siftDown(int n) {
+            while (true) {
+                int left = 2 * n + 1;
+                int right = left + 1;
+                int largest = n;
+
+                if (left < size && distanceComparator.compare(distance(left), distance(largest)) > 0) {
+                    largest = left;
+                }
+                if (right < size && distanceComparator.compare(distance(right), distance(largest)) > 0) {
+                    largest = right;
+                }
+                if (largest == n) {
+                    return;
+                }
+                swap(n, largest);
+                n = largest;
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.jelmerk.knn.hnsw;
+
+import java.util.Arrays;
+
+/**
+ * Statistics about the work done by a single search on a {@link HnswIndex}. Pass an instance to
+ * {@link HnswIndex#findNearest(Object, int, SearchStats)} to have it filled in. An instance can be reused for
+ * subsequent searches but must not be shared between threads.
+ *
+ * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+ */
+public class SearchStats<TDistance> {
+
+    private long[] distanceComputations = new long[1];
+
+    private int hops;
+    private int visitedNodes;
+    private int expandedNodes;
+    private int heapPushes;
+
+    private long lockWaitNanos;
+
+    private TDistance lowerBound;
+
+    /**
+     * Returns the number of distances computed on a layer of the graph. The distances to the entry points the search
+     * picks its starting point from are counted on the top layer of each entry point.
+     *
+     * @param layer the layer, 0 is the bottom layer that holds all items
+     * @return the number of distances computed on the layer
+     */
+    public long getDistanceComputations(int layer) {
+        return layer < distanceComputations.length ? distanceComputations[layer] : 0;
+    }
+
+    /**
+     * Returns the number of distances computed on all layers of the graph.
+     *
+     * @return the number of distances computed on all layers of the graph
+     */
+    public long getDistanceComputations() {
+        long total = 0;
+        for (long computations : distanceComputations) {
+            total += computations;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of layers distances were computed on.
+     *
+     * @return the number of layers distances were computed on
+     */
+    public int getNumLayers() {
+        return distanceComputations.length;
+    }
+
+    /**
+     * Returns the number of times the greedy descent through the upper layers moved to a closer node.
+     *
+     * @return the number of times the greedy descent moved to a closer node
+     */
+    public int getHops() {
+        return hops;
+    }
+
+    /**
+     * Returns the number of nodes visited on the bottom layer.
+     *
+     * @return the number of nodes visited on the bottom layer
+     */
+    public int getVisitedNodes() {
+        return visitedNodes;
+    }
+
+    /**
+     * Returns the number of nodes on the bottom layer whose neighbours were examined.
+     *
+     * @return the number of nodes on the bottom layer whose neighbours were examined
+     */
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    /**
+     * Returns the number of nodes pushed onto the candidate heap on the bottom layer.
+     *
+     * @return the number of nodes pushed onto the candidate heap
+     */
+    public int getHeapPushes() {
+        return heapPushes;
+    }
+
+    /**
+     * Returns the time in nanoseconds spent taking a visited set from the pool of the index. The pool is guarded by a
+     * lock, which is the only lock a search takes, nodes are read without locking them.
+     *
+     * @return the time in nanoseconds spent taking a visited set from the pool
+     */
+    public long getLockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    /**
+     * Returns the distance of the furthest result the search settled on. Null when no results were found.
+     *
+     * @return the distance of the furthest result the search settled on
+     */
+    public TDistance getLowerBound() {
+        return lowerBound;
+    }
+
+    void reset() {
+        Arrays.fill(distanceComputations, 0);
+        hops = 0;
+        visitedNodes = 0;
+        expandedNodes = 0;
+        heapPushes = 0;
+        lockWaitNanos = 0;
+        lowerBound = null;
+    }
+
+    void distanceComputed(int layer) {
+        if (layer >= distanceComputations.length) {
+            distanceComputations = Arrays.copyOf(distanceComputations, layer + 1);
+        }
+        distanceComputations[layer]++;
+    }
+
+    void hop() {
+        hops++;
+    }
+
+    void visited() {
+        visitedNodes++;
+    }
+
+    void expanded() {
+        expandedNodes++;
+    }
+
+    void heapPush() {
+        heapPushes++;
+    }
+
+    void lockWaited(long nanos) {
+        lockWaitNanos += nanos;
+    }
+
+    void lowerBound(TDistance lowerBound) {
+        this.lowerBound = lowerBound;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchStats{" +
+                "distanceComputations=" + Arrays.toString(distanceComputations) +
+                ", hops=" + hops +
+                ", visitedNodes=" + visitedNodes +
+                ", expandedNodes=" + expandedNodes +
+                ", heapPushes=" + heapPushes +
+                ", lockWaitNanos=" + lockWaitNanos +
+                ", lowerBound=" + lowerBound +
+                '}';
+    }
+}
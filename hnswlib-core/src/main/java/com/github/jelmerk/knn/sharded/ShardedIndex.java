@@ -0,0 +1,458 @@
+package com.github.jelmerk.knn.sharded;
+
+import com.github.jelmerk.knn.Index;
+import com.github.jelmerk.knn.Item;
+import com.github.jelmerk.knn.SearchResult;
+import com.github.jelmerk.knn.util.ClassLoaderObjectInputStream;
+import com.github.jelmerk.knn.util.Murmur3;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Implementation of {@link Index} that spreads its items over a number of underlying indexes. Items are routed to a
+ * shard by the hash of their identifier, so adds of different items mostly end up in different shards and do not
+ * contend with one another. Searches are run on all shards in parallel and the results merged.
+ *
+ * @param <TId> Type of the external identifier of an item
+ * @param <TVector> Type of the vector to perform distance calculation on
+ * @param <TItem> Type of items stored in the index
+ * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+ */
+public class ShardedIndex<TId, TVector, TItem extends Item<TId, TVector>, TDistance>
+        implements Index<TId, TVector, TItem, TDistance> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String SHARD_FILE_NAME = "shard-%d";
+
+    private static final String MANIFEST_FILE_NAME = "shards";
+
+    // differs from the seed used to assign levels in hnsw so the shard of an item says nothing about its level
+    private static final int ROUTING_SEED = 0x9747b28c;
+
+    private final List<Index<TId, TVector, TItem, TDistance>> shards;
+
+    private transient Executor executor;
+
+    /**
+     * Constructs a new ShardedIndex that searches its shards on the common fork join pool.
+     *
+     * @param shards the indexes to spread the items over
+     */
+    public ShardedIndex(List<? extends Index<TId, TVector, TItem, TDistance>> shards) {
+        this(shards, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a new ShardedIndex.
+     *
+     * @param shards the indexes to spread the items over
+     * @param executor executor to search the shards on
+     */
+    public ShardedIndex(List<? extends Index<TId, TVector, TItem, TDistance>> shards, Executor executor) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required.");
+        }
+        this.shards = new ArrayList<>(shards);
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add(TItem item) {
+        return shardFor(item.id()).add(item);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove(TId id, long version) {
+        return shardFor(id).remove(id, version);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(TId id) {
+        return shardFor(id).contains(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Index<TId, TVector, TItem, TDistance> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<TItem> get(TId id) {
+        return shardFor(id).get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<TItem> items() {
+        List<TItem> items = new ArrayList<>();
+        for (Index<TId, TVector, TItem, TDistance> shard : shards) {
+            items.addAll(shard.items());
+        }
+        return items;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<SearchResult<TItem, TDistance>> findNearest(TVector vector, int k) {
+        List<CompletableFuture<List<SearchResult<TItem, TDistance>>>> futures = new ArrayList<>(shards.size() - 1);
+
+        for (int i = 1; i < shards.size(); i++) {
+            Index<TId, TVector, TItem, TDistance> shard = shards.get(i);
+            futures.add(CompletableFuture.supplyAsync(() -> shard.findNearest(vector, k), executor));
+        }
+
+        // the calling thread would otherwise sit idle so it searches the first shard itself
+        PriorityQueue<SearchResult<TItem, TDistance>> queue = new PriorityQueue<>(k + 1, Comparator.reverseOrder());
+        offer(queue, shards.get(0).findNearest(vector, k), k);
+
+        for (CompletableFuture<List<SearchResult<TItem, TDistance>>> future : futures) {
+            try {
+                offer(queue, future.join(), k);
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+
+        return toList(queue);
+    }
+
+    /**
+     * Find the items closest to the passed in vector on the executor this index was created with.
+     *
+     * @param vector the vector
+     * @param k number of items to return
+     * @return future that completes with the items closest to the passed in vector
+     */
+    @Override
+    public CompletableFuture<List<SearchResult<TItem, TDistance>>> findNearestAsync(TVector vector, int k) {
+        return findNearestAsync(vector, k, executor);
+    }
+
+    /**
+     * Find the items closest to the passed in vector. Every shard is searched on the passed in executor and the
+     * results are merged once all shards are done, no thread waits for the searches to complete.
+     *
+     * @param vector the vector
+     * @param k number of items to return
+     * @param executor the executor to run the search on
+     * @return future that completes with the items closest to the passed in vector
+     */
+    @Override
+    public CompletableFuture<List<SearchResult<TItem, TDistance>>> findNearestAsync(TVector vector,
+                                                                                    int k,
+                                                                                    Executor executor) {
+
+        List<CompletableFuture<List<SearchResult<TItem, TDistance>>>> futures = new ArrayList<>(shards.size());
+
+        for (Index<TId, TVector, TItem, TDistance> shard : shards) {
+            futures.add(shard.findNearestAsync(vector, k, executor));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            PriorityQueue<SearchResult<TItem, TDistance>> queue = new PriorityQueue<>(k + 1, Comparator.reverseOrder());
+
+            for (CompletableFuture<List<SearchResult<TItem, TDistance>>> future : futures) {
+                offer(queue, future.join(), k);
+            }
+            return toList(queue);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(OutputStream out) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(this);
+        }
+    }
+
+    /**
+     * Saves every shard to its own file in a directory. The shards are written concurrently. The number of shards is
+     * written to a manifest file once all shards are saved, shard files left behind by an earlier save with more
+     * shards are deleted.
+     *
+     * @param directory the directory to write the shards to, it is created when it does not exist
+     * @throws IOException in case of an I/O exception
+     */
+    public void saveShards(Path directory) throws IOException {
+        Files.createDirectories(directory);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(shards.size());
+
+        for (int i = 0; i < shards.size(); i++) {
+            Index<TId, TVector, TItem, TDistance> shard = shards.get(i);
+            Path path = shardPath(directory, i);
+
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    shard.save(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+
+        awaitAll(futures);
+
+        Files.write(directory.resolve(MANIFEST_FILE_NAME),
+                Collections.singletonList(String.valueOf(shards.size())), StandardCharsets.UTF_8);
+
+        Path stalePath;
+        for (int i = shards.size(); Files.exists(stalePath = shardPath(directory, i)); i++) {
+            Files.delete(stalePath);
+        }
+    }
+
+    /**
+     * Returns the shards of this index.
+     *
+     * @return the shards of this index
+     */
+    public List<Index<TId, TVector, TItem, TDistance>> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    private Index<TId, TVector, TItem, TDistance> shardFor(TId id) {
+        int hashCode = id.hashCode();
+
+        byte[] bytes = new byte[] {
+                (byte) (hashCode >> 24),
+                (byte) (hashCode >> 16),
+                (byte) (hashCode >> 8),
+                (byte) hashCode
+        };
+
+        return shards.get(Math.floorMod(Murmur3.hash32(bytes, 0, bytes.length, ROUTING_SEED), shards.size()));
+    }
+
+    private void offer(PriorityQueue<SearchResult<TItem, TDistance>> queue,
+                       List<SearchResult<TItem, TDistance>> results,
+                       int k) {
+
+        for (SearchResult<TItem, TDistance> result : results) {
+            if (queue.size() < k) {
+                queue.add(result);
+            } else if (result.compareTo(queue.peek()) < 0) {
+                queue.poll();
+                queue.add(result);
+            }
+        }
+    }
+
+    private List<SearchResult<TItem, TDistance>> toList(PriorityQueue<SearchResult<TItem, TDistance>> queue) {
+        List<SearchResult<TItem, TDistance>> results = new ArrayList<>(queue.size());
+
+        SearchResult<TItem, TDistance> result;
+        while ((result = queue.poll()) != null) {
+            results.add(result);
+        }
+        Collections.reverse(results);
+
+        return results;
+    }
+
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        this.executor = ForkJoinPool.commonPool();
+    }
+
+    private static int readNumShards(Path manifestPath) throws IOException {
+        List<String> lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+        try {
+            int numShards = lines.isEmpty() ? 0 : Integer.parseInt(lines.get(0).trim());
+            if (numShards < 1) {
+                throw new IOException("Manifest " + manifestPath + " does not list any shards.");
+            }
+            return numShards;
+        } catch (NumberFormatException e) {
+            throw new IOException("Could not read manifest " + manifestPath + ".", e);
+        }
+    }
+
+    private static Path shardPath(Path directory, int shard) {
+        return directory.resolve(String.format(SHARD_FILE_NAME, shard));
+    }
+
+    private static void awaitAll(List<? extends CompletableFuture<?>> futures) throws IOException {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Restores a {@link ShardedIndex} from an InputStream.
+     *
+     * @param inputStream InputStream to restore the index from
+     *
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+     * @return The restored index
+     * @throws IOException in case of an I/O exception
+     * @throws IllegalArgumentException in case the file cannot be read
+     */
+    public static <TId, TVector, TItem extends Item<TId, TVector>, TDistance> ShardedIndex<TId, TVector, TItem, TDistance> load(InputStream inputStream) throws IOException {
+        return load(inputStream, Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Restores a {@link ShardedIndex} from an InputStream.
+     *
+     * @param inputStream InputStream to restore the index from
+     * @param classLoader the classloader to use
+     *
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+     * @return The restored index
+     * @throws IOException in case of an I/O exception
+     * @throws IllegalArgumentException in case the file cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public static <TId, TVector, TItem extends Item<TId, TVector>, TDistance> ShardedIndex<TId, TVector, TItem, TDistance> load(InputStream inputStream, ClassLoader classLoader) throws IOException {
+
+        try(ObjectInputStream ois = new ClassLoaderObjectInputStream(classLoader, inputStream)) {
+            return (ShardedIndex<TId, TVector, TItem, TDistance>) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Could not read input file.", e);
+        }
+    }
+
+    /**
+     * Restores a {@link ShardedIndex} from the shard files written by {@link #saveShards(Path)}. The shards are read
+     * concurrently on the common fork join pool.
+     *
+     * @param directory directory holding the shard files
+     * @param loader restores a single shard, for instance {@code HnswIndex::load}
+     *
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+     * @return The restored index
+     * @throws IOException in case of an I/O exception
+     */
+    public static <TId, TVector, TItem extends Item<TId, TVector>, TDistance> ShardedIndex<TId, TVector, TItem, TDistance> loadShards(Path directory, ShardLoader<TId, TVector, TItem, TDistance> loader) throws IOException {
+        return loadShards(directory, loader, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Restores a {@link ShardedIndex} from the shard files written by {@link #saveShards(Path)}. The shards are read
+     * concurrently.
+     *
+     * @param directory directory holding the shard files
+     * @param loader restores a single shard, for instance {@code HnswIndex::load}
+     * @param executor executor to read the shards on and to search the shards on afterwards
+     *
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+     * @return The restored index
+     * @throws IOException in case of an I/O exception
+     */
+    public static <TId, TVector, TItem extends Item<TId, TVector>, TDistance> ShardedIndex<TId, TVector, TItem, TDistance> loadShards(Path directory, ShardLoader<TId, TVector, TItem, TDistance> loader, Executor executor) throws IOException {
+
+        Path manifestPath = directory.resolve(MANIFEST_FILE_NAME);
+
+        if (!Files.exists(manifestPath)) {
+            throw new FileNotFoundException("No shards found in " + directory + ".");
+        }
+
+        int numShards = readNumShards(manifestPath);
+
+        List<CompletableFuture<Index<TId, TVector, TItem, TDistance>>> futures = new ArrayList<>(numShards);
+
+        for (int i = 0; i < numShards; i++) {
+            Path shardPath = shardPath(directory, i);
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return loader.load(shardPath);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+
+        awaitAll(futures);
+
+        List<Index<TId, TVector, TItem, TDistance>> shards = new ArrayList<>(futures.size());
+        for (CompletableFuture<Index<TId, TVector, TItem, TDistance>> future : futures) {
+            shards.add(future.join());
+        }
+        return new ShardedIndex<>(shards, executor);
+    }
+
+    /**
+     * Restores a single shard of a {@link ShardedIndex}.
+     *
+     * @param <TId> Type of the external identifier of an item
+     * @param <TVector> Type of the vector to perform distance calculation on
+     * @param <TItem> Type of items stored in the index
+     * @param <TDistance> Type of distance between items (expect any numeric type: float, double, int, ..)
+     */
+    @FunctionalInterface
+    public interface ShardLoader<TId, TVector, TItem extends Item<TId, TVector>, TDistance> {
+
+        /**
+         * Restores the shard stored at path.
+         *
+         * @param path path to restore the shard from
+         * @return the restored shard
+         * @throws IOException in case of an I/O exception
+         */
+        Index<TId, TVector, TItem, TDistance> load(Path path) throws IOException;
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.jelmerk.knn.util;
+
+import java.util.Comparator;
+
+/**
+ * Keeps the k closest candidates seen so far, as pairs of slot and distance stored in parallel arrays so offering a
+ * candidate that is not among the k closest allocates nothing. The farthest candidate is kept on top of the heap.
+ *
+ * @param <TDistance> Type of distance between items
+ */
+public final class BoundedMaxHeap<TDistance> {
+
+    private final int capacity;
+    private final Comparator<TDistance> distanceComparator;
+
+    private final int[] slots;
+    private final Object[] distances;
+
+    private int size;
+
+    /**
+     * Constructs a new BoundedMaxHeap.
+     *
+     * @param capacity maximum number of candidates to keep
+     * @param distanceComparator used to compare distances
+     */
+    public BoundedMaxHeap(int capacity, Comparator<TDistance> distanceComparator) {
+        this.capacity = capacity;
+        this.distanceComparator = distanceComparator;
+        this.slots = new int[capacity];
+        this.distances = new Object[capacity];
+    }
+
+    /**
+     * Returns the maximum number of candidates kept by the heap.
+     *
+     * @return the maximum number of candidates kept by the heap
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of candidates in the heap.
+     *
+     * @return the number of candidates in the heap
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a candidate when the heap is not yet full or when it is closer than the farthest candidate in the heap,
+     * in which case the farthest candidate is evicted.
+     *
+     * @param slot the slot of the candidate
+     * @param distance the distance of the candidate to the query
+     */
+    public void offer(int slot, TDistance distance) {
+        if (size < capacity) {
+            slots[size] = slot;
+            distances[size] = distance;
+            siftUp(size++);
+        } else if (capacity > 0 && distanceComparator.compare(distance, distance(0)) < 0) {
+            slots[0] = slot;
+            distances[0] = distance;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Offers all candidates of another heap to this heap.
+     *
+     * @param other the heap to merge into this heap
+     */
+    public void merge(BoundedMaxHeap<TDistance> other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.slots[i], other.distance(i));
+        }
+    }
+
+    /**
+     * Removes all candidates from the heap, farthest first, and passes them to the consumer.
+     *
+     * @param consumer receives the candidates
+     */
+    public void drain(CandidateConsumer<TDistance> consumer) {
+        while (size > 0) {
+            int slot = slots[0];
+            TDistance distance = distance(0);
+
+            size--;
+            slots[0] = slots[size];
+            distances[0] = distances[size];
+            distances[size] = null;
+            siftDown(0);
+
+            consumer.accept(slot, distance);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private TDistance distance(int index) {
+        return (TDistance) distances[index];
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (distanceComparator.compare(distance(index), distance(parent)) <= 0) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) {
+                break;
+            }
+            int largest = left;
+            int right = left + 1;
+            if (right < size && distanceComparator.compare(distance(right), distance(left)) > 0) {
+                largest = right;
+            }
+            if (distanceComparator.compare(distance(largest), distance(index)) <= 0) {
+                break;
+            }
+            swap(index, largest);
+            index = largest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int slot = slots[i];
+        slots[i] = slots[j];
+        slots[j] = slot;
+
+        Object distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+
+    /**
+     * Receives the candidates drained from a heap.
+     *
+     * @param <TDistance> Type of distance between items
+     */
+    public interface CandidateConsumer<TDistance> {
+
+        /**
+         * Accepts a candidate.
+         *
+         * @param slot the slot of the candidate
+         * @param distance the distance of the candidate to the query
+         */
+        void accept(int slot, TDistance distance);
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.jelmerk.knn.util;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Thread safe bitset that updates its words with compare and set operations instead of taking a lock.
+ */
+public class ConcurrentBitSet implements BitSet, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final AtomicIntegerArray buffer;
+
+    /**
+     * Initializes a new instance of the {@link ConcurrentBitSet} class.
+     *
+     * @param count The number of items in the set.
+     */
+    public ConcurrentBitSet(int count) {
+        this.buffer = new AtomicIntegerArray((count >> 5) + 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(int id) {
+        int carrier = this.buffer.get(id >> 5);
+        return ((1 << (id & 31)) & carrier) != 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void add(int id) {
+        int mask = 1 << (id & 31);
+        int index = id >> 5;
+
+        int current;
+        do {
+            current = this.buffer.get(index);
+            if ((current & mask) != 0) {
+                return;
+            }
+        } while (!this.buffer.compareAndSet(index, current, current | mask));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove(int id) {
+        int mask = 1 << (id & 31);
+        int index = id >> 5;
+
+        int current;
+        do {
+            current = this.buffer.get(index);
+            if ((current & mask) == 0) {
+                return;
+            }
+        } while (!this.buffer.compareAndSet(index, current, current & ~mask));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < this.buffer.length(); i++) {
+            this.buffer.set(i, 0);
+        }
+    }
+}
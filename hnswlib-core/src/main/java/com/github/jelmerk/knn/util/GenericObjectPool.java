@@ -5,7 +5,8 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.function.Supplier;
 
 /**
- * Generic object pool.
+ * Generic object pool. Borrowing from the pool never blocks, when the pool is empty a new object is created instead.
+ * Objects created this way are kept when they are returned, so the pool grows with demand up to its maximum size.
  *
  * @param <T> type of object to pool
  */
@@ -13,6 +14,8 @@ public class GenericObjectPool<T> implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private final Supplier<T> supplier;
+
     private final ArrayBlockingQueue<T> items;
 
     /**
@@ -22,33 +25,47 @@ public class GenericObjectPool<T> implements Serializable {
      * @param maxPoolSize maximum items to have in the pool
      */
     public GenericObjectPool(Supplier<T> supplier, int maxPoolSize) {
+        this(supplier, maxPoolSize, maxPoolSize);
+    }
+
+    /**
+     * Constructs a new pool that starts out with fewer objects than it can hold.
+     *
+     * @param supplier used to create instances of the object to pool
+     * @param initialPoolSize number of items to create up front
+     * @param maxPoolSize maximum items to have in the pool
+     */
+    public GenericObjectPool(Supplier<T> supplier, int initialPoolSize, int maxPoolSize) {
+        if (initialPoolSize > maxPoolSize) {
+            throw new IllegalArgumentException("Initial pool size cannot exceed the maximum pool size.");
+        }
+
+        this.supplier = supplier;
         this.items = new ArrayBlockingQueue<>(maxPoolSize);
 
-        for (int i = 0; i < maxPoolSize; i++) {
+        for (int i = 0; i < initialPoolSize; i++) {
             items.add(supplier.get());
         }
     }
 
     /**
-     * Borrows an object from the pool.
+     * Borrows an object from the pool. When all objects are borrowed a new object is created.
      *
      * @return the borrowed object
      */
     public T borrowObject() {
-        try {
-            return items.take();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e); // TODO jk any more elegant way to do this ?
-        }
+        T item = items.poll();
+        return item == null ? supplier.get() : item;
     }
 
     /**
-     * Returns an instance to the pool. By contract, obj must have been obtained using {@link GenericObjectPool#borrowObject()}
+     * Returns an instance to the pool. By contract, obj must have been obtained using {@link GenericObjectPool#borrowObject()}.
+     * When the pool is already full the instance is discarded.
      *
      * @param item the item to return to the pool
      */
     public void returnObject(T item) {
-        items.add(item);
+        items.offer(item);
     }
 
 }
@@ -0,0 +1,60 @@
+package com.github.jelmerk.knn.util;
+
+import org.eclipse.collections.api.block.procedure.primitive.ObjectLongProcedure;
+
+import java.io.Serializable;
+
+/**
+ * Map from the identifier of an item to a long. Instances are created with
+ * {@link IdMaps#newIdLongMap(com.github.jelmerk.knn.IdType, int)}. Implementations are not thread safe.
+ *
+ * @param <TId> Type of the external identifier of an item
+ */
+public interface IdLongMap<TId> extends Serializable {
+
+    /**
+     * Returns the number of entries in the map.
+     *
+     * @return the number of entries in the map
+     */
+    int size();
+
+    /**
+     * Returns the value associated with an identifier.
+     *
+     * @param id the identifier
+     * @param ifAbsent value to return when the identifier is not in the map
+     * @return the value associated with the identifier or ifAbsent
+     */
+    long getIfAbsent(TId id, long ifAbsent);
+
+    /**
+     * Returns whether the map contains an identifier.
+     *
+     * @param id the identifier
+     * @return true if the map contains the identifier
+     */
+    boolean containsKey(TId id);
+
+    /**
+     * Associates a value with an identifier.
+     *
+     * @param id the identifier
+     * @param value the value
+     */
+    void put(TId id, long value);
+
+    /**
+     * Removes an identifier from the map.
+     *
+     * @param id the identifier
+     */
+    void remove(TId id);
+
+    /**
+     * Passes every entry in the map to a procedure.
+     *
+     * @param procedure the procedure
+     */
+    void forEachKeyValue(ObjectLongProcedure<TId> procedure);
+}
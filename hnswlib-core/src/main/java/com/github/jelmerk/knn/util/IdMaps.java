@@ -0,0 +1,340 @@
+package com.github.jelmerk.knn.util;
+
+import com.github.jelmerk.knn.IdType;
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.block.procedure.primitive.ObjectIntProcedure;
+import org.eclipse.collections.api.block.procedure.primitive.ObjectLongProcedure;
+import org.eclipse.collections.impl.map.mutable.primitive.IntIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntLongHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongLongHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.ObjectLongHashMap;
+
+/**
+ * Creates the maps that indices use to look up items by their identifier. Int and long identifiers are stored
+ * unboxed in maps keyed by primitives, which take roughly a quarter of the memory of a map keyed by objects.
+ */
+public final class IdMaps {
+
+    private IdMaps() {
+    }
+
+    /**
+     * Creates a new map from identifier to int.
+     *
+     * @param idType type of the identifiers that will be stored in the map
+     * @param initialCapacity number of entries the map can hold without growing
+     * @param <TId> Type of the external identifier of an item
+     * @return the new map
+     */
+    public static <TId> IdIntMap<TId> newIdIntMap(IdType idType, int initialCapacity) {
+        switch (idType) {
+            case INT:
+                return new IntKeyIntMap<>(initialCapacity);
+            case LONG:
+                return new LongKeyIntMap<>(initialCapacity);
+            default:
+                return new ObjectKeyIntMap<>(initialCapacity);
+        }
+    }
+
+    /**
+     * Creates a new map from identifier to long.
+     *
+     * @param idType type of the identifiers that will be stored in the map
+     * @param initialCapacity number of entries the map can hold without growing
+     * @param <TId> Type of the external identifier of an item
+     * @return the new map
+     */
+    public static <TId> IdLongMap<TId> newIdLongMap(IdType idType, int initialCapacity) {
+        switch (idType) {
+            case INT:
+                return new IntKeyLongMap<>(initialCapacity);
+            case LONG:
+                return new LongKeyLongMap<>(initialCapacity);
+            default:
+                return new ObjectKeyLongMap<>(initialCapacity);
+        }
+    }
+
+    private static final class ObjectKeyIntMap<TId> implements IdIntMap<TId> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ObjectIntHashMap<TId> map;
+
+        ObjectKeyIntMap(int initialCapacity) {
+            this.map = new ObjectIntHashMap<>(initialCapacity);
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public int getIfAbsent(TId id, int ifAbsent) {
+            return map.getIfAbsent(id, ifAbsent);
+        }
+
+        @Override
+        public boolean containsKey(TId id) {
+            return map.containsKey(id);
+        }
+
+        @Override
+        public void put(TId id, int value) {
+            map.put(id, value);
+        }
+
+        @Override
+        public void remove(TId id) {
+            map.remove(id);
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public void forEachValue(IntProcedure procedure) {
+            map.forEachValue(procedure);
+        }
+
+        @Override
+        public void forEachKeyValue(ObjectIntProcedure<TId> procedure) {
+            map.forEachKeyValue(procedure);
+        }
+    }
+
+    private static final class IntKeyIntMap<TId> implements IdIntMap<TId> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IntIntHashMap map;
+
+        IntKeyIntMap(int initialCapacity) {
+            this.map = new IntIntHashMap(initialCapacity);
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public int getIfAbsent(TId id, int ifAbsent) {
+            return map.getIfAbsent((Integer) id, ifAbsent);
+        }
+
+        @Override
+        public boolean containsKey(TId id) {
+            return map.containsKey((Integer) id);
+        }
+
+        @Override
+        public void put(TId id, int value) {
+            map.put((Integer) id, value);
+        }
+
+        @Override
+        public void remove(TId id) {
+            map.remove((Integer) id);
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public void forEachValue(IntProcedure procedure) {
+            map.forEachValue(procedure);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachKeyValue(ObjectIntProcedure<TId> procedure) {
+            map.forEachKeyValue((id, value) -> procedure.value((TId) Integer.valueOf(id), value));
+        }
+    }
+
+    private static final class LongKeyIntMap<TId> implements IdIntMap<TId> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LongIntHashMap map;
+
+        LongKeyIntMap(int initialCapacity) {
+            this.map = new LongIntHashMap(initialCapacity);
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public int getIfAbsent(TId id, int ifAbsent) {
+            return map.getIfAbsent((Long) id, ifAbsent);
+        }
+
+        @Override
+        public boolean containsKey(TId id) {
+            return map.containsKey((Long) id);
+        }
+
+        @Override
+        public void put(TId id, int value) {
+            map.put((Long) id, value);
+        }
+
+        @Override
+        public void remove(TId id) {
+            map.remove((Long) id);
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public void forEachValue(IntProcedure procedure) {
+            map.forEachValue(procedure);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachKeyValue(ObjectIntProcedure<TId> procedure) {
+            map.forEachKeyValue((id, value) -> procedure.value((TId) Long.valueOf(id), value));
+        }
+    }
+
+    private static final class ObjectKeyLongMap<TId> implements IdLongMap<TId> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ObjectLongHashMap<TId> map;
+
+        ObjectKeyLongMap(int initialCapacity) {
+            this.map = new ObjectLongHashMap<>(initialCapacity);
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public long getIfAbsent(TId id, long ifAbsent) {
+            return map.getIfAbsent(id, ifAbsent);
+        }
+
+        @Override
+        public boolean containsKey(TId id) {
+            return map.containsKey(id);
+        }
+
+        @Override
+        public void put(TId id, long value) {
+            map.put(id, value);
+        }
+
+        @Override
+        public void remove(TId id) {
+            map.remove(id);
+        }
+
+        @Override
+        public void forEachKeyValue(ObjectLongProcedure<TId> procedure) {
+            map.forEachKeyValue(procedure);
+        }
+    }
+
+    private static final class IntKeyLongMap<TId> implements IdLongMap<TId> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IntLongHashMap map;
+
+        IntKeyLongMap(int initialCapacity) {
+            this.map = new IntLongHashMap(initialCapacity);
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public long getIfAbsent(TId id, long ifAbsent) {
+            return map.getIfAbsent((Integer) id, ifAbsent);
+        }
+
+        @Override
+        public boolean containsKey(TId id) {
+            return map.containsKey((Integer) id);
+        }
+
+        @Override
+        public void put(TId id, long value) {
+            map.put((Integer) id, value);
+        }
+
+        @Override
+        public void remove(TId id) {
+            map.remove((Integer) id);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachKeyValue(ObjectLongProcedure<TId> procedure) {
+            map.forEachKeyValue((id, value) -> procedure.value((TId) Integer.valueOf(id), value));
+        }
+    }
+
+    private static final class LongKeyLongMap<TId> implements IdLongMap<TId> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LongLongHashMap map;
+
+        LongKeyLongMap(int initialCapacity) {
+            this.map = new LongLongHashMap(initialCapacity);
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public long getIfAbsent(TId id, long ifAbsent) {
+            return map.getIfAbsent((Long) id, ifAbsent);
+        }
+
+        @Override
+        public boolean containsKey(TId id) {
+            return map.containsKey((Long) id);
+        }
+
+        @Override
+        public void put(TId id, long value) {
+            map.put((Long) id, value);
+        }
+
+        @Override
+        public void remove(TId id) {
+            map.remove((Long) id);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachKeyValue(ObjectLongProcedure<TId> procedure) {
+            map.forEachKeyValue((id, value) -> procedure.value((TId) Long.valueOf(id), value));
+        }
+    }
+}
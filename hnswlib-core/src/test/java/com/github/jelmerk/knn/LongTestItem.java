@@ -0,0 +1,51 @@
+package com.github.jelmerk.knn;
+
+import java.util.Arrays;
+
+public class LongTestItem implements Item<Long, float[]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Long id;
+    private final float[] vector;
+    private final long version;
+
+    public LongTestItem(long id, float[] vector) {
+        this(id, vector, 0);
+    }
+
+    public LongTestItem(long id, float[] vector, long version) {
+        this.id = id;
+        this.vector = vector;
+        this.version = version;
+    }
+
+    @Override
+    public Long id() {
+        return id;
+    }
+
+    @Override
+    public float[] vector() {
+        return vector;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public int dimensions() {
+        return vector.length;
+    }
+
+    @Override
+    public String toString() {
+        return "LongTestItem{" +
+                "id=" + id +
+                ", vector=" + Arrays.toString(vector) +
+                ", version=" + version +
+                '}';
+    }
+}
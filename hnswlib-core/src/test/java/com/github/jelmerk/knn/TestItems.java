@@ -0,0 +1,78 @@
+package com.github.jelmerk.knn;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test data shared by the index tests.
+ */
+public final class TestItems {
+
+    private TestItems() {
+    }
+
+    /**
+     * Creates items with random vectors. The random generator is seeded so every run sees the same items.
+     *
+     * @param count number of items to create
+     * @param dimensions dimensionality of the vectors
+     * @return the items, with ids 0 to count - 1
+     */
+    public static List<TestItem> randomItems(int count, int dimensions) {
+        return randomItems(new Random(42), count, dimensions);
+    }
+
+    /**
+     * Creates items with random vectors drawn from the passed in random generator.
+     *
+     * @param random the random generator to draw from
+     * @param count number of items to create
+     * @param dimensions dimensionality of the vectors
+     * @return the items, with ids 0 to count - 1
+     */
+    public static List<TestItem> randomItems(Random random, int count, int dimensions) {
+        List<TestItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new TestItem(String.valueOf(i), randomVector(random, dimensions)));
+        }
+        return items;
+    }
+
+    public static float[] randomVector(Random random, int dimensions) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = random.nextFloat();
+        }
+        return vector;
+    }
+
+    /**
+     * Returns the ids of the k items closest to a vector by euclidean distance, found by comparing every item.
+     *
+     * @param items the items to search
+     * @param vector the vector to search for
+     * @param k number of ids to return
+     * @return ids of the closest items, closest first
+     */
+    public static List<String> exactIds(List<TestItem> items, float[] vector, int k) {
+        List<TestItem> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparing(
+                item -> DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE.distance(item.vector(), vector)));
+
+        List<String> ids = new ArrayList<>(k);
+        for (TestItem item : sorted.subList(0, k)) {
+            ids.add(item.id());
+        }
+        return ids;
+    }
+
+    public static List<String> resultIds(List<SearchResult<TestItem, Float>> results) {
+        List<String> ids = new ArrayList<>(results.size());
+        for (SearchResult<TestItem, Float> result : results) {
+            ids.add(result.item().id());
+        }
+        return ids;
+    }
+}
@@ -6,10 +6,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 
+import static com.github.jelmerk.knn.TestItems.*;
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -113,6 +115,128 @@ class BruteForceIndexTest {
         )));
     }
 
+    @Test
+    void removeKeepsOtherItemsSearchable() throws InterruptedException {
+        index.addAll(Arrays.asList(item1, item2, item3));
+
+        index.remove(item1.id(), item1.version());
+
+        assertThat(index.get(item3.id()), is(Optional.of(item3)));
+        assertThat(index.items().size(), is(2));
+        assertThat(index.items(), hasItems(item2, item3));
+
+        List<SearchResult<TestItem, Float>> nearest = index.findNearest(item1.vector(), 10);
+
+        assertThat(nearest, is(Arrays.asList(
+                new SearchResult<>(item3, 0.06521261f, Comparator.naturalOrder()),
+                new SearchResult<>(item2, 0.11621308f, Comparator.naturalOrder())
+        )));
+    }
+
+    @Test
+    void findNearestInLargeIndex() throws InterruptedException {
+        BruteForceIndex<String, float[], TestItem, Float> index = euclideanIndex();
+
+        Random random = new Random(42);
+
+        List<TestItem> items = randomItems(random, 20000, 8);
+        index.addAll(items);
+
+        for (int i = 0; i < 5; i++) {
+            float[] query = randomVector(random, 8);
+            assertThat(resultIds(index.findNearest(query, 10)), is(exactIds(items, query, 10)));
+        }
+    }
+
+    @Test
+    void findNearestBatch() throws InterruptedException {
+        BruteForceIndex<String, float[], TestItem, Float> index = euclideanIndex();
+
+        Random random = new Random(42);
+
+        List<TestItem> items = randomItems(random, 2000, 8);
+        index.addAll(items);
+
+        List<float[]> queries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            queries.add(randomVector(random, 8));
+        }
+
+        List<List<SearchResult<TestItem, Float>>> nearest = index.findNearestBatch(queries, 10, 4);
+
+        assertThat(nearest.size(), is(queries.size()));
+        for (int i = 0; i < queries.size(); i++) {
+            assertThat(resultIds(nearest.get(i)), is(exactIds(items, queries.get(i), 10)));
+        }
+    }
+
+    @Test
+    void findNearestBatchOnPassedInPool() throws InterruptedException {
+        BruteForceIndex<String, float[], TestItem, Float> index = euclideanIndex();
+
+        Random random = new Random(42);
+
+        List<TestItem> items = randomItems(random, 2000, 8);
+        index.addAll(items);
+
+        List<float[]> queries = Arrays.asList(randomVector(random, 8), randomVector(random, 8));
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (int run = 0; run < 2; run++) {
+                List<List<SearchResult<TestItem, Float>>> nearest = index.findNearestBatch(queries, 10, pool);
+
+                for (int i = 0; i < queries.size(); i++) {
+                    assertThat(resultIds(nearest.get(i)), is(exactIds(items, queries.get(i), 10)));
+                }
+            }
+            assertThat(pool.isShutdown(), is(false));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void findNearestBatchWithMoreThreadsThanQueries() throws InterruptedException {
+        index.addAll(Arrays.asList(item1, item2, item3));
+
+        List<List<SearchResult<TestItem, Float>>> nearest =
+                index.findNearestBatch(Arrays.asList(item1.vector(), item3.vector()), 1, 4);
+
+        assertThat(nearest, is(Arrays.asList(
+                Collections.singletonList(new SearchResult<>(item1, 0f, Comparator.naturalOrder())),
+                Collections.singletonList(new SearchResult<>(item3, 0f, Comparator.naturalOrder()))
+        )));
+    }
+
+    @Test
+    void longIds() throws IOException {
+        BruteForceIndex<Long, float[], LongTestItem, Float> longIndex = BruteForceIndex
+                .newBuilder(dimensions, DistanceFunctions.FLOAT_COSINE_DISTANCE)
+                .withIdType(IdType.LONG)
+                .build();
+
+        LongTestItem first = new LongTestItem(1L, item1.vector(), 1);
+        LongTestItem second = new LongTestItem(Long.MAX_VALUE, item2.vector(), 1);
+
+        longIndex.add(first);
+        longIndex.add(second);
+        longIndex.remove(1L, 2);
+
+        assertThat(longIndex.get(Long.MAX_VALUE), is(Optional.of(second)));
+        assertThat(longIndex.add(first), is(false));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        longIndex.save(out);
+
+        BruteForceIndex<Long, float[], LongTestItem, Float> loadedIndex =
+                BruteForceIndex.load(new ByteArrayInputStream(out.toByteArray()));
+
+        assertThat(loadedIndex.size(), is(1));
+        assertThat(loadedIndex.get(Long.MAX_VALUE).map(LongTestItem::id), is(Optional.of(Long.MAX_VALUE)));
+        assertThat(loadedIndex.add(first), is(false));
+    }
+
     @Test
     void findNeighbors() throws InterruptedException {
         index.addAll(Arrays.asList(item1, item2, item3));
@@ -150,8 +274,13 @@ class BruteForceIndexTest {
                 BruteForceIndex.load(new ByteArrayInputStream(in.toByteArray()));
 
         assertThat(loadedIndex.size(), is(1));
+        assertThat(loadedIndex.get(item1.id()).map(TestItem::id), is(Optional.of(item1.id())));
+        assertThat(loadedIndex.findNearest(item1.vector(), 1).get(0).item().id(), is(item1.id()));
     }
 
-
+    private BruteForceIndex<String, float[], TestItem, Float> euclideanIndex() {
+        return BruteForceIndex
+                .newBuilder(8, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE)
+                .build();
+    }
 }
-
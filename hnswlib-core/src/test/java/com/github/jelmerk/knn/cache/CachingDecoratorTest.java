@@ -0,0 +1,148 @@
+package com.github.jelmerk.knn.cache;
+
+import com.github.jelmerk.knn.*;
+import com.github.jelmerk.knn.bruteforce.BruteForceIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CachingDecoratorTest {
+
+    private CachingDecorator<String, float[], TestItem, Float, BruteForceIndex<String, float[], TestItem, Float>> decorator;
+
+    private TestItem item1 = new TestItem("1", new float[] { 0.0110f, 0.2341f });
+    private TestItem item2 = new TestItem("2", new float[] { 0.2300f, 0.3891f });
+    private TestItem item3 = new TestItem("3", new float[] { 0.4300f, 0.9891f });
+
+    @BeforeEach
+    void setUp() {
+        BruteForceIndex<String, float[], TestItem, Float> index = BruteForceIndex
+                .newBuilder(2, DistanceFunctions.FLOAT_COSINE_DISTANCE)
+                .build();
+
+        decorator = new CachingDecorator<>(index, 100);
+        decorator.add(item1);
+        decorator.add(item2);
+    }
+
+    @Test
+    void cachesResultsForEqualVectors() {
+        List<SearchResult<TestItem, Float>> results = decorator.findNearest(new float[] { 0.0110f, 0.2341f }, 1);
+
+        assertThat(decorator.findNearest(new float[] { 0.0110f, 0.2341f }, 1), is(sameInstance(results)));
+        assertThat(decorator.hitCount(), is(1L));
+        assertThat(decorator.missCount(), is(1L));
+    }
+
+    @Test
+    void differentKIsNotCached() {
+        decorator.findNearest(item1.vector(), 1);
+        assertThat(decorator.findNearest(item1.vector(), 2).size(), is(2));
+        assertThat(decorator.hitCount(), is(0L));
+    }
+
+    @Test
+    void reusedVectorArrayDoesNotCorruptCache() {
+        float[] vector = new float[] { 0.0110f, 0.2341f };
+        decorator.findNearest(vector, 1);
+
+        vector[0] = 0.4300f;
+        vector[1] = 0.9891f;
+
+        assertThat(decorator.findNearest(vector, 1).get(0).item(), is(item2));
+        assertThat(decorator.hitCount(), is(0L));
+    }
+
+    @Test
+    void addInvalidatesCachedResults() {
+        assertThat(decorator.findNearest(item3.vector(), 1).get(0).item(), is(item2));
+
+        decorator.add(item3);
+
+        assertThat(decorator.findNearest(item3.vector(), 1).get(0).item(), is(item3));
+        assertThat(decorator.hitCount(), is(0L));
+    }
+
+    @Test
+    void removeInvalidatesCachedResults() {
+        assertThat(decorator.findNearest(item1.vector(), 1).get(0).item(), is(item1));
+
+        decorator.remove(item1.id(), item1.version());
+
+        assertThat(decorator.findNearest(item1.vector(), 1).get(0).item(), is(item2));
+    }
+
+    @Test
+    void invalidateDiscardsCachedResults() {
+        decorator.findNearest(item1.vector(), 1);
+        decorator.invalidate();
+
+        assertThat(decorator.cacheSize(), is(0));
+        decorator.findNearest(item1.vector(), 1);
+        assertThat(decorator.missCount(), is(2L));
+    }
+
+    @Test
+    void evictsWhenFull() {
+        CachingDecorator<String, float[], TestItem, Float, BruteForceIndex<String, float[], TestItem, Float>> small =
+                new CachingDecorator<>(decorator.getIndex(), 1);
+
+        for (int i = 0; i < 100; i++) {
+            small.findNearest(new float[] { i, 1f }, 1);
+        }
+
+        assertThat(small.cacheSize(), is(1));
+        assertThat(small.evictionCount(), is(99L));
+    }
+
+    @Test
+    void neverHoldsMoreThanMaxSize() {
+        for (int maxSize : new int[] { 2, 5, 17, 100 }) {
+            CachingDecorator<String, float[], TestItem, Float, BruteForceIndex<String, float[], TestItem, Float>> cache =
+                    new CachingDecorator<>(decorator.getIndex(), maxSize);
+
+            for (int i = 0; i < 1000; i++) {
+                cache.findNearest(new float[] { i, 1f }, 1);
+            }
+
+            assertThat(cache.cacheSize() <= maxSize, is(true));
+            assertThat(cache.evictionCount(), is(1000L - cache.cacheSize()));
+        }
+    }
+
+    @Test
+    void maxSizeMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new CachingDecorator<>(decorator.getIndex(), 0));
+    }
+
+    @Test
+    void survivesSerialization() throws IOException, ClassNotFoundException {
+        decorator.findNearest(item1.vector(), 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(decorator);
+        }
+
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            @SuppressWarnings("unchecked")
+            CachingDecorator<String, float[], TestItem, Float, BruteForceIndex<String, float[], TestItem, Float>> copy =
+                    (CachingDecorator<String, float[], TestItem, Float, BruteForceIndex<String, float[], TestItem, Float>>) ois.readObject();
+
+            assertThat(copy.size(), is(2));
+            assertThat(copy.cacheSize(), is(0));
+            assertThat(copy.findNearest(item1.vector(), 1).get(0).item().id(), is(item1.id()));
+        }
+    }
+}
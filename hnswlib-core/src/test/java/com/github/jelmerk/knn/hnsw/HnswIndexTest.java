@@ -6,12 +6,19 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 
+import static com.github.jelmerk.knn.TestItems.*;
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class HnswIndexTest {
 
@@ -189,6 +196,57 @@ class HnswIndexTest {
         )));
     }
 
+    @Test
+    void findNearestCollectsSearchStats() throws InterruptedException {
+        List<TestItem> items = randomItems(maxItemCount, dimensions);
+        index.addAll(items);
+
+        SearchStats<Float> stats = new SearchStats<>();
+
+        List<SearchResult<TestItem, Float>> results = index.findNearest(item1.vector(), 10, stats);
+
+        assertThat(resultIds(results), is(resultIds(index.findNearest(item1.vector(), 10))));
+
+        assertThat(stats.getDistanceComputations(0) > 0, is(true));
+        assertThat(stats.getDistanceComputations() >= stats.getDistanceComputations(0), is(true));
+        assertThat(stats.getVisitedNodes() >= ef, is(true));
+        assertThat((long) stats.getVisitedNodes() <= stats.getDistanceComputations(0), is(true));
+        assertThat(stats.getExpandedNodes() > 0, is(true));
+        assertThat(stats.getHeapPushes() > 0, is(true));
+        assertThat(stats.getLockWaitNanos() >= 0, is(true));
+        assertThat(stats.getLowerBound() >= results.get(results.size() - 1).distance(), is(true));
+
+        int visitedNodes = stats.getVisitedNodes();
+        index.findNearest(item1.vector(), 10, stats);
+        assertThat(stats.getVisitedNodes(), is(visitedNodes));
+    }
+
+    @Test
+    void findNearestAsync() throws Exception {
+        index.add(item1);
+        index.add(item2);
+        index.add(item3);
+
+        List<SearchResult<TestItem, Float>> results = index.findNearestAsync(item3.vector(), 10).get();
+
+        assertThat(results, is(index.findNearest(item3.vector(), 10)));
+    }
+
+    @Test
+    void addAllWithMoreThreadsThanProcessors() throws InterruptedException {
+        List<TestItem> items = randomItems(maxItemCount, dimensions);
+
+        int numThreads = Runtime.getRuntime().availableProcessors() + 3;
+
+        index.addAll(items, numThreads, NullProgressListener.INSTANCE, Index.DEFAULT_PROGRESS_UPDATE_INTERVAL);
+
+        assertThat(index.size(), is(maxItemCount));
+
+        for (TestItem item : items) {
+            assertThat(resultIds(index.findNearest(item.vector(), 10)), hasItem(item.id()));
+        }
+    }
+
     @Test
     void addAllCallsProgressListener() throws InterruptedException {
         List<ProgressUpdate> updates = new ArrayList<>();
@@ -202,6 +260,245 @@ class HnswIndexTest {
         )));
     }
 
+    @Test
+    void addAllFromIterator() throws InterruptedException {
+        List<TestItem> items = new ArrayList<>();
+        for (int i = 0; i < maxItemCount; i++) {
+            items.add(new TestItem(String.valueOf(i), new float[] { i, i + 1 }));
+        }
+
+        List<ProgressUpdate> updates = new ArrayList<>();
+
+        index.addAll(items.iterator(), 1, (workDone, max) -> updates.add(new ProgressUpdate(workDone, max)), 40);
+
+        assertThat(index.size(), is(maxItemCount));
+        assertThat(updates, is(Arrays.asList(
+                new ProgressUpdate(40, -1),
+                new ProgressUpdate(80, -1),
+                new ProgressUpdate(100, 100)  // emitted once the iterator is exhausted
+        )));
+    }
+
+    @Test
+    void addAllFromStream() throws InterruptedException {
+        AtomicBoolean closed = new AtomicBoolean();
+
+        index.addAll(Arrays.asList(item1, item2, item3).stream().onClose(() -> closed.set(true)));
+
+        assertThat(index.size(), is(3));
+        assertThat(closed.get(), is(true));
+    }
+
+    @Test
+    void addAllFromStreamClosesStreamOnFailure() {
+        AtomicBoolean closed = new AtomicBoolean();
+
+        Stream<TestItem> items = Stream.of(item1, new TestItem("4", new float[] { 1f, 2f, 3f }))
+                .onClose(() -> closed.set(true));
+
+        assertThrows(IllegalArgumentException.class, () -> index.addAll(items));
+        assertThat(closed.get(), is(true));
+    }
+
+    @Test
+    void addAllFromIteratorRethrowsFailure() {
+        Iterator<TestItem> items = Arrays.asList(item1, new TestItem("4", new float[] { 1f, 2f, 3f })).iterator();
+
+        assertThrows(IllegalArgumentException.class, () -> index.addAll(items));
+    }
+
+    @Test
+    void bulkBuild() {
+        List<TestItem> items = randomItems(maxItemCount, dimensions);
+
+        index.bulkBuild(items);
+
+        assertThat(index.size(), is(maxItemCount));
+
+        for (TestItem item : items) {
+            assertThat(index.findNearest(item.vector(), 1).get(0).distance(), is(0f));
+        }
+    }
+
+    @Test
+    void bulkBuildAddsExistingItemsThroughAdd() {
+        TestItem newerItem = new TestItem(item1.id(), new float[] { 0.5f, 0.5f }, item1.version() + 1);
+
+        index.add(item1);
+
+        List<ProgressUpdate> updates = new ArrayList<>();
+
+        index.bulkBuild(Arrays.asList(newerItem, item2, item3), 1,
+                (workDone, max) -> updates.add(new ProgressUpdate(workDone, max)), 2);
+
+        assertThat(index.size(), is(3));
+        assertThat(index.get(item1.id()), is(Optional.of(newerItem)));
+        assertThat(updates, is(Arrays.asList(
+                new ProgressUpdate(2, 3),
+                new ProgressUpdate(3, 3)
+        )));
+    }
+
+    @Test
+    void bulkBuildLeavesOutItemsAfterFailure() {
+        HnswIndex<String, float[], TestItem, Float> failingIndex = HnswIndex
+                .newBuilder(dimensions, new FailingDistanceFunction(), maxItemCount)
+                .withRemoveEnabled()
+                .build();
+
+        List<TestItem> items = randomItems(maxItemCount - 1, dimensions);
+        TestItem failingItem = new TestItem("failing", new float[] { -1f, -1f });
+
+        List<TestItem> itemsToBuild = new ArrayList<>(items);
+        itemsToBuild.add(items.size() / 2, failingItem);
+
+        assertThrows(IllegalStateException.class, () -> failingIndex.bulkBuild(itemsToBuild, 1,
+                NullProgressListener.INSTANCE, Index.DEFAULT_PROGRESS_UPDATE_INTERVAL));
+
+        assertThat(failingIndex.contains(failingItem.id()), is(false));
+        assertThat(failingIndex.size() < items.size(), is(true));
+
+        for (TestItem item : failingIndex.items()) {
+            assertThat(failingIndex.findNearest(item.vector(), 1).get(0).item(), is(item));
+        }
+
+        for (TestItem item : items) {
+            if (!failingIndex.contains(item.id())) {
+                failingIndex.add(item);
+            }
+        }
+
+        assertThat(failingIndex.size(), is(items.size()));
+
+        for (TestItem item : items) {
+            assertThat(failingIndex.findNearest(item.vector(), 1).get(0).item(), is(item));
+        }
+    }
+
+    @Test
+    void bulkBuildBeyondMaxItemCountFails() {
+        List<TestItem> items = new ArrayList<>();
+        for (int i = 0; i < maxItemCount + 1; i++) {
+            items.add(new TestItem(String.valueOf(i), new float[] { i, i + 1 }));
+        }
+
+        assertThrows(SizeLimitExceededException.class, () -> index.bulkBuild(items));
+    }
+
+    @Test
+    void mergeIndexes() throws IOException {
+        Random random = new Random(42);
+
+        HnswIndex<String, float[], TestItem, Float> other = HnswIndex
+                .newBuilder(dimensions, distanceFunction, maxItemCount)
+                .withCustomSerializers(itemIdSerializer, itemSerializer)
+                .withM(m)
+                .withEfConstruction(efConstruction)
+                .withEf(ef)
+                .withRemoveEnabled()
+                .build();
+
+        List<TestItem> items = randomItems(random, maxItemCount, dimensions);
+
+        for (int i = 0; i < items.size(); i++) {
+            TestItem item = items.get(i);
+            if (i % 2 == 0) {
+                index.add(item);
+            } else {
+                other.add(item);
+            }
+        }
+
+        TestItem newerItem = new TestItem("0", randomVector(random, dimensions), 1);
+        other.add(newerItem);
+
+        HnswIndex<String, float[], TestItem, Float> merged = HnswIndex.merge(Arrays.asList(index, other));
+
+        assertThat(merged.size(), is(maxItemCount));
+        assertThat(merged.getMaxItemCount(), is(maxItemCount * 2));
+        assertThat(merged.get("0"), is(Optional.of(newerItem)));
+
+        for (TestItem item : merged.items()) {
+            assertThat(merged.findNearest(item.vector(), 1).get(0).distance(), is(0f));
+        }
+
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        merged.save(in);
+
+        HnswIndex<String, float[], TestItem, Float> loadedIndex =
+                HnswIndex.load(new ByteArrayInputStream(in.toByteArray()));
+
+        assertThat(loadedIndex.size(), is(maxItemCount));
+    }
+
+    @Test
+    void mergeIndexesWithDifferentDimensionsFails() {
+        HnswIndex<String, float[], TestItem, Float> other = HnswIndex
+                .newBuilder(dimensions + 1, distanceFunction, maxItemCount)
+                .build();
+
+        assertThrows(IllegalArgumentException.class, () -> HnswIndex.merge(Arrays.asList(index, other)));
+    }
+
+    @Test
+    void mergeIndexesWithDifferentSettingsFails() {
+        List<HnswIndex<String, float[], TestItem, Float>> others = Arrays.asList(
+                HnswIndex.newBuilder(dimensions, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE, maxItemCount)
+                        .withM(m).withRemoveEnabled().build(),
+                HnswIndex.newBuilder(dimensions, distanceFunction, Comparator.<Float>reverseOrder(), maxItemCount)
+                        .withM(m).withRemoveEnabled().build(),
+                HnswIndex.newBuilder(dimensions, distanceFunction, maxItemCount)
+                        .withM(m).build(),
+                HnswIndex.newBuilder(dimensions, distanceFunction, maxItemCount)
+                        .withM(m).withRemoveEnabled().withIdType(IdType.LONG).build());
+
+        for (HnswIndex<String, float[], TestItem, Float> other : others) {
+            assertThrows(IllegalArgumentException.class, () -> HnswIndex.merge(Arrays.asList(index, other)));
+        }
+    }
+
+    @Test
+    void buildWithNNDescent() {
+        List<TestItem> items = randomItems(maxItemCount, dimensions);
+
+        index.buildWithNNDescent(items);
+
+        assertThat(index.size(), is(maxItemCount));
+
+        for (TestItem item : items) {
+            assertThat(index.findNearest(item.vector(), 1).get(0).distance(), is(0f));
+        }
+    }
+
+    @Test
+    void buildFromKnnGraph() {
+        index.buildFromKnnGraph(Arrays.asList(item1, item2, item3), new int[][] { { 2, 1 }, { 0, 2 }, { 0, 1 } });
+
+        List<SearchResult<TestItem, Float>> nearest = index.findNearest(item1.vector(), 10);
+
+        assertThat(nearest, is(Arrays.asList(
+                SearchResult.create(item1, 0f),
+                SearchResult.create(item3, 0.06521261f),
+                SearchResult.create(item2, 0.11621308f)
+        )));
+    }
+
+    @Test
+    void buildFromKnnGraphOnNonEmptyIndexFails() {
+        index.add(item1);
+
+        assertThrows(IllegalStateException.class, () ->
+                index.buildFromKnnGraph(Arrays.asList(item2, item3), new int[][] { { 1 }, { 0 } }));
+    }
+
+    @Test
+    void buildFromKnnGraphWithUnknownNeighbourFails() {
+        assertThrows(IllegalArgumentException.class, () ->
+                index.buildFromKnnGraph(Arrays.asList(item2, item3), new int[][] { { 1 }, { 2 } }));
+
+        assertThat(index.size(), is(0));
+    }
+
     @Test
     void saveAndLoadIndex() throws IOException {
         ByteArrayOutputStream in = new ByteArrayOutputStream();
@@ -215,4 +512,507 @@ class HnswIndexTest {
 
         assertThat(loadedIndex.size(), is(1));
     }
+
+    @Test
+    void saveAndLoadIndexPreservesGraph() throws IOException {
+        Random random = new Random(42);
+
+        randomItems(random, maxItemCount, dimensions).forEach(index::add);
+
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        index.save(in);
+
+        HnswIndex<String, float[], TestItem, Float> loadedIndex =
+                HnswIndex.load(new ByteArrayInputStream(in.toByteArray()));
+
+        for (int i = 0; i < 10; i++) {
+            float[] vector = randomVector(random, dimensions);
+            assertThat(resultIds(loadedIndex.findNearest(vector, 10)), is(resultIds(index.findNearest(vector, 10))));
+        }
+    }
+
+    @Test
+    void insertReusesNeighbourDistances() throws IOException {
+        HnswIndex<String, float[], TestItem, Float> countingIndex = HnswIndex
+                .newBuilder(dimensions, new CountingDistanceFunction(), 1000)
+                .withM(4)
+                .build();
+
+        List<TestItem> items = randomItems(700, dimensions);
+
+        items.subList(0, 500).forEach(countingIndex::add);
+
+        List<TestItem> extraItems = items.subList(500, items.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        countingIndex.save(out);
+
+        // distances are not persisted, so the loaded index has to compute the distances to existing neighbours again
+        HnswIndex<String, float[], TestItem, Float> loadedIndex =
+                HnswIndex.load(new ByteArrayInputStream(out.toByteArray()));
+
+        CountingDistanceFunction.COMPUTATIONS.set(0);
+        extraItems.forEach(countingIndex::add);
+        int withKnownDistances = CountingDistanceFunction.COMPUTATIONS.get();
+
+        CountingDistanceFunction.COMPUTATIONS.set(0);
+        extraItems.forEach(loadedIndex::add);
+        int withoutKnownDistances = CountingDistanceFunction.COMPUTATIONS.get();
+
+        assertThat(withKnownDistances < withoutKnownDistances, is(true));
+    }
+
+    @Test
+    void findNearestWithMultipleEntryPoints()throws IOException, InterruptedException {
+        HnswIndex<String, float[], TestItem, Float> multiEntryPointIndex = HnswIndex
+                .newBuilder(dimensions, distanceFunction, maxItemCount)
+                .withCustomSerializers(itemIdSerializer, itemSerializer)
+                .withM(m)
+                .withNumEntryPoints(4)
+                .build();
+
+        Random random = new Random(42);
+
+        List<TestItem> items = randomItems(random, maxItemCount, dimensions);
+        multiEntryPointIndex.addAll(items);
+
+        for (TestItem item : items) {
+            assertThat(multiEntryPointIndex.findNearest(item.vector(), 1).get(0).distance(), is(0f));
+        }
+
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        multiEntryPointIndex.save(in);
+
+        HnswIndex<String, float[], TestItem, Float> loadedIndex =
+                HnswIndex.load(new ByteArrayInputStream(in.toByteArray()));
+
+        assertThat(loadedIndex.getNumEntryPoints(), is(4));
+
+        for (int i = 0; i < 10; i++) {
+            float[] vector = randomVector(random, dimensions);
+            assertThat(resultIds(loadedIndex.findNearest(vector, 10)),
+                    is(resultIds(multiEntryPointIndex.findNearest(vector, 10))));
+        }
+    }
+
+    @Test
+    void freezeIndex() throws IOException {
+        Random random = new Random(42);
+
+        randomItems(random, maxItemCount, dimensions).forEach(index::add);
+        for (int i = 0; i < maxItemCount; i += 10) {
+            index.remove(String.valueOf(i), 0);
+        }
+        index.compact();
+        index.remove("1", 0);
+
+        FrozenHnswIndex<String, float[], TestItem, Float> frozenIndex = index.freeze();
+
+        assertThat(frozenIndex.size(), is(index.size()));
+        assertThat(frozenIndex.contains("1"), is(false));
+        assertThat(frozenIndex.get("2"), is(index.get("2")));
+
+        // more searches than there are visited marks before they wrap around
+        for (int i = 0; i < 300; i++) {
+            float[] vector = randomVector(random, dimensions);
+            assertThat(resultIds(frozenIndex.findNearest(vector, 10)), is(resultIds(index.findNearest(vector, 10))));
+        }
+
+        assertThat(resultIds(frozenIndex.findNeighbors("2", 5)), is(resultIds(index.findNeighbors("2", 5))));
+
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        frozenIndex.save(in);
+
+        FrozenHnswIndex<String, float[], TestItem, Float> loadedIndex =
+                FrozenHnswIndex.load(new ByteArrayInputStream(in.toByteArray()));
+
+        float[] vector = randomVector(random, dimensions);
+        assertThat(resultIds(loadedIndex.findNearest(vector, 10)), is(resultIds(index.findNearest(vector, 10))));
+    }
+
+    @Test
+    void frozenIndexCannotBeChanged() {
+        index.add(item1);
+
+        FrozenHnswIndex<String, float[], TestItem, Float> frozenIndex = index.freeze();
+
+        assertThrows(UnsupportedOperationException.class, () -> frozenIndex.add(item2));
+        assertThrows(UnsupportedOperationException.class, () -> frozenIndex.remove(item1.id(), item1.version()));
+    }
+
+    @Test
+    void freezeEmptyIndex() {
+        assertThat(index.freeze().findNearest(item1.vector(), 10).isEmpty(), is(true));
+    }
+
+    @Test
+    void diagnoseGraph() {
+        randomItems(maxItemCount, dimensions).forEach(index::add);
+        for (int i = 0; i < maxItemCount; i += 4) {
+            index.remove(String.valueOf(i), 0);
+        }
+
+        GraphDiagnostics diagnostics = index.diagnose(2);
+
+        assertThat(diagnostics.getNodeCount(), is((long) maxItemCount));
+        assertThat(diagnostics.getDeletedNodeCount(), is((long) maxItemCount / 4));
+        assertThat(diagnostics.getDeletedRatio(), is(0.25));
+        assertThat(diagnostics.getUnreachableNodeCount(), is(0L));
+        assertThat(diagnostics.getMeanDeletedNeighbourShare() > 0, is(true));
+        assertThat(diagnostics.getLevelPopulation(0), is((long) maxItemCount));
+        assertThat(Arrays.stream(diagnostics.getDegreeDistribution(0)).sum(), is((long) maxItemCount));
+        assertThat(diagnostics.getMeanDegree(0) > 0, is(true));
+
+        long previous = Long.MAX_VALUE;
+        for (int level = 0; level < diagnostics.getNumLevels(); level++) {
+            assertThat(diagnostics.getLevelPopulation(level) <= previous, is(true));
+            previous = diagnostics.getLevelPopulation(level);
+        }
+
+        index.compact();
+
+        GraphDiagnostics compacted = index.diagnose();
+
+        assertThat(compacted.getNodeCount(), is((long) index.size()));
+        assertThat(compacted.getDeletedNodeCount(), is(0L));
+        assertThat(compacted.getMeanDeletedNeighbourShare(), is(0d));
+        assertThat(compacted.getUnreachableNodeCount(), is(0L));
+    }
+
+    @Test
+    void diagnoseEmptyIndex() {
+        GraphDiagnostics diagnostics = index.diagnose();
+
+        assertThat(diagnostics.getNodeCount(), is(0L));
+        assertThat(diagnostics.getNumLevels(), is(0));
+        assertThat(diagnostics.getDeletedRatio(), is(0d));
+    }
+
+    @Test
+    void instrumentationReceivesMeasurements() {
+        AtomicInteger borrowed = new AtomicInteger();
+        AtomicInteger globalLockReleases = new AtomicInteger();
+        AtomicInteger inserts = new AtomicInteger();
+        List<Long> distanceComputations = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger deletedNodeCount = new AtomicInteger(-1);
+
+        index.setInstrumentation(new HnswInstrumentation() {
+            @Override
+            public void visitedSetBorrowed(long nanos) {
+                borrowed.incrementAndGet();
+            }
+
+            @Override
+            public void globalLockReleased(long waitNanos, long holdNanos) {
+                globalLockReleases.incrementAndGet();
+            }
+
+            @Override
+            public void searchCompleted(long computations) {
+                distanceComputations.add(computations);
+            }
+
+            @Override
+            public void insertCompleted(long descentNanos, long layerSearchNanos, long connectNanos) {
+                inserts.incrementAndGet();
+            }
+
+            @Override
+            public void deletedNodeCountChanged(int count) {
+                deletedNodeCount.set(count);
+            }
+        });
+
+        assertThat(deletedNodeCount.get(), is(0));
+
+        index.add(item1);
+        index.add(item2);
+        index.add(item3);
+        index.remove(item1.id(), item1.version());
+
+        assertThat(inserts.get(), is(3));
+        assertThat(globalLockReleases.get() >= 4, is(true));
+        assertThat(deletedNodeCount.get(), is(1));
+
+        int borrowedBeforeSearch = borrowed.get();
+        index.findNearest(item2.vector(), 2);
+
+        assertThat(borrowed.get(), is(borrowedBeforeSearch + 1));
+        assertThat(distanceComputations.size(), is(1));
+        assertThat(distanceComputations.get(0) >= 3, is(true));
+
+        index.compact();
+        assertThat(deletedNodeCount.get(), is(0));
+
+        index.setInstrumentation(null);
+        index.findNearest(item2.vector(), 2);
+
+        assertThat(index.getInstrumentation(), is(sameInstance(HnswInstrumentation.NO_OP)));
+        assertThat(distanceComputations.size(), is(1));
+    }
+
+    @Test
+    void compactReusesSlotsOfRemovedItems() {
+        List<TestItem> items = randomItems(maxItemCount + maxItemCount / 4, dimensions);
+
+        items.subList(0, maxItemCount).forEach(index::add);
+
+        for (int i = 0; i < maxItemCount; i += 4) {
+            index.remove(String.valueOf(i), 0);
+        }
+
+        assertThat(index.compact(), is(maxItemCount / 4));
+        assertThat(index.compact(), is(0));
+
+        items.subList(maxItemCount, items.size()).forEach(index::add);
+
+        assertThat(index.size(), is(maxItemCount));
+
+        for (TestItem item : index.items()) {
+            assertThat(index.findNearest(item.vector(), 1).get(0).distance(), is(0f));
+        }
+    }
+
+    @Test
+    void resizeIndex() {
+        List<TestItem> items = randomItems(maxItemCount * 2, dimensions);
+
+        items.subList(0, maxItemCount).forEach(index::add);
+
+        index.resize(maxItemCount * 2);
+
+        assertThat(index.getMaxItemCount(), is(maxItemCount * 2));
+
+        items.subList(maxItemCount, items.size()).forEach(index::add);
+
+        assertThat(index.size(), is(maxItemCount * 2));
+
+        for (TestItem item : index.items()) {
+            assertThat(index.findNearest(item.vector(), 1).get(0).distance(), is(0f));
+        }
+    }
+
+    @Test
+    void resizeWhileSearching() throws Exception {
+        List<TestItem> items = randomItems(maxItemCount * 3, dimensions);
+
+        for (TestItem item : items.subList(0, maxItemCount)) {
+            index.add(item);
+        }
+
+        Thread searchThread = Thread.currentThread();
+        AtomicBoolean resized = new AtomicBoolean();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // once the search below holds a visited set sized for the old capacity, grow the index on another thread
+            // and add items that the search will run into
+            index.setInstrumentation(new HnswInstrumentation() {
+                @Override
+                public void visitedSetBorrowed(long nanos) {
+                    if (Thread.currentThread() == searchThread && resized.compareAndSet(false, true)) {
+                        try {
+                            executor.submit(() -> {
+                                index.resize(items.size());
+                                for (TestItem item : items.subList(maxItemCount, items.size())) {
+                                    index.add(item);
+                                }
+                            }).get();
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }
+            });
+
+            List<SearchResult<TestItem, Float>> results = index.findNearest(items.get(0).vector(), maxItemCount);
+
+            assertThat(resized.get(), is(true));
+            assertThat(results.size(), is(maxItemCount));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(index.size(), is(items.size()));
+    }
+
+    @Test
+    void resizeToLessThanSizeFails() {
+        index.add(item1);
+        index.add(item2);
+
+        assertThrows(IllegalArgumentException.class, () -> index.resize(1));
+    }
+
+    @Test
+    void reorderIndex() throws IOException {
+        Random random = new Random(42);
+
+        randomItems(random, maxItemCount, dimensions).forEach(index::add);
+
+        for (int i = 0; i < maxItemCount; i += 10) {
+            index.remove(String.valueOf(i), 0);
+        }
+
+        float[] vector = randomVector(random, dimensions);
+        List<String> expected = resultIds(index.findNearest(vector, 10));
+
+        index.reorder();
+
+        assertThat(index.size(), is(maxItemCount - maxItemCount / 10));
+        assertThat(index.get("1").isPresent(), is(true));
+        assertThat(index.get("10").isPresent(), is(false));
+        assertThat(resultIds(index.findNearest(vector, 10)), is(expected));
+
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        index.save(in);
+
+        HnswIndex<String, float[], TestItem, Float> loadedIndex =
+                HnswIndex.load(new ByteArrayInputStream(in.toByteArray()));
+
+        assertThat(resultIds(loadedIndex.findNearest(vector, 10)), is(expected));
+    }
+
+    @Test
+    void reorderWhileSearching() throws Exception {
+        Random random = new Random(42);
+
+        randomItems(random, maxItemCount, dimensions).forEach(index::add);
+
+        float[] vector = randomVector(random, dimensions);
+        List<String> expected = resultIds(index.findNearest(vector, 10));
+
+        Thread searchThread = Thread.currentThread();
+        AtomicBoolean reordered = new AtomicBoolean();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // once the search below has descended to the bottom layer, renumber all nodes on another thread
+            index.setInstrumentation(new HnswInstrumentation() {
+                @Override
+                public void visitedSetBorrowed(long nanos) {
+                    if (Thread.currentThread() == searchThread && reordered.compareAndSet(false, true)) {
+                        try {
+                            executor.submit(() -> index.reorder()).get();
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }
+            });
+
+            assertThat(resultIds(index.findNearest(vector, 10)), is(expected));
+            assertThat(reordered.get(), is(true));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(resultIds(index.findNearest(vector, 10)), is(expected));
+    }
+
+    @Test
+    void longIds() throws IOException {
+        HnswIndex<Long, float[], LongTestItem, Float> longIndex = HnswIndex
+                .newBuilder(dimensions, distanceFunction, maxItemCount)
+                .withRemoveEnabled()
+                .withIdType(IdType.LONG)
+                .build();
+
+        LongTestItem first = new LongTestItem(1L, item1.vector());
+        LongTestItem second = new LongTestItem(Long.MAX_VALUE, item2.vector());
+        LongTestItem third = new LongTestItem(3L, item3.vector());
+
+        longIndex.add(first);
+        longIndex.add(second);
+        longIndex.add(third);
+        longIndex.remove(3L, 0);
+
+        assertThat(longIndex.get(Long.MAX_VALUE), is(Optional.of(second)));
+        assertThat(longIndex.contains(3L), is(false));
+        assertThat(longIndex.add(new LongTestItem(3L, item3.vector())), is(true));
+
+        longIndex.compact();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        longIndex.save(out);
+
+        HnswIndex<Long, float[], LongTestItem, Float> loadedIndex =
+                HnswIndex.load(new ByteArrayInputStream(out.toByteArray()));
+
+        assertThat(loadedIndex.size(), is(3));
+        assertThat(loadedIndex.get(Long.MAX_VALUE).map(LongTestItem::id), is(Optional.of(Long.MAX_VALUE)));
+        assertThat(loadedIndex.findNearest(item1.vector(), 1).get(0).item().id(), is(1L));
+        assertThat(loadedIndex.freeze().get(3L).isPresent(), is(true));
+    }
+
+    @Test
+    void exactIndexFindsNearestInParallel() {
+        List<TestItem> items = randomItems(20000, 8);
+        HnswIndex<String, float[], TestItem, Float> large = exactTestIndex(items);
+
+        large.remove("0", 0);
+        List<TestItem> remaining = items.subList(1, items.size());
+
+        List<float[]> queries = new ArrayList<>();
+        for (TestItem query : randomItems(40, 8).subList(20, 40)) {
+            queries.add(query.vector());
+        }
+
+        for (float[] query : queries.subList(0, 3)) {
+            assertThat(resultIds(large.asExactIndex().findNearest(query, 10)), is(exactIds(remaining, query, 10)));
+        }
+
+        List<List<SearchResult<TestItem, Float>>> batch = large.exactView().findNearestBatch(queries, 10, 4);
+        assertThat(batch.size(), is(queries.size()));
+        for (int i = 0; i < queries.size(); i++) {
+            assertThat(resultIds(batch.get(i)), is(exactIds(remaining, queries.get(i), 10)));
+        }
+
+        List<List<SearchResult<TestItem, Float>>> fewQueries =
+                large.exactView().findNearestBatch(queries.subList(0, 2), 10, 4);
+        for (int i = 0; i < 2; i++) {
+            assertThat(resultIds(fewQueries.get(i)), is(exactIds(remaining, queries.get(i), 10)));
+        }
+    }
+
+    private static HnswIndex<String, float[], TestItem, Float> exactTestIndex(List<TestItem> items) {
+        HnswIndex<String, float[], TestItem, Float> index = HnswIndex
+                .newBuilder(8, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE, items.size())
+                .withRemoveEnabled()
+                .build();
+
+        // the exact view ignores the graph so a ring will do
+        int[][] knnGraph = new int[items.size()][];
+        for (int i = 0; i < items.size(); i++) {
+            knnGraph[i] = new int[] { (i + 1) % items.size() };
+        }
+        index.buildFromKnnGraph(items, knnGraph, 1);
+        return index;
+    }
+
+    private static class FailingDistanceFunction implements DistanceFunction<float[], Float> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Float distance(float[] u, float[] v) {
+            if (u[0] < 0 || v[0] < 0) {
+                throw new IllegalStateException("Cannot compute distance.");
+            }
+            return DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE.distance(u, v);
+        }
+    }
+
+    private static class CountingDistanceFunction implements DistanceFunction<float[], Float> {
+
+        private static final long serialVersionUID = 1L;
+
+        static final AtomicInteger COMPUTATIONS = new AtomicInteger();
+
+        @Override
+        public Float distance(float[] u, float[] v) {
+            COMPUTATIONS.incrementAndGet();
+            return DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE.distance(u, v);
+        }
+    }
 }
@@ -0,0 +1,163 @@
+package com.github.jelmerk.knn.sharded;
+
+import com.github.jelmerk.knn.*;
+import com.github.jelmerk.knn.bruteforce.BruteForceIndex;
+import com.github.jelmerk.knn.hnsw.HnswIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static com.github.jelmerk.knn.TestItems.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShardedIndexTest {
+
+    private int numShards = 3;
+    private int dimensions = 2;
+
+    private ShardedIndex<String, float[], TestItem, Float> index;
+
+    private List<TestItem> items;
+
+    @BeforeEach
+    void setUp() {
+        List<HnswIndex<String, float[], TestItem, Float>> shards = new ArrayList<>();
+        for (int i = 0; i < numShards; i++) {
+            shards.add(HnswIndex.newBuilder(dimensions, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE, 100)
+                    .withRemoveEnabled()
+                    .build());
+        }
+        index = new ShardedIndex<>(shards);
+
+        items = randomItems(150, dimensions);
+    }
+
+    @Test
+    void spreadsItemsOverShards() throws InterruptedException {
+        index.addAll(items);
+
+        assertThat(index.size(), is(items.size()));
+
+        for (Index<String, float[], TestItem, Float> shard : index.getShards()) {
+            assertThat(shard.size() > 0, is(true));
+        }
+
+        for (TestItem item : items) {
+            assertThat(index.contains(item.id()), is(true));
+            assertThat(index.get(item.id()), is(Optional.of(item)));
+        }
+    }
+
+    @Test
+    void removeItem() {
+        TestItem item = items.get(0);
+        index.add(item);
+
+        assertThat(index.remove(item.id(), item.version()), is(true));
+        assertThat(index.contains(item.id()), is(false));
+    }
+
+    @Test
+    void findNearestMergesResultsOfAllShards() throws InterruptedException {
+        index.addAll(items);
+
+        Index<String, float[], TestItem, Float> exact = BruteForceIndex
+                .<float[], Float>newBuilder(dimensions, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE)
+                .build();
+        exact.addAll(items);
+
+        float[] vector = new float[] { 0.5f, 0.5f };
+
+        List<SearchResult<TestItem, Float>> results = index.findNearest(vector, 10);
+
+        assertThat(results, is(exact.findNearest(vector, 10)));
+    }
+
+    @Test
+    void findNearestAsyncMergesResultsOfAllShards() throws Exception {
+        index.addAll(items);
+
+        float[] vector = new float[] { 0.5f, 0.5f };
+
+        assertThat(index.findNearestAsync(vector, 10).get(), is(index.findNearest(vector, 10)));
+    }
+
+    @Test
+    void findNearestOnEmptyIndex() {
+        assertThat(index.findNearest(new float[] { 0.5f, 0.5f }, 10).isEmpty(), is(true));
+    }
+
+    @Test
+    void saveAndLoadIndex() throws IOException, InterruptedException {
+        index.addAll(items);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.save(out);
+
+        ShardedIndex<String, float[], TestItem, Float> loadedIndex =
+                ShardedIndex.load(new ByteArrayInputStream(out.toByteArray()));
+
+        assertThat(loadedIndex.size(), is(items.size()));
+        assertThat(loadedIndex.getShards().size(), is(numShards));
+    }
+
+    @Test
+    void saveAndLoadShards(@TempDir Path directory) throws IOException, InterruptedException {
+        index.addAll(items);
+
+        index.saveShards(directory);
+
+        ShardedIndex<String, float[], TestItem, Float> loadedIndex =
+                ShardedIndex.loadShards(directory, HnswIndex::load);
+
+        assertThat(loadedIndex.getShards().size(), is(numShards));
+
+        for (int i = 0; i < numShards; i++) {
+            assertThat(loadedIndex.getShards().get(i).size(), is(index.getShards().get(i).size()));
+        }
+
+        float[] vector = new float[] { 0.5f, 0.5f };
+        assertThat(loadedIndex.findNearest(vector, 10).size(), is(10));
+        assertThat(loadedIndex.get("1").isPresent(), is(true));
+    }
+
+    @Test
+    void saveFewerShardsOverMoreShards(@TempDir Path directory) throws IOException, InterruptedException {
+        List<Index<String, float[], TestItem, Float>> shards = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            shards.add(HnswIndex.newBuilder(dimensions, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE, 100).build());
+        }
+        new ShardedIndex<>(shards).saveShards(directory);
+
+        ShardedIndex<String, float[], TestItem, Float> twoShards = new ShardedIndex<>(shards.subList(0, 2));
+        twoShards.addAll(items);
+        twoShards.saveShards(directory);
+
+        ShardedIndex<String, float[], TestItem, Float> loadedIndex =
+                ShardedIndex.loadShards(directory, HnswIndex::load);
+
+        assertThat(loadedIndex.getShards().size(), is(2));
+        assertThat(loadedIndex.size(), is(items.size()));
+        assertThat(Files.exists(directory.resolve("shard-2")), is(false));
+    }
+
+    @Test
+    void loadShardsFromEmptyDirectoryFails(@TempDir Path directory) {
+        assertThrows(IOException.class, () -> ShardedIndex.loadShards(directory, HnswIndex::load));
+    }
+
+    @Test
+    void noShardsFails() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardedIndex<>(Collections.emptyList()));
+    }
+}
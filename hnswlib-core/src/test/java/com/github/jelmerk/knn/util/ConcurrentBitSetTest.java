@@ -0,0 +1,72 @@
+package com.github.jelmerk.knn.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class ConcurrentBitSetTest {
+
+    private ConcurrentBitSet bitSet = new ConcurrentBitSet(100);
+
+    @Test
+    void addAndContains() {
+        assertThat(bitSet.contains(33), is(false));
+        bitSet.add(33);
+        assertThat(bitSet.contains(33), is(true));
+        assertThat(bitSet.contains(32), is(false));
+        assertThat(bitSet.contains(34), is(false));
+    }
+
+    @Test
+    void remove() {
+        bitSet.add(33);
+        bitSet.add(34);
+        bitSet.remove(33);
+        assertThat(bitSet.contains(33), is(false));
+        assertThat(bitSet.contains(34), is(true));
+    }
+
+    @Test
+    void clear() {
+        bitSet.add(1);
+        bitSet.add(99);
+        bitSet.clear();
+        assertThat(bitSet.contains(1), is(false));
+        assertThat(bitSet.contains(99), is(false));
+    }
+
+    @Test
+    void concurrentAddsToSameWordAreNotLost() throws Exception {
+        int numThreads = 4;
+        ConcurrentBitSet set = new ConcurrentBitSet(numThreads * 1000);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < numThreads; thread++) {
+                int offset = thread;
+                futures.add(executorService.submit(() -> {
+                    for (int i = offset; i < numThreads * 1000; i += numThreads) {
+                        set.add(i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        for (int i = 0; i < numThreads * 1000; i++) {
+            assertThat(set.contains(i), is(true));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.jelmerk.knn.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class GenericObjectPoolTest {
+
+    private AtomicInteger created = new AtomicInteger();
+
+    private GenericObjectPool<Integer> pool = new GenericObjectPool<>(created::incrementAndGet, 1);
+
+    @Test
+    void reusesReturnedObjects() {
+        Integer item = pool.borrowObject();
+        pool.returnObject(item);
+
+        assertThat(pool.borrowObject(), is(sameInstance(item)));
+        assertThat(created.get(), is(1));
+    }
+
+    @Test
+    void createsObjectWhenEmpty() {
+        Integer first = pool.borrowObject();
+        Integer second = pool.borrowObject();
+
+        assertThat(second, is(not(first)));
+        assertThat(created.get(), is(2));
+    }
+
+    @Test
+    void discardsObjectsWhenFull() {
+        Integer first = pool.borrowObject();
+        Integer second = pool.borrowObject();
+
+        pool.returnObject(first);
+        pool.returnObject(second);
+
+        assertThat(pool.borrowObject(), is(first));
+        assertThat(pool.borrowObject(), is(3));
+    }
+
+    @Test
+    void keepsObjectsCreatedOnDemandUpToMaxPoolSize() {
+        AtomicInteger createdOnDemand = new AtomicInteger();
+        GenericObjectPool<Integer> growingPool = new GenericObjectPool<>(createdOnDemand::incrementAndGet, 0, 2);
+
+        Integer first = growingPool.borrowObject();
+        Integer second = growingPool.borrowObject();
+        Integer third = growingPool.borrowObject();
+
+        growingPool.returnObject(first);
+        growingPool.returnObject(second);
+        growingPool.returnObject(third);
+
+        assertThat(growingPool.borrowObject(), is(sameInstance(first)));
+        assertThat(growingPool.borrowObject(), is(sameInstance(second)));
+        assertThat(createdOnDemand.get(), is(3));
+    }
+}
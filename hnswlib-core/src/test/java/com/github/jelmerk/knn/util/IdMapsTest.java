@@ -0,0 +1,98 @@
+package com.github.jelmerk.knn.util;
+
+import com.github.jelmerk.knn.IdType;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class IdMapsTest {
+
+    @Test
+    void idIntMapStoresValues() throws Exception {
+        for (IdType idType : IdType.values()) {
+            idIntMapStoresValues(idType);
+        }
+    }
+
+    @Test
+    void idLongMapStoresValues() throws Exception {
+        for (IdType idType : IdType.values()) {
+            idLongMapStoresValues(idType);
+        }
+    }
+
+    private void idIntMapStoresValues(IdType idType) throws Exception {
+        IdIntMap<Object> map = IdMaps.newIdIntMap(idType, 4);
+
+        for (int i = 0; i < 10; i++) {
+            map.put(id(idType, i), i * 2);
+        }
+        map.remove(id(idType, 3));
+
+        assertThat(map.size(), is(9));
+        assertThat(map.getIfAbsent(id(idType, 4), -1), is(8));
+        assertThat(map.getIfAbsent(id(idType, 3), -1), is(-1));
+        assertThat(map.containsKey(id(idType, 9)), is(true));
+        assertThat(map.containsKey(id(idType, 3)), is(false));
+
+        Map<Object, Integer> entries = new HashMap<>();
+        map.forEachKeyValue(entries::put);
+        assertThat(entries.get(id(idType, 5)), is(10));
+        assertThat(entries.size(), is(9));
+
+        IdIntMap<Object> copy = roundTrip(map);
+        assertThat(copy.getIfAbsent(id(idType, 4), -1), is(8));
+
+        map.clear();
+        assertThat(map.size(), is(0));
+    }
+
+    private void idLongMapStoresValues(IdType idType) throws Exception {
+        IdLongMap<Object> map = IdMaps.newIdLongMap(idType, 4);
+
+        for (int i = 0; i < 10; i++) {
+            map.put(id(idType, i), Long.MAX_VALUE - i);
+        }
+        map.remove(id(idType, 3));
+
+        assertThat(map.size(), is(9));
+        assertThat(map.getIfAbsent(id(idType, 4), -1L), is(Long.MAX_VALUE - 4));
+        assertThat(map.getIfAbsent(id(idType, 3), -1L), is(-1L));
+        assertThat(map.containsKey(id(idType, 3)), is(false));
+
+        Map<Object, Long> entries = new HashMap<>();
+        map.forEachKeyValue(entries::put);
+        assertThat(entries.get(id(idType, 5)), is(Long.MAX_VALUE - 5));
+
+        IdLongMap<Object> copy = roundTrip(map);
+        assertThat(copy.getIfAbsent(id(idType, 4), -1L), is(Long.MAX_VALUE - 4));
+    }
+
+    private static Object id(IdType idType, int value) {
+        switch (idType) {
+            case INT:
+                return value;
+            case LONG:
+                return (long) value;
+            default:
+                return String.valueOf(value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T value) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(value);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            return (T) ois.readObject();
+        }
+    }
+}
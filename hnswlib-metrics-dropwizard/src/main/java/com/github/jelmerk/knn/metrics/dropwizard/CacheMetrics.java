@@ -0,0 +1,55 @@
+package com.github.jelmerk.knn.metrics.dropwizard;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.github.jelmerk.knn.cache.CachingDecorator;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Publishes the statistics of a {@link CachingDecorator} as dropwizard metrics.
+ */
+public final class CacheMetrics {
+
+    private CacheMetrics() {
+    }
+
+    /**
+     * Registers gauges for the hits, misses, evictions, size and hit ratio of the cache.
+     *
+     * @param metricRegistry metric registry to publish the metrics in
+     * @param clazz the first element of the name
+     * @param indexName name of the index. Will be used as part of the metric path
+     * @param decorator the caching decorator to publish the statistics of
+     */
+    public static void register(MetricRegistry metricRegistry,
+                                Class<?> clazz,
+                                String indexName,
+                                CachingDecorator<?, ?, ?, ?, ?> decorator) {
+
+        metricRegistry.register(name(clazz, indexName, "cache", "hits"), (Gauge<Long>) decorator::hitCount);
+        metricRegistry.register(name(clazz, indexName, "cache", "misses"), (Gauge<Long>) decorator::missCount);
+        metricRegistry.register(name(clazz, indexName, "cache", "evictions"), (Gauge<Long>) decorator::evictionCount);
+        metricRegistry.register(name(clazz, indexName, "cache", "size"), (Gauge<Integer>) decorator::cacheSize);
+        metricRegistry.register(name(clazz, indexName, "cache", "hitRatio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                long hits = decorator.hitCount();
+                return Ratio.of(hits, hits + decorator.missCount());
+            }
+        });
+    }
+
+    /**
+     * Registers gauges for the hits, misses, evictions, size and hit ratio of the cache in the default shared metric
+     * registry.
+     *
+     * @param indexName name of the index. Will be used as part of the metric path
+     * @param decorator the caching decorator to publish the statistics of
+     */
+    public static void register(String indexName, CachingDecorator<?, ?, ?, ?, ?> decorator) {
+        register(SharedMetricRegistries.getDefault(), CacheMetrics.class, indexName, decorator);
+    }
+}
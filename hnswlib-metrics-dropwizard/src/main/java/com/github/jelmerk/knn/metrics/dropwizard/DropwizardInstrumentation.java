@@ -0,0 +1,86 @@
+package com.github.jelmerk.knn.metrics.dropwizard;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.jelmerk.knn.hnsw.HnswIndex;
+import com.github.jelmerk.knn.hnsw.HnswInstrumentation;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Publishes measurements of the internals of a {@link HnswIndex} as dropwizard metrics. Where {@link StatisticsDecorator}
+ * times the public methods of an index, this shows where the time inside the index goes. Install it with
+ * {@link HnswIndex#setInstrumentation(HnswInstrumentation)}.
+ */
+public class DropwizardInstrumentation implements HnswInstrumentation {
+
+    private final Timer visitedSetBorrowTimer;
+    private final Timer globalLockWaitTimer;
+    private final Timer globalLockHoldTimer;
+    private final Timer nodeLockWaitTimer;
+    private final Histogram distanceComputationsHistogram;
+    private final Timer insertDescentTimer;
+    private final Timer insertLayerSearchTimer;
+    private final Timer insertConnectTimer;
+
+    private final AtomicInteger deletedNodeCount = new AtomicInteger();
+
+    /**
+     * Constructs a new DropwizardInstrumentation.
+     *
+     * @param metricRegistry metric registry to publish the metrics in
+     * @param clazz the first element of the name
+     * @param indexName name of the index. Will be used as part of the metric path
+     */
+    public DropwizardInstrumentation(MetricRegistry metricRegistry, Class<?> clazz, String indexName) {
+        this.visitedSetBorrowTimer = metricRegistry.timer(name(clazz, indexName, "visitedSetPool", "borrow"));
+        this.globalLockWaitTimer = metricRegistry.timer(name(clazz, indexName, "globalLock", "wait"));
+        this.globalLockHoldTimer = metricRegistry.timer(name(clazz, indexName, "globalLock", "hold"));
+        this.nodeLockWaitTimer = metricRegistry.timer(name(clazz, indexName, "nodeLock", "wait"));
+        this.distanceComputationsHistogram = metricRegistry.histogram(
+                name(clazz, indexName, "search", "distanceComputations"));
+        this.insertDescentTimer = metricRegistry.timer(name(clazz, indexName, "insert", "descent"));
+        this.insertLayerSearchTimer = metricRegistry.timer(name(clazz, indexName, "insert", "layerSearch"));
+        this.insertConnectTimer = metricRegistry.timer(name(clazz, indexName, "insert", "connect"));
+
+        metricRegistry.register(name(clazz, indexName, "deletedNodes"), (Gauge<Integer>) deletedNodeCount::get);
+    }
+
+    @Override
+    public void visitedSetBorrowed(long nanos) {
+        visitedSetBorrowTimer.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void globalLockReleased(long waitNanos, long holdNanos) {
+        globalLockWaitTimer.update(waitNanos, TimeUnit.NANOSECONDS);
+        globalLockHoldTimer.update(holdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void nodeLockAcquired(long waitNanos) {
+        nodeLockWaitTimer.update(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void searchCompleted(long distanceComputations) {
+        distanceComputationsHistogram.update(distanceComputations);
+    }
+
+    @Override
+    public void insertCompleted(long descentNanos, long layerSearchNanos, long connectNanos) {
+        insertDescentTimer.update(descentNanos, TimeUnit.NANOSECONDS);
+        insertLayerSearchTimer.update(layerSearchNanos, TimeUnit.NANOSECONDS);
+        insertConnectTimer.update(connectNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void deletedNodeCountChanged(int count) {
+        deletedNodeCount.set(count);
+    }
+}
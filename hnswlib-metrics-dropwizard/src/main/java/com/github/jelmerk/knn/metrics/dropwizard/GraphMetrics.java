@@ -0,0 +1,94 @@
+package com.github.jelmerk.knn.metrics.dropwizard;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.github.jelmerk.knn.hnsw.GraphDiagnostics;
+import com.github.jelmerk.knn.hnsw.HnswIndex;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Publishes the {@link GraphDiagnostics} of a {@link HnswIndex} as dropwizard metrics. Examining the graph takes time
+ * proportional to the size of the index so the diagnostics are recomputed at most once per refresh interval.
+ */
+public final class GraphMetrics {
+
+    /**
+     * Number of layers for which the population and mean degree are published. An index with M 16 only gets more
+     * layers than this when it holds billions of items.
+     */
+    static final int MAX_REPORTED_LEVELS = 8;
+
+    private GraphMetrics() {
+    }
+
+    /**
+     * Registers gauges for the number of nodes, the number and ratio of removed nodes, the number of unreachable
+     * nodes, the share of removed neighbours, the number of layers and the population and mean degree of every layer
+     * of the graph.
+     *
+     * @param metricRegistry metric registry to publish the metrics in
+     * @param clazz the first element of the name
+     * @param indexName name of the index. Will be used as part of the metric path
+     * @param index the index to publish the diagnostics of
+     * @param refreshInterval minimum time between examinations of the graph
+     * @param refreshIntervalUnit unit of refreshInterval
+     */
+    public static void register(MetricRegistry metricRegistry,
+                                Class<?> clazz,
+                                String indexName,
+                                HnswIndex<?, ?, ?, ?> index,
+                                long refreshInterval,
+                                TimeUnit refreshIntervalUnit) {
+
+        CachedGauge<GraphDiagnostics> diagnostics = new CachedGauge<GraphDiagnostics>(refreshInterval, refreshIntervalUnit) {
+            @Override
+            protected GraphDiagnostics loadValue() {
+                return index.diagnose();
+            }
+        };
+
+        metricRegistry.register(name(clazz, indexName, "graph", "nodes"),
+                (Gauge<Long>) () -> diagnostics.getValue().getNodeCount());
+        metricRegistry.register(name(clazz, indexName, "graph", "deletedNodes"),
+                (Gauge<Long>) () -> diagnostics.getValue().getDeletedNodeCount());
+        metricRegistry.register(name(clazz, indexName, "graph", "deletedRatio"),
+                (Gauge<Double>) () -> diagnostics.getValue().getDeletedRatio());
+        metricRegistry.register(name(clazz, indexName, "graph", "unreachableNodes"),
+                (Gauge<Long>) () -> diagnostics.getValue().getUnreachableNodeCount());
+        metricRegistry.register(name(clazz, indexName, "graph", "deletedNeighbourShare"),
+                (Gauge<Double>) () -> diagnostics.getValue().getMeanDeletedNeighbourShare());
+        metricRegistry.register(name(clazz, indexName, "graph", "mostlyDeletedNeighbours"),
+                (Gauge<Long>) () -> diagnostics.getValue().getMostlyDeletedNeighbourCount());
+        metricRegistry.register(name(clazz, indexName, "graph", "levels"),
+                (Gauge<Integer>) () -> diagnostics.getValue().getNumLevels());
+
+        for (int level = 0; level < MAX_REPORTED_LEVELS; level++) {
+            int currentLevel = level;
+            metricRegistry.register(name(clazz, indexName, "graph", "level" + level, "population"),
+                    (Gauge<Long>) () -> diagnostics.getValue().getLevelPopulation(currentLevel));
+            metricRegistry.register(name(clazz, indexName, "graph", "level" + level, "meanDegree"),
+                    (Gauge<Double>) () -> diagnostics.getValue().getMeanDegree(currentLevel));
+        }
+    }
+
+    /**
+     * Registers gauges for the diagnostics of the graph in the default shared metric registry.
+     *
+     * @param indexName name of the index. Will be used as part of the metric path
+     * @param index the index to publish the diagnostics of
+     * @param refreshInterval minimum time between examinations of the graph
+     * @param refreshIntervalUnit unit of refreshInterval
+     */
+    public static void register(String indexName,
+                                HnswIndex<?, ?, ?, ?> index,
+                                long refreshInterval,
+                                TimeUnit refreshIntervalUnit) {
+        register(SharedMetricRegistries.getDefault(), GraphMetrics.class, indexName, index, refreshInterval,
+                refreshIntervalUnit);
+    }
+}
@@ -9,10 +9,15 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -20,6 +25,18 @@ import static com.codahale.metrics.MetricRegistry.name;
 /**
  * Decorator on top of an index that will collect statistics about the index. Such as the precision of the results
  * returned by the approximative index compared to a brute force baseline.
+ * <p>
+ * The results of a sample of the searches are compared with those of the ground truth index in the background, on
+ * an executor that can be passed in. The comparison is published as three histograms, all in percent :
+ * <ul>
+ *     <li>accuracy : the recall, the share of the true k nearest neighbours that were found</li>
+ *     <li>ndcg : the normalized discounted cumulative gain, which like the recall rewards finding the true nearest
+ *     neighbours but weighs the top results more heavily</li>
+ *     <li>distanceRatio : the distance of each result divided by the distance of the true neighbour at the same
+ *     rank, averaged over the results. 100 when the true neighbours were found. Only published for numeric
+ *     distances</li>
+ * </ul>
+ * When the comparisons cannot keep up the excess samples are dropped and counted in the droppedSamples meter.
  *
  * @param <TId> Type of the external identifier of an item
  * @param <TVector> Type of the vector to perform distance calculation on
@@ -41,6 +58,10 @@ public class StatisticsDecorator<TId, TVector, TItem extends Item<TId, TVector>,
     private final Timer saveTimer;
 
     private final Histogram accuracyHistogram;
+    private final Histogram ndcgHistogram;
+    private final Histogram distanceRatioHistogram;
+
+    private final Meter droppedSamplesMeter;
 
     private final TApproximativeIndex approximativeIndex;
     private final TGroundTruthIndex groundTruthIndex;
@@ -49,7 +70,9 @@ public class StatisticsDecorator<TId, TVector, TItem extends Item<TId, TVector>,
 
     private AtomicLong searchCount = new AtomicLong();
 
-    private final AccuracyTestThread accuracyEvaluator;
+    private final Executor accuracyEvaluationExecutor;
+
+    private final Semaphore pendingEvaluations;
 
     /**
      * Constructs a new com.github.jelmerk.knn.metrics.dropwizard.StatisticsDecorator.
@@ -69,17 +92,47 @@ public class StatisticsDecorator<TId, TVector, TItem extends Item<TId, TVector>,
                                TApproximativeIndex approximativeIndex,
                                TGroundTruthIndex groundTruthIndex,
                                int maxAccuracySampleFrequency) {
+        this(metricRegistry, clazz, indexName, approximativeIndex, groundTruthIndex, maxAccuracySampleFrequency,
+                newAccuracyEvaluationExecutor(), 2);
+    }
+
+    /**
+     * Constructs a new com.github.jelmerk.knn.metrics.dropwizard.StatisticsDecorator that compares search results with
+     * the results of the ground truth index on the passed in executor. Pass an executor with multiple threads to
+     * compare several samples at the same time.
+     *
+     * @param metricRegistry metric registry to publish the metric in
+     * @param clazz the first element of the name
+     * @param indexName name of the index. Will be used as part of the metric path
+     * @param approximativeIndex the approximative index
+     * @param groundTruthIndex the brute force index
+     * @param maxAccuracySampleFrequency at most every maxAccuracySampleFrequency requests compare the results of the
+     *                                   approximate index with those of the ground truth index to establish the runtime
+     *                                   accuracy of the index
+     * @param accuracyEvaluationExecutor executor the comparisons run on
+     * @param maxPendingEvaluations maximum number of comparisons that can be queued or running at the same time,
+     *                              samples taken while this many comparisons are pending are dropped
+     * @throws IllegalArgumentException thrown when maxPendingEvaluations is smaller than 1
+     */
+    public StatisticsDecorator(MetricRegistry metricRegistry,
+                               Class<?> clazz,
+                               String indexName,
+                               TApproximativeIndex approximativeIndex,
+                               TGroundTruthIndex groundTruthIndex,
+                               int maxAccuracySampleFrequency,
+                               Executor accuracyEvaluationExecutor,
+                               int maxPendingEvaluations) {
+
+        if (maxPendingEvaluations < 1) {
+            throw new IllegalArgumentException("maxPendingEvaluations must be at least 1.");
+        }
 
         this.approximativeIndex = approximativeIndex;
         this.groundTruthIndex = groundTruthIndex;
         this.sampleFrequency = maxAccuracySampleFrequency;
 
-        this.accuracyEvaluator = new AccuracyTestThread(1);
-
-        Thread thread = new Thread(accuracyEvaluator);
-        thread.setName("accuracyEvaluator");
-        thread.setDaemon(true);
-        thread.start();
+        this.accuracyEvaluationExecutor = accuracyEvaluationExecutor;
+        this.pendingEvaluations = new Semaphore(maxPendingEvaluations);
 
         this.addTimer = metricRegistry.timer(name(clazz, indexName, "add"));
         this.removeTimer = metricRegistry.timer(name(clazz, indexName, "remove"));
@@ -89,6 +142,11 @@ public class StatisticsDecorator<TId, TVector, TItem extends Item<TId, TVector>,
         this.saveTimer = metricRegistry.timer(name(clazz, indexName,"save"));
         this.accuracyHistogram = metricRegistry.histogram(name(clazz, indexName, "accuracy"),
                 () -> new Histogram(new UniformReservoir()));
+        this.ndcgHistogram = metricRegistry.histogram(name(clazz, indexName, "ndcg"),
+                () -> new Histogram(new UniformReservoir()));
+        this.distanceRatioHistogram = metricRegistry.histogram(name(clazz, indexName, "distanceRatio"),
+                () -> new Histogram(new UniformReservoir()));
+        this.droppedSamplesMeter = metricRegistry.meter(name(clazz, indexName, "droppedSamples"));
 
         metricRegistry.register(name(clazz, indexName, "size"), (Gauge<Integer>) approximativeIndex::size);
 
@@ -195,7 +253,7 @@ public class StatisticsDecorator<TId, TVector, TItem extends Item<TId, TVector>,
         }
 
         if (searchCount.getAndIncrement() % sampleFrequency == 0) {
-            accuracyEvaluator.offer(new RequestArgumentsAndResults(vector, k, searchResults));
+            submitAccuracyEvaluation(vector, k, searchResults);
         }
         return searchResults;
     }
@@ -231,49 +289,90 @@ public class StatisticsDecorator<TId, TVector, TItem extends Item<TId, TVector>,
         return groundTruthIndex;
     }
 
-    private class AccuracyTestThread implements Runnable {
+    private void submitAccuracyEvaluation(TVector vector, int k, List<SearchResult<TItem, TDistance>> searchResults) {
+        // never block the search, drop the sample when the comparisons cannot keep up
+        if (!pendingEvaluations.tryAcquire()) {
+            droppedSamplesMeter.mark();
+            return;
+        }
 
-        private final ArrayBlockingQueue<RequestArgumentsAndResults> queue;
+        try {
+            accuracyEvaluationExecutor.execute(() -> {
+                try {
+                    evaluateAccuracy(vector, k, searchResults);
+                } finally {
+                    pendingEvaluations.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingEvaluations.release();
+            droppedSamplesMeter.mark();
+        }
+    }
 
-        private volatile boolean running = true;
+    private void evaluateAccuracy(TVector vector, int k, List<SearchResult<TItem, TDistance>> searchResults) {
+        List<SearchResult<TItem, TDistance>> expectedResults = groundTruthIndex.findNearest(vector, k);
 
-        AccuracyTestThread(int maxBacklog) {
-            this.queue  = new ArrayBlockingQueue<>(maxBacklog);
+        if (expectedResults.isEmpty()) {
+            return;
         }
 
-        @Override
-        public void run() {
-            try {
-                while (running) {
-                    RequestArgumentsAndResults item = queue.poll(500, TimeUnit.MILLISECONDS);
-                    if (item != null) {
-                        List<SearchResult<TItem, TDistance>> expectedResults = groundTruthIndex.findNearest(item.vector, item.k);
-
-                        int correct = expectedResults.stream().mapToInt(r -> item.searchResults.contains(r) ? 1 : 0).sum();
-                        double precision = (double) correct / (double) expectedResults.size();
-                        accuracyHistogram.update(Math.round(precision * 100));
-                    }
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+        Set<SearchResult<TItem, TDistance>> expected = new HashSet<>(expectedResults);
+
+        int correct = 0;
+        double dcg = 0;
+        for (int i = 0; i < searchResults.size(); i++) {
+            if (expected.contains(searchResults.get(i))) {
+                correct++;
+                dcg += 1 / log2(i + 2);
             }
         }
 
-        boolean offer(RequestArgumentsAndResults requestAndResults) {
-            return queue.offer(requestAndResults); // won't block if we can't keep up but will return false
+        double idealDcg = 0;
+        for (int i = 0; i < expectedResults.size(); i++) {
+            idealDcg += 1 / log2(i + 2);
         }
 
-    }
+        accuracyHistogram.update(Math.round((double) correct / (double) expectedResults.size() * 100));
+        ndcgHistogram.update(Math.round(dcg / idealDcg * 100));
 
-    private class RequestArgumentsAndResults {
-        final TVector vector;
-        final int k;
-        final List<SearchResult<TItem, TDistance>> searchResults;
+        double distanceRatioSum = 0;
+        int ratios = 0;
+        for (int i = 0; i < Math.min(searchResults.size(), expectedResults.size()); i++) {
+            TDistance distance = searchResults.get(i).distance();
+            TDistance expectedDistance = expectedResults.get(i).distance();
 
-        RequestArgumentsAndResults(TVector vector, int k, List<SearchResult<TItem, TDistance>> searchResults) {
-            this.vector = vector;
-            this.k = k;
-            this.searchResults = searchResults;
+            if (!(distance instanceof Number) || !(expectedDistance instanceof Number)) {
+                return;
+            }
+
+            double actual = ((Number) distance).doubleValue();
+            double best = ((Number) expectedDistance).doubleValue();
+
+            // the ratio is undefined when the true neighbour is at distance 0, unless the result is too
+            if (best != 0) {
+                distanceRatioSum += actual / best;
+                ratios++;
+            } else if (actual == 0) {
+                distanceRatioSum += 1;
+                ratios++;
+            }
+        }
+
+        if (ratios > 0) {
+            distanceRatioHistogram.update(Math.round(distanceRatioSum / ratios * 100));
         }
     }
+
+    private static double log2(int value) {
+        return Math.log(value) / Math.log(2);
+    }
+
+    private static ExecutorService newAccuracyEvaluationExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "accuracyEvaluator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 }
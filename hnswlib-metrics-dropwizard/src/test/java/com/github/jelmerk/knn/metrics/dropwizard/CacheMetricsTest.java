@@ -0,0 +1,60 @@
+package com.github.jelmerk.knn.metrics.dropwizard;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.jelmerk.knn.Index;
+import com.github.jelmerk.knn.cache.CachingDecorator;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Collections;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.BDDMockito.given;
+
+@ExtendWith(MockitoExtension.class)
+class CacheMetricsTest {
+
+    @Mock
+    private Index<String, float[], TestItem, Float> index;
+
+    private String indexName = "testindex";
+
+    private MetricRegistry metricRegistry;
+
+    private CachingDecorator<String, float[], TestItem, Float, Index<String, float[], TestItem, Float>> decorator;
+
+    @BeforeEach
+    void setUp() {
+        this.metricRegistry = new MetricRegistry();
+        this.decorator = new CachingDecorator<>(index, 10);
+
+        CacheMetrics.register(metricRegistry, CacheMetricsTest.class, indexName, decorator);
+    }
+
+    @Test
+    void publishesHitsAndMisses() {
+        float[] vector = new float[] { 1f, 2f };
+        given(index.findNearest(vector, 10)).willReturn(Collections.emptyList());
+
+        decorator.findNearest(vector, 10);
+        decorator.findNearest(vector, 10);
+        decorator.findNearest(vector, 10);
+
+        assertThat(gauge("hits").getValue(), is(2L));
+        assertThat(gauge("misses").getValue(), is(1L));
+        assertThat(gauge("evictions").getValue(), is(0L));
+        assertThat(gauge("size").getValue(), is(1));
+        assertThat((Double) gauge("hitRatio").getValue(), is(2d / 3d));
+    }
+
+    private Gauge<?> gauge(String name) {
+        return metricRegistry.getGauges().get(name(getClass(), indexName, "cache", name));
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.jelmerk.knn.metrics.dropwizard;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.jelmerk.knn.DistanceFunctions;
+import com.github.jelmerk.knn.hnsw.HnswIndex;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class DropwizardInstrumentationTest {
+
+    private String indexName = "testindex";
+
+    private MetricRegistry metricRegistry;
+
+    private HnswIndex<String, float[], TestItem, Float> index;
+
+    @BeforeEach
+    void setUp() {
+        this.metricRegistry = new MetricRegistry();
+        this.index = HnswIndex.newBuilder(2, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE, 10)
+                .withRemoveEnabled()
+                .build();
+
+        index.setInstrumentation(new DropwizardInstrumentation(metricRegistry, getClass(), indexName));
+    }
+
+    @Test
+    void publishesInternals() {
+        index.add(new TestItem("1", new float[] { 0f, 1f }));
+        index.add(new TestItem("2", new float[] { 1f, 0f }));
+        index.add(new TestItem("3", new float[] { 1f, 1f }));
+        index.remove("1", 0);
+
+        index.findNearest(new float[] { 0f, 0f }, 2);
+
+        assertThat(metricRegistry.timer(metricName("insert", "layerSearch")).getCount(), is(3L));
+        assertThat(metricRegistry.timer(metricName("insert", "connect")).getCount(), is(3L));
+        assertThat(metricRegistry.timer(metricName("globalLock", "hold")).getCount() >= 4, is(true));
+        assertThat(metricRegistry.timer(metricName("visitedSetPool", "borrow")).getCount() >= 1, is(true));
+        assertThat(metricRegistry.histogram(metricName("search", "distanceComputations")).getCount(), is(1L));
+        assertThat(metricRegistry.getGauges().get(metricName("deletedNodes")).getValue(), is(1));
+    }
+
+    private String metricName(String... names) {
+        return name(name(getClass(), indexName), names);
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.jelmerk.knn.metrics.dropwizard;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.jelmerk.knn.DistanceFunctions;
+import com.github.jelmerk.knn.hnsw.HnswIndex;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class GraphMetricsTest {
+
+    private String indexName = "testindex";
+
+    private MetricRegistry metricRegistry;
+
+    private HnswIndex<String, float[], TestItem, Float> index;
+
+    @BeforeEach
+    void setUp() {
+        this.metricRegistry = new MetricRegistry();
+        this.index = HnswIndex.newBuilder(2, DistanceFunctions.FLOAT_EUCLIDEAN_DISTANCE, 10)
+                .withRemoveEnabled()
+                .build();
+
+        GraphMetrics.register(metricRegistry, GraphMetricsTest.class, indexName, index, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void publishesDiagnostics() {
+        index.add(new TestItem("1", new float[] { 0f, 1f }));
+        index.add(new TestItem("2", new float[] { 1f, 0f }));
+        index.add(new TestItem("3", new float[] { 1f, 1f }));
+        index.add(new TestItem("4", new float[] { 0f, 0f }));
+        index.remove("1", 0);
+
+        assertThat(gauge("nodes").getValue(), is(4L));
+        assertThat(gauge("deletedNodes").getValue(), is(1L));
+        assertThat(gauge("deletedRatio").getValue(), is(0.25));
+        assertThat(gauge("unreachableNodes").getValue(), is(0L));
+        assertThat(gauge("level0", "population").getValue(), is(4L));
+        assertThat(gauge("level0", "meanDegree").getValue(), is(3d));
+    }
+
+    private Gauge<?> gauge(String... names) {
+        return metricRegistry.getGauges().get(name(name(getClass(), indexName, "graph"), names));
+    }
+}
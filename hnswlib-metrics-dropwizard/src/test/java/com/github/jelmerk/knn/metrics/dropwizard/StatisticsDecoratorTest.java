@@ -39,6 +39,7 @@ class StatisticsDecoratorTest {
 
     private TestItem item1 = new TestItem("1", new float[0]);
     private TestItem item2 = new TestItem("2", new float[0]);
+    private TestItem item3 = new TestItem("3", new float[0]);
 
     private int k = 10;
 
@@ -121,6 +122,54 @@ class StatisticsDecoratorTest {
         await().untilAsserted(() -> assertThat(metricRegistry.histogram(name(getClass(), indexName, "accuracy")).getSnapshot().getMax(), is(50L)));
     }
 
+    @Test
+    void measuresFindNearestNdcgAndDistanceRatio() {
+        List<SearchResult<TestItem, Float>> approximateResults = Arrays.asList(
+                new SearchResult<>(item2, 0.4f, Comparator.naturalOrder()),
+                new SearchResult<>(item1, 0.2f, Comparator.naturalOrder())
+        );
+
+        List<SearchResult<TestItem, Float>> groundTruthResults = Arrays.asList(
+                new SearchResult<>(item1, 0.2f, Comparator.naturalOrder()),
+                new SearchResult<>(item3, 0.3f, Comparator.naturalOrder())
+        );
+
+        given(approximativeIndex.findNearest(item1.vector(), k)).willReturn(approximateResults);
+        given(groundTruthIndex.findNearest(item1.vector(), k)).willReturn(groundTruthResults);
+
+        decorator.findNearest(item1.vector(), k);
+
+        // item1 found at rank 2 : (1 / log2(3)) / (1 + 1 / log2(3))
+        await().untilAsserted(() -> assertThat(metricRegistry.histogram(name(getClass(), indexName, "ndcg")).getSnapshot().getMax(), is(39L)));
+        // (0.4 / 0.2 + 0.2 / 0.3) / 2
+        assertThat(metricRegistry.histogram(name(getClass(), indexName, "distanceRatio")).getSnapshot().getMax(), is(133L));
+    }
+
+    @Test
+    void evaluatesAccuracyOnPassedInExecutor() {
+        List<Runnable> submitted = new ArrayList<>();
+
+        decorator = new StatisticsDecorator<>(metricRegistry, StatisticsDecoratorTest.class, "other",
+                approximativeIndex, groundTruthIndex, maxAccuracySampleFrequency, submitted::add, 2);
+
+        given(approximativeIndex.findNearest(item1.vector(), k)).willReturn(Collections.emptyList());
+
+        decorator.findNearest(item1.vector(), k);
+        decorator.findNearest(item1.vector(), k);
+        decorator.findNearest(item1.vector(), k);
+
+        assertThat(submitted.size(), is(2));
+        assertThat(metricRegistry.meter(name(getClass(), "other", "droppedSamples")).getCount(), is(1L));
+
+        given(groundTruthIndex.findNearest(item1.vector(), k)).willReturn(Collections.emptyList());
+        submitted.get(0).run();
+
+        decorator.findNearest(item1.vector(), k);
+
+        assertThat(submitted.size(), is(3));
+        assertThat(metricRegistry.meter(name(getClass(), "other", "droppedSamples")).getCount(), is(1L));
+    }
+
     @Test
     void timesSave() throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
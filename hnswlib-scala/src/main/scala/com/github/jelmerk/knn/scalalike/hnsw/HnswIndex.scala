@@ -151,7 +151,14 @@ class HnswIndex[TId, TVector, TItem <: Item[TId, TVector], TDistance] private (d
   /**
     * The maximum number of items the index can hold.
     */
-  val maxItemCount: Int = delegate.getMaxItemCount
+  def maxItemCount: Int = delegate.getMaxItemCount
+
+  /**
+    * Changes the maximum number of items the index can hold.
+    *
+    * @param newSize the new maximum number of items the index can hold
+    */
+  def resize(newSize: Int): Unit = delegate.resize(newSize)
 
   /**
     * True if removes are enabled for this index.
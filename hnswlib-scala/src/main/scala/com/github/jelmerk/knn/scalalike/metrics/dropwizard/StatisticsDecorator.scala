@@ -1,5 +1,7 @@
 package com.github.jelmerk.knn.scalalike.metrics.dropwizard
 
+import java.util.concurrent.Executor
+
 import com.codahale.metrics._
 import com.github.jelmerk.knn.scalalike.{Index, Item, JavaIndexAdapter, ScalaIndexAdapter}
 import com.github.jelmerk.knn.metrics.dropwizard.{StatisticsDecorator => JStatisticsDecorator}
@@ -77,6 +79,49 @@ object StatisticsDecorator {
     new StatisticsDecorator(javaStatisticsDecorator)
   }
 
+  /**
+    * Decorator on top of an index that will collect statistics about the index. Such as the precision of the results
+    * returned by the approximative index compared to a brute force baseline. The comparisons run on the passed in
+    * executor.
+    *
+    * @param approximativeIndex the approximative index
+    * @param groundTruthIndex the brute force index
+    * @param maxAccuracySampleFrequency at most every maxAccuracySampleFrequency requests compare the results of the
+    *                                   approximate index with those of the ground truth index to establish the runtime
+    *                                   accuracy of the index
+    * @param accuracyEvaluationExecutor executor the comparisons run on
+    * @param maxPendingEvaluations maximum number of comparisons that can be queued or running at the same time,
+    *                              samples taken while this many comparisons are pending are dropped
+    *
+    * @tparam TId Type of the external identifier of an item
+    * @tparam TVector Type of the vector to perform distance calculation on
+    * @tparam TItem Type of items stored in the index
+    * @tparam TDistance Type of distance between items (expect any numeric type: float, double, int, ..)
+    * @return the StatisticsDecorator
+    */
+  def apply[TId, TVector, TItem <: Item[TId, TVector], TDistance,
+              TApproximativeIndex <: Index[TId, TVector, TItem, TDistance],
+              TGroundTruthIndex <: Index[TId, TVector, TItem, TDistance]](
+        metricRegistry: MetricRegistry,
+        clazz: Class[_],
+        indexName: String,
+        approximativeIndex: TApproximativeIndex,
+        groundTruthIndex: TGroundTruthIndex,
+        maxAccuracySampleFrequency: Int,
+        accuracyEvaluationExecutor: Executor,
+        maxPendingEvaluations: Int)
+      : StatisticsDecorator[TId, TVector, TItem, TDistance, TApproximativeIndex, TGroundTruthIndex] = {
+
+    val javaApproximativeIndex = new JavaIndexAdapter(approximativeIndex)
+    val javaGroundTruthIndex = new JavaIndexAdapter(groundTruthIndex)
+    val javaStatisticsDecorator = new JStatisticsDecorator[TId, TVector, TItem, TDistance,
+        JavaIndexAdapter[TId, TVector, TItem, TDistance], JavaIndexAdapter[TId, TVector, TItem, TDistance]](
+      metricRegistry, clazz, indexName, javaApproximativeIndex, javaGroundTruthIndex, maxAccuracySampleFrequency,
+      accuracyEvaluationExecutor, maxPendingEvaluations)
+
+    new StatisticsDecorator(javaStatisticsDecorator)
+  }
+
 }
 
 /**